@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.Collection;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the benchmarks and prints rays/sec and ns/ray for each of them.
+//
+// Usage: BenchmarkRunner [gc] [regex]
+//   gc    - add the GC profiler, which also reports bytes allocated per ray
+//           (gc.alloc.rate.norm)
+//   regex - only run matching benchmarks, e.g. Intersection
+public class BenchmarkRunner
+{
+	public static void main(String[] args) throws RunnerException
+	{
+		boolean gcProfiler = false;
+		String include = ".*Benchmark.*";
+
+		for (String arg : args)
+		{
+			if ("gc".equals(arg))
+			{
+				gcProfiler = true;
+			}
+			else
+			{
+				include = arg;
+			}
+		}
+
+		ChainedOptionsBuilder builder = new OptionsBuilder().include(include).forks(1).warmupIterations(3).measurementIterations(5);
+
+		if (gcProfiler)
+		{
+			builder.addProfiler(GCProfiler.class);
+		}
+
+		Collection<RunResult> results = new Runner(builder.build()).run();
+
+		System.out.println();
+		System.out.println(String.format("%-70s %15s %12s", "Benchmark", "rays/sec", "ns/ray"));
+
+		for (RunResult result : results)
+		{
+			StringBuilder name = new StringBuilder(result.getParams().getBenchmark());
+
+			for (String key : result.getParams().getParamsKeys())
+			{
+				name.append(' ').append(key).append('=').append(result.getParams().getParam(key));
+			}
+
+			// Every benchmark counts one ray (or one vector operation) per op
+			double perSecond = result.getPrimaryResult().getScore();
+
+			System.out.println(String.format("%-70s %15.0f %12.2f", name, perSecond, 1e9 / perSecond));
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Scenes and rays shared by the benchmarks. The default scene is the one
+// JFXRayApp starts with.
+final class BenchmarkScenes
+{
+	static final String PATTERN_TFX = "TFX";
+	static final String PATTERN_LARGE = "LARGE";
+
+	// Size of the frame the default camera is set up for
+	static final int FRAME_SIZE = 512;
+
+	private static final String[] TFX = new String[] {
+			"******* ****** *       *",
+			"   *    *       *     * ",
+			"   *    *        *   *  ",
+			"   *    *         * *   ",
+			"   *    *****      *    ",
+			"   *    *         * *   ",
+			"   *    *        *   *  ",
+			"   *    *       *     * ",
+			"****    *      *       *" };
+
+	private BenchmarkScenes()
+	{
+	}
+
+	// "TFX" is the default pattern, "LARGE" is a 249 column banner made of 10
+	// copies of it side by side
+	static String[] pattern(String name)
+	{
+		if (PATTERN_LARGE.equals(name))
+		{
+			String[] lines = new String[TFX.length];
+
+			for (int i = 0; i < TFX.length; i++)
+			{
+				StringBuilder builder = new StringBuilder();
+
+				for (int repeat = 0; repeat < 10; repeat++)
+				{
+					if (repeat > 0)
+					{
+						builder.append(' ');
+					}
+
+					builder.append(TFX[i]);
+				}
+
+				lines[i] = builder.toString();
+			}
+
+			return lines;
+		}
+
+		return TFX.clone();
+	}
+
+	// The JFXRayApp defaults
+	static RenderConfig config(String pattern, int rays, int threads)
+	{
+		RenderConfig config = new RenderConfig();
+
+		config.setLines(pattern(pattern));
+		config.setImageWidth(FRAME_SIZE);
+		config.setImageHeight(FRAME_SIZE);
+		config.setRays(rays);
+		config.setThreads(threads);
+
+		config.setBrightness(10);
+		config.setCamDirection(new Vector3f(-2, -12, 0));
+		config.setEvenColour(new Vector3f(3, 1, 1));
+		config.setOddColour(new Vector3f(3, 3, 3));
+		config.setRayOrigin(new Vector3f(16, 18, 8));
+		config.setSkyColour(new Vector3f(.4f, .4f, 1f));
+		config.setSphereReflectivity(0.5f);
+
+		return config;
+	}
+
+	// A fixed set of jittered camera rays through random pixels of the frame,
+	// packed as ox, oy, oz, dx, dy, dz per ray. The context must have been
+	// prepared with the scene.
+	static float[] cameraRays(RenderContext context, int count, long seed)
+	{
+		return cameraRays(context, count, seed, -1);
+	}
+
+	// As above but only rays whose first hit is the given material
+	// (HitRecord.MATERIAL_SKY, _FLOOR or _SPHERE), -1 for any
+	static float[] cameraRays(RenderContext context, int count, long seed, int material)
+	{
+		Random random = new Random(seed);
+
+		MutableVector3f lens = new MutableVector3f();
+		MutableVector3f origin = new MutableVector3f();
+		MutableVector3f dir = new MutableVector3f();
+
+		HitRecord hit = new HitRecord();
+
+		List<float[]> rays = new ArrayList<>(count);
+
+		int attempts = 0;
+
+		while (rays.size() < count)
+		{
+			if (++attempts > count * 1000)
+			{
+				throw new IllegalStateException("Could not find " + count + " rays hitting material " + material);
+			}
+
+			float px = random.nextInt(FRAME_SIZE) + random.nextFloat();
+			float py = random.nextInt(FRAME_SIZE) + random.nextFloat();
+
+			context.cameraRay(px, py, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, lens, origin, dir);
+
+			if (material >= 0)
+			{
+				context.test(origin.x, origin.y, origin.z, dir.x, dir.y, dir.z, hit);
+
+				if (hit.material != material)
+				{
+					continue;
+				}
+			}
+
+			rays.add(new float[] { origin.x, origin.y, origin.z, dir.x, dir.y, dir.z });
+		}
+
+		float[] result = new float[count * 6];
+
+		for (int i = 0; i < count; i++)
+		{
+			System.arraycopy(rays.get(i), 0, result, i * 6, 6);
+		}
+
+		return result;
+	}
+
+	// Camera rays for 'packets' runs of RayPacket.LANES neighbouring pixels
+	// in a row, as JFXRay traces them with packet tracing on. Packed as in
+	// cameraRays() with the rays of each packet consecutive.
+	static float[] packetRays(RenderContext context, int packets, long seed)
+	{
+		Random random = new Random(seed);
+
+		MutableVector3f lens = new MutableVector3f();
+		MutableVector3f origin = new MutableVector3f();
+		MutableVector3f dir = new MutableVector3f();
+
+		float[] result = new float[packets * RayPacket.LANES * 6];
+
+		int index = 0;
+
+		for (int packet = 0; packet < packets; packet++)
+		{
+			int x = random.nextInt(FRAME_SIZE - RayPacket.LANES + 1);
+			int y = random.nextInt(FRAME_SIZE);
+
+			for (int lane = 0; lane < RayPacket.LANES; lane++)
+			{
+				context.cameraRay(x + lane + random.nextFloat(), y + random.nextFloat(), random.nextFloat() - 0.5f,
+						random.nextFloat() - 0.5f, lens, origin, dir);
+
+				result[index++] = origin.x;
+				result[index++] = origin.y;
+				result[index++] = origin.z;
+				result[index++] = dir.x;
+				result[index++] = dir.y;
+				result[index++] = dir.z;
+			}
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// RenderContext.test() against a fixed set of camera rays. One operation
+// is one ray.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IntersectionBenchmark
+{
+	static final int RAYS = 4096;
+
+	@Param({ BenchmarkScenes.PATTERN_TFX, BenchmarkScenes.PATTERN_LARGE })
+	public String pattern;
+
+	@Param({ "GRID", "BRUTE_FORCE" })
+	public IntersectionMode mode;
+
+	private RenderContext context;
+	private float[] rays;
+	private HitRecord hit;
+
+	@Setup
+	public void setup()
+	{
+		RenderConfig config = BenchmarkScenes.config(pattern, 1, 1);
+		config.setIntersectionMode(mode);
+
+		context = new JFXRay().prepare(config);
+
+		rays = BenchmarkScenes.cameraRays(context, RAYS, 42);
+		hit = new HitRecord();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAYS)
+	public void closestHit(Blackhole blackhole)
+	{
+		for (int i = 0; i < RAYS * 6; i += 6)
+		{
+			context.test(rays[i], rays[i + 1], rays[i + 2], rays[i + 3], rays[i + 4], rays[i + 5], hit);
+
+			blackhole.consume(hit.t);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAYS)
+	public void occlusion(Blackhole blackhole)
+	{
+		for (int i = 0; i < RAYS * 6; i += 6)
+		{
+			blackhole.consume(context.occluded(rays[i], rays[i + 1], rays[i + 2], rays[i + 3], rays[i + 4], rays[i + 5], hit));
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Closest hit for coherent camera rays (runs of neighbouring pixels), ray by
+// ray with RenderContext.test() against a packet at a time with
+// RenderContext.testPacket(). One operation is one ray.
+// The packet is tested lane by lane (kernel=LANES) or with the Vector API
+// (kernel=VECTOR), which needs the vector profile and the benchmark JVM
+// started with --add-modules jdk.incubator.vector. scalar() ignores it.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PacketBenchmark
+{
+	static final int PACKETS = 512;
+
+	static final int RAYS = PACKETS * RayPacket.LANES;
+
+	@Param({ BenchmarkScenes.PATTERN_TFX, BenchmarkScenes.PATTERN_LARGE })
+	public String pattern;
+
+	@Param({ "LANES", "VECTOR" })
+	public String kernel;
+
+	private RenderContext context;
+	private float[] rays;
+	private HitRecord hit;
+	private RayPacket packet;
+
+	@Setup
+	public void setup()
+	{
+		RenderConfig config = BenchmarkScenes.config(pattern, 1, 1);
+
+		context = new JFXRay().prepare(config);
+
+		if ("VECTOR".equals(kernel))
+		{
+			if (PacketKernel.VECTOR == null)
+			{
+				throw new IllegalStateException("kernel=VECTOR needs --add-modules jdk.incubator.vector");
+			}
+
+			context.packetKernel = PacketKernel.VECTOR;
+		}
+		else
+		{
+			context.packetKernel = null;
+		}
+
+		rays = BenchmarkScenes.packetRays(context, PACKETS, 42);
+		hit = new HitRecord();
+		packet = new RayPacket();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAYS)
+	public void scalar(Blackhole blackhole)
+	{
+		for (int i = 0; i < RAYS * 6; i += 6)
+		{
+			context.test(rays[i], rays[i + 1], rays[i + 2], rays[i + 3], rays[i + 4], rays[i + 5], hit);
+
+			blackhole.consume(hit.t);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAYS)
+	public void packet(Blackhole blackhole)
+	{
+		for (int i = 0; i < RAYS * 6;)
+		{
+			packet.clear();
+
+			for (int lane = 0; lane < RayPacket.LANES; lane++, i += 6)
+			{
+				packet.add(rays[i], rays[i + 1], rays[i + 2], rays[i + 3], rays[i + 4], rays[i + 5]);
+			}
+
+			context.testPacket(packet);
+
+			for (int lane = 0; lane < RayPacket.LANES; lane++)
+			{
+				context.packetHit(packet, lane, hit);
+
+				blackhole.consume(hit.t);
+			}
+		}
+	}
+}
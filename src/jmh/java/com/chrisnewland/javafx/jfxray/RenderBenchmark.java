@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// A full render() of the default scene at 1 ray per pixel. One operation is
+// one camera ray.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RenderBenchmark
+{
+	static final int CAMERA_RAYS = BenchmarkScenes.FRAME_SIZE * BenchmarkScenes.FRAME_SIZE;
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	private JFXRay engine;
+	private RenderConfig config;
+
+	@Setup
+	public void setup()
+	{
+		config = BenchmarkScenes.config(BenchmarkScenes.PATTERN_TFX, 1, threads);
+		engine = new JFXRay();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		engine.shutdown();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CAMERA_RAYS)
+	public byte[] render()
+	{
+		engine.render(config);
+
+		return engine.getImageData();
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// RenderContext.sample() for camera rays that first hit the sky, the floor
+// or a sphere, including their shadow and reflection rays. One operation is
+// one camera ray.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SampleBenchmark
+{
+	static final int RAYS = 1024;
+
+	@Param({ "SKY", "FLOOR", "SPHERE" })
+	public String target;
+
+	private RenderContext context;
+	private float[] rays;
+	private HitRecord hit;
+	private float[] rgb;
+	private Sampler sampler;
+
+	@Setup
+	public void setup()
+	{
+		context = new JFXRay().prepare(BenchmarkScenes.config(BenchmarkScenes.PATTERN_TFX, 1, 1));
+
+		int material;
+
+		switch (target)
+		{
+		case "SKY":
+			material = HitRecord.MATERIAL_SKY;
+			break;
+		case "FLOOR":
+			material = HitRecord.MATERIAL_FLOOR;
+			break;
+		default:
+			material = HitRecord.MATERIAL_SPHERE;
+			break;
+		}
+
+		rays = BenchmarkScenes.cameraRays(context, RAYS, 42, material);
+		hit = new HitRecord();
+		rgb = new float[3];
+		sampler = SamplerType.RANDOM.createSampler(0, 1);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAYS)
+	public void sample(Blackhole blackhole)
+	{
+		for (int i = 0; i < RAYS * 6; i += 6)
+		{
+			context.sample(rays[i], rays[i + 1], rays[i + 2], rays[i + 3], rays[i + 4], rays[i + 5], hit, rgb, sampler);
+
+			blackhole.consume(rgb[0]);
+		}
+	}
+}
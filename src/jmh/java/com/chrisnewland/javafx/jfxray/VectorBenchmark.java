@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Vector3f operations next to their MutableVector3f counterparts. Run with the
+// gc profiler to see the allocation each one costs.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class VectorBenchmark
+{
+	private Vector3f a;
+	private Vector3f b;
+
+	private MutableVector3f mutableA;
+	private MutableVector3f mutableB;
+	private MutableVector3f scratch;
+
+	@Setup
+	public void setup()
+	{
+		a = new Vector3f(1.5f, -2.25f, 3.125f);
+		b = new Vector3f(-0.5f, 4.75f, 0.375f);
+
+		mutableA = new MutableVector3f(a);
+		mutableB = new MutableVector3f(b);
+		scratch = new MutableVector3f();
+	}
+
+	@Benchmark
+	public Vector3f add()
+	{
+		return a.add(b);
+	}
+
+	@Benchmark
+	public Vector3f scale()
+	{
+		return a.scale(0.75f);
+	}
+
+	@Benchmark
+	public float dot()
+	{
+		return a.dot(b);
+	}
+
+	@Benchmark
+	public Vector3f cross()
+	{
+		return a.cross(b);
+	}
+
+	@Benchmark
+	public Vector3f normalise()
+	{
+		return a.normalise();
+	}
+
+	@Benchmark
+	public MutableVector3f mutableAdd()
+	{
+		return scratch.set(mutableA).add(mutableB);
+	}
+
+	@Benchmark
+	public MutableVector3f mutableScale()
+	{
+		return scratch.set(mutableA).scale(0.75f);
+	}
+
+	@Benchmark
+	public float mutableDot()
+	{
+		return mutableA.dot(mutableB);
+	}
+
+	@Benchmark
+	public MutableVector3f mutableCross()
+	{
+		return scratch.set(mutableA).cross(mutableB);
+	}
+
+	@Benchmark
+	public MutableVector3f mutableNormalise()
+	{
+		return scratch.set(mutableA).normalise();
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Renders the frames of a KeyframeAnimation as a pipeline.
+// Several frames are rendered at once by one JFXRay on a RenderService,
+// taking turns at its threads a tile at a time. When a frame is down to its
+// last few tiles the threads that have run out of its work carry on with
+// the other frames' tiles instead of waiting, so the cores stay busy across
+// frame boundaries.
+// Finished frames are passed to the FrameSink in order on the calling
+// thread while later frames render. At most framesInFlight +
+// maxBufferedFrames frames are held in memory, rendering stalls when the
+// sink falls that far behind.
+public final class AnimationRenderer
+{
+	private final int threads;
+
+	// Render threads shared with other renders, null to start a service
+	// for each animation
+	private final RenderService service;
+
+	private final int framesInFlight;
+	private final int maxBufferedFrames;
+
+	// Finished frames waiting to be written, by frame number
+	private final Map<Integer, byte[]> finished = new HashMap<>();
+
+	// First failure of a render thread, thrown to the writer by takeFrame()
+	private Throwable failure;
+
+	public AnimationRenderer(int threads, int framesInFlight, int maxBufferedFrames)
+	{
+		this(null, threads, framesInFlight, maxBufferedFrames);
+	}
+
+	// Render on 'service' alongside its other renders, the frames at the
+	// priority of their configs
+	public AnimationRenderer(RenderService service, int framesInFlight, int maxBufferedFrames)
+	{
+		this(service, service.getThreads(), framesInFlight, maxBufferedFrames);
+	}
+
+	private AnimationRenderer(RenderService service, int threads, int framesInFlight, int maxBufferedFrames)
+	{
+		this.service = service;
+		this.threads = Math.max(1, threads);
+		this.framesInFlight = Math.max(1, framesInFlight);
+		this.maxBufferedFrames = Math.max(0, maxBufferedFrames);
+	}
+
+	// Render every frame into 'sink', returns the frames per second achieved
+	public double render(final KeyframeAnimation animation, FrameSink sink) throws IOException
+	{
+		final int frameCount = animation.getFrameCount();
+
+		for (int frame = 0; frame < frameCount; frame++)
+		{
+			if (animation.getFrame(frame).isProgressive())
+			{
+				throw new IllegalArgumentException("Animation frames can not be progressive, frame " + frame);
+			}
+		}
+
+		synchronized (this)
+		{
+			finished.clear();
+			failure = null;
+		}
+
+		final RenderService renderService = service != null ? service : new RenderService(threads);
+
+		// Renders each frame in its own context so one engine does them all
+		final JFXRay raytracer = new JFXRay(renderService);
+
+		// One permit per frame being rendered or waiting to be written
+		final Semaphore frameSlots = new Semaphore(framesInFlight + maxBufferedFrames);
+
+		final AtomicInteger nextFrame = new AtomicInteger();
+
+		List<Thread> renderThreads = new ArrayList<>();
+
+		long start = System.currentTimeMillis();
+
+		for (int i = 0; i < framesInFlight; i++)
+		{
+			Thread thread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					renderFrames(animation, frameCount, raytracer, nextFrame, frameSlots);
+				}
+			}, "JFXRay animation " + i);
+
+			thread.setDaemon(true);
+			thread.start();
+
+			renderThreads.add(thread);
+		}
+
+		try
+		{
+			for (int frame = 0; frame < frameCount; frame++)
+			{
+				byte[] rgb = takeFrame(frame);
+
+				RenderConfig config = animation.getFrame(frame);
+
+				sink.writeFrame(frame, rgb, config.getImageWidth(), config.getImageHeight());
+
+				frameSlots.release();
+			}
+
+			for (Thread thread : renderThreads)
+			{
+				thread.join();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+
+			throw new InterruptedIOException("Animation interrupted");
+		}
+		finally
+		{
+			// Stop the render threads early if writing failed
+			nextFrame.set(frameCount);
+
+			raytracer.cancel();
+
+			frameSlots.release(framesInFlight);
+
+			if (renderService != service)
+			{
+				renderService.shutdown();
+			}
+		}
+
+		long time = Math.max(1, System.currentTimeMillis() - start);
+
+		return frameCount * 1000.0 / time;
+	}
+
+	// Claim and render frames until there are none left
+	private void renderFrames(KeyframeAnimation animation, int frameCount, JFXRay raytracer, AtomicInteger nextFrame,
+			Semaphore frameSlots)
+	{
+		try
+		{
+			while (true)
+			{
+				frameSlots.acquire();
+
+				int frame = nextFrame.getAndIncrement();
+
+				if (frame >= frameCount)
+				{
+					frameSlots.release();
+					return;
+				}
+
+				RenderConfig config = animation.getFrame(frame);
+				config.setThreads(threads);
+
+				// Each render makes a new frame array so it can be handed on
+				frameFinished(frame, raytracer.render(config));
+			}
+		}
+		catch (InterruptedException e)
+		{
+			// Daemon thread, nothing waits for the interrupt
+		}
+		catch (Throwable t)
+		{
+			// Errors too, such as running out of memory for a frame, or the
+			// writer would wait for the frame for ever
+			renderFailed(t);
+		}
+	}
+
+	private synchronized void frameFinished(int frame, byte[] rgb)
+	{
+		finished.put(frame, rgb);
+		notifyAll();
+	}
+
+	private synchronized void renderFailed(Throwable t)
+	{
+		if (failure == null)
+		{
+			failure = t;
+		}
+
+		notifyAll();
+	}
+
+	private synchronized byte[] takeFrame(int frame) throws InterruptedException, IOException
+	{
+		while (!finished.containsKey(frame))
+		{
+			if (failure instanceof Error)
+			{
+				throw (Error) failure;
+			}
+
+			if (failure != null)
+			{
+				throw new IOException("Rendering frame failed", failure);
+			}
+
+			wait();
+		}
+
+		return finished.remove(frame);
+	}
+}
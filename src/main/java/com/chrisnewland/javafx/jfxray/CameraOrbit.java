@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// Moves the camera (ray origin and direction) for interactive navigation.
+// Orbiting swings the origin around the point the camera is looking at,
+// which is taken to be FOCUS_DISTANCE along the view direction where the
+// camera maths in JFXRay focuses, and keeps the camera pointed at it.
+// Z is up.
+public final class CameraOrbit
+{
+	static final float FOCUS_DISTANCE = 16;
+
+	// Keep clear of looking straight up or down, the camera basis needs a
+	// direction that is not parallel to Z
+	private static final float MAX_PITCH_SIN = 0.95f;
+
+	private Vector3f origin;
+	private Vector3f direction;
+
+	public CameraOrbit(Vector3f origin, Vector3f direction)
+	{
+		this.origin = origin;
+		this.direction = direction.normalise();
+	}
+
+	// Turn by 'yaw' radians about the vertical axis and 'pitch' radians up
+	// or down around the focus point
+	public void orbit(float yaw, float pitch)
+	{
+		Vector3f focus = origin.add(direction.scale(FOCUS_DISTANCE));
+
+		// Focus to camera
+		Vector3f arm = direction.scale(-FOCUS_DISTANCE);
+
+		arm = rotate(arm, new Vector3f(0, 0, 1), yaw);
+
+		Vector3f rotated = rotate(arm, new Vector3f(0, 0, 1).cross(arm).normalise(), pitch);
+
+		if (Math.abs(rotated.getZ() / FOCUS_DISTANCE) < MAX_PITCH_SIN)
+		{
+			arm = rotated;
+		}
+
+		origin = focus.add(arm);
+		direction = arm.scale(-1).normalise();
+	}
+
+	// Move along the view direction, negative backs away
+	public void dolly(float distance)
+	{
+		origin = origin.add(direction.scale(distance));
+	}
+
+	public Vector3f getOrigin()
+	{
+		return origin;
+	}
+
+	public Vector3f getDirection()
+	{
+		return direction;
+	}
+
+	// Rodrigues' rotation of v by 'angle' radians about unit vector 'axis'
+	private static Vector3f rotate(Vector3f v, Vector3f axis, float angle)
+	{
+		float cos = (float) Math.cos(angle);
+		float sin = (float) Math.sin(angle);
+
+		return v.scale(cos).add(axis.cross(v).scale(sin)).add(axis.scale(axis.dot(v) * (1 - cos)));
+	}
+}
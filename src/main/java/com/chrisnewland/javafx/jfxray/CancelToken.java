@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// Asks a render to stop. The render threads check it before every row so
+// a cancelled render returns within about one row of one tile per thread.
+public final class CancelToken
+{
+	private volatile boolean cancelled;
+
+	public void cancel()
+	{
+		cancelled = true;
+	}
+
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// The light falling on the floor, baked once per scene so floor hits look
+// it up instead of tracing a shadow ray.
+// Each texel holds the lambert term of the floor's shading (the 'b' of
+// RenderContext.shade()) averaged over the soft light, a square from
+// (9, 9, 16) to (10, 10, 16), with the spheres' shadows in it. It does not
+// depend on the camera so one map serves every view of the scene.
+// The map covers the floor the scene can shadow, found by projecting the
+// scene bounds from the corners of the light, and lookups are filtered
+// bilinearly between texel centres. Outside it nothing can be in the way
+// so floor hits skip the shadow ray altogether, unless the scene reaches
+// the height of the light and its shadows go further than MAX_REACH.
+// Every texel traces all LIGHT_SAMPLES x LIGHT_SAMPLES light samples. A
+// sphere smaller than the gap between two samples' rays can block the
+// ones between them and none of the others, so the corners of the light
+// say nothing about the rest of it.
+public final class FloorMap
+{
+	// lookup() results for floor outside the map
+	static final float UNSHADOWED = -1;
+	static final float TRACE = -2;
+
+	// The light square of RenderContext.shade()
+	private static final float LIGHT_X = 9;
+	private static final float LIGHT_Y = 9;
+	private static final float LIGHT_Z = 16;
+
+	// Light samples per texel along each side of the light, at the centres
+	// of a grid of strata
+	private static final int LIGHT_SAMPLES = 8;
+
+	// Furthest from the light the map reaches, in scene units
+	private static final float MAX_REACH = 128;
+
+	// Rows of texels baked by each task of the parallel build
+	private static final int ROWS_PER_TASK = 4;
+
+	// Floor position of the corner of texel (0, 0)
+	private final float minX;
+	private final float minY;
+
+	// Texels per scene unit
+	private final float resolution;
+
+	private final int width;
+	private final int height;
+
+	// True if the shadows may go beyond the map
+	private final boolean clipped;
+
+	// Lambert term of each texel, row by row
+	private final float[] light;
+
+	private final long buildMillis;
+
+	private FloorMap(RenderContext context, float[] bounds, float resolution, ForkJoinPool pool)
+	{
+		long start = System.currentTimeMillis();
+
+		this.resolution = resolution;
+
+		float x0 = Float.POSITIVE_INFINITY;
+		float y0 = Float.POSITIVE_INFINITY;
+		float x1 = Float.NEGATIVE_INFINITY;
+		float y1 = Float.NEGATIVE_INFINITY;
+
+		// Occluders are above the floor, an empty scene has none
+		float minZ = bounds == null ? 0 : Math.max(0, bounds[2]);
+		float maxZ = bounds == null ? -1 : bounds[5];
+
+		// A scene reaching the height of the light casts shadows to infinity,
+		// and shadow rays have no length so spheres above it block them too
+		boolean unbounded = maxZ >= LIGHT_Z;
+
+		if (!unbounded && maxZ >= minZ)
+		{
+			// The shadow of a point is where the line from the light through
+			// it meets the floor, which for a box and a square light lies
+			// within the shadows of the corners cast from the corners
+			for (int corner = 0; corner < 8; corner++)
+			{
+				float x = bounds[(corner & 1) == 0 ? 0 : 3];
+				float y = bounds[(corner & 2) == 0 ? 1 : 4];
+				float z = (corner & 4) == 0 ? minZ : maxZ;
+
+				float scale = LIGHT_Z / (LIGHT_Z - z);
+
+				for (int lightCorner = 0; lightCorner < 4; lightCorner++)
+				{
+					float lx = LIGHT_X + (lightCorner & 1);
+					float ly = LIGHT_Y + (lightCorner >> 1);
+
+					float sx = lx + (x - lx) * scale;
+					float sy = ly + (y - ly) * scale;
+
+					x0 = Math.min(x0, sx);
+					y0 = Math.min(y0, sy);
+					x1 = Math.max(x1, sx);
+					y1 = Math.max(y1, sy);
+				}
+			}
+		}
+
+		boolean clip = unbounded || x0 < LIGHT_X - MAX_REACH || y0 < LIGHT_Y - MAX_REACH
+				|| x1 > LIGHT_X + 1 + MAX_REACH || y1 > LIGHT_Y + 1 + MAX_REACH;
+
+		if (clip)
+		{
+			x0 = unbounded ? LIGHT_X - MAX_REACH : Math.max(x0, LIGHT_X - MAX_REACH);
+			y0 = unbounded ? LIGHT_Y - MAX_REACH : Math.max(y0, LIGHT_Y - MAX_REACH);
+			x1 = unbounded ? LIGHT_X + 1 + MAX_REACH : Math.min(x1, LIGHT_X + 1 + MAX_REACH);
+			y1 = unbounded ? LIGHT_Y + 1 + MAX_REACH : Math.min(y1, LIGHT_Y + 1 + MAX_REACH);
+		}
+
+		clipped = clip;
+
+		if (x1 < x0)
+		{
+			// Nothing above the floor, keep a map of zero size
+			x0 = x1 = LIGHT_X;
+			y0 = y1 = LIGHT_Y;
+		}
+
+		// A texel of margin so lookups at the edge filter between texels
+		// of the map
+		minX = x0 - 1 / resolution;
+		minY = y0 - 1 / resolution;
+
+		width = Math.max(2, (int) Math.ceil((x1 - x0) * resolution) + 2);
+		height = Math.max(2, (int) Math.ceil((y1 - y0) * resolution) + 2);
+
+		light = new float[width * height];
+
+		pool.invoke(new BakeTask(context, 0, height));
+
+		buildMillis = System.currentTimeMillis() - start;
+	}
+
+	// Bake the floor light of the context's scene, whose spheres lie within
+	// 'bounds' (minX, minY, minZ, maxX, maxY, maxZ, null for no spheres), at
+	// 'resolution' texels per scene unit. Rows of texels are baked in
+	// parallel on 'pool'.
+	public static FloorMap build(RenderContext context, float[] bounds, float resolution, ForkJoinPool pool)
+	{
+		return new FloorMap(context, bounds, resolution, pool);
+	}
+
+	// The lambert term of the floor at (x, y), or UNSHADOWED if it is
+	// outside the map and lit by the whole light, or TRACE if it is outside
+	// the map and its shadow ray has to be traced
+	float lookup(float x, float y)
+	{
+		float u = (x - minX) * resolution - 0.5f;
+		float v = (y - minY) * resolution - 0.5f;
+
+		if (!(u >= 0 && v >= 0 && u <= width - 1 && v <= height - 1))
+		{
+			return clipped ? TRACE : UNSHADOWED;
+		}
+
+		int column = Math.min((int) u, width - 2);
+		int row = Math.min((int) v, height - 2);
+
+		float fu = u - column;
+		float fv = v - row;
+
+		int texel = row * width + column;
+
+		float bottom = light[texel] + (light[texel + 1] - light[texel]) * fu;
+		float top = light[texel + width] + (light[texel + width + 1] - light[texel + width]) * fu;
+
+		return bottom + (top - bottom) * fv;
+	}
+
+	// Floor position of the corner of texel (0, 0)
+	float getMinX()
+	{
+		return minX;
+	}
+
+	float getMinY()
+	{
+		return minY;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	public float getResolution()
+	{
+		return resolution;
+	}
+
+	public long getBuildMillis()
+	{
+		return buildMillis;
+	}
+
+	// Bytes held by the texels
+	public long getMemoryBytes()
+	{
+		return light.length * 4L;
+	}
+
+	// Bakes rows start .. end - 1, split in half until a few rows are left
+	private final class BakeTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final RenderContext context;
+		private final int start;
+		private final int end;
+
+		BakeTask(RenderContext context, int start, int end)
+		{
+			this.context = context;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (end - start <= ROWS_PER_TASK)
+			{
+				HitRecord hit = new HitRecord();
+
+				for (int row = start; row < end; row++)
+				{
+					float y = minY + (row + 0.5f) / resolution;
+
+					for (int column = 0; column < width; column++)
+					{
+						float x = minX + (column + 0.5f) / resolution;
+
+						light[row * width + column] = bake(context, x, y, hit);
+					}
+				}
+
+				return;
+			}
+
+			int middle = (start + end) >>> 1;
+
+			invokeAll(new BakeTask(context, start, middle), new BakeTask(context, middle, end));
+		}
+	}
+
+	// The lambert term at floor position (x, y) averaged over the light
+	private static float bake(RenderContext context, float x, float y, HitRecord hit)
+	{
+		float sum = 0;
+
+		for (int j = 0; j < LIGHT_SAMPLES; j++)
+		{
+			for (int i = 0; i < LIGHT_SAMPLES; i++)
+			{
+				if (lit(context, x, y, i, j, hit))
+				{
+					sum += lambert(x, y, i, j);
+				}
+			}
+		}
+
+		return sum / (LIGHT_SAMPLES * LIGHT_SAMPLES);
+	}
+
+	// Is light sample (i, j) in view of floor position (x, y)
+	private static boolean lit(RenderContext context, float x, float y, int i, int j, HitRecord hit)
+	{
+		float lx = LIGHT_X + (i + 0.5f) / LIGHT_SAMPLES - x;
+		float ly = LIGHT_Y + (j + 0.5f) / LIGHT_SAMPLES - y;
+		float lz = LIGHT_Z;
+
+		float factor = 1f / (float) Math.sqrt(lx * lx + ly * ly + lz * lz);
+
+		return !context.occluded(x, y, 0, lx * factor, ly * factor, lz * factor, hit);
+	}
+
+	// The floor's lambert term for light sample (i, j), the cosine of the
+	// angle between the floor normal and the light
+	private static float lambert(float x, float y, int i, int j)
+	{
+		float lx = LIGHT_X + (i + 0.5f) / LIGHT_SAMPLES - x;
+		float ly = LIGHT_Y + (j + 0.5f) / LIGHT_SAMPLES - y;
+
+		return (float) (LIGHT_Z / Math.sqrt(lx * lx + ly * ly + LIGHT_Z * LIGHT_Z));
+	}
+}
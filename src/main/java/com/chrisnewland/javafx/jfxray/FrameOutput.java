@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.Queue;
+
+// Copies finished tiles into an in-memory frame and, if 'completed' is not
+// null, queues each tile after its pixels are in place
+final class FrameOutput implements TileOutput
+{
+	private final byte[] frame;
+	private final int width;
+	private final Queue<Tile> completed;
+
+	FrameOutput(byte[] frame, int width, Queue<Tile> completed)
+	{
+		this.frame = frame;
+		this.width = width;
+		this.completed = completed;
+	}
+
+	@Override
+	public void writeTile(Tile tile, byte[] rgb)
+	{
+		int length = tile.getWidth() * 3;
+
+		for (int row = 0; row < tile.getHeight(); row++)
+		{
+			System.arraycopy(rgb, row * length, frame, ((tile.getY() + row) * width + tile.getX()) * 3, length);
+		}
+
+		if (completed != null)
+		{
+			completed.offer(tile);
+		}
+	}
+}
@@ -0,0 +1,16 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.io.IOException;
+
+// Receives the finished frames of an animation in frame order, from a
+// single thread
+public interface FrameSink
+{
+	// 'rgb' is the whole frame, top row first
+	void writeFrame(int frame, byte[] rgb, int width, int height) throws IOException;
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// Halton sequence for the first six dimensions (bases 2, 3, 5, 7, 11 and
+// 13) indexed by sample number. Every pixel uses the same points, shifted
+// by a random offset per pixel and dimension (Cranley-Patterson rotation)
+// so neighbouring pixels do not share their error.
+public final class HaltonSampler extends PcgSampler
+{
+	private static final int[] BASES = new int[] { 2, 3, 5, 7, 11, 13 };
+
+	// Points of the first samples, by sample then dimension
+	private final float[] points;
+
+	// Rotation of the current pixel for each dimension
+	private final float[] offsets = new float[BASES.length];
+
+	public HaltonSampler(long seed, int samplesPerPixel)
+	{
+		super(seed);
+
+		points = new float[Math.max(1, samplesPerPixel) * BASES.length];
+
+		for (int i = 0; i < points.length; i++)
+		{
+			points[i] = radicalInverse(BASES[i % BASES.length], i / BASES.length + 1);
+		}
+	}
+
+	@Override
+	protected void startPixel()
+	{
+		for (int d = 0; d < offsets.length; d++)
+		{
+			offsets[d] = pixelRandom(d);
+		}
+	}
+
+	@Override
+	public float next()
+	{
+		int d = dimension++;
+
+		if (d >= BASES.length)
+		{
+			return random(d);
+		}
+
+		int point = index * BASES.length + d;
+
+		// Progressive renders can go past the expected sample count
+		float value = (point < points.length ? points[point] : radicalInverse(BASES[d], index + 1)) + offsets[d];
+
+		return value >= 1 ? value - 1 : value;
+	}
+
+	// 'n' written in 'base' mirrored about the radix point
+	static float radicalInverse(int base, int n)
+	{
+		double inverse = 1.0 / base;
+		double scale = inverse;
+		double result = 0;
+
+		while (n > 0)
+		{
+			result += (n % base) * scale;
+			n /= base;
+			scale *= inverse;
+		}
+
+		return (float) result;
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// Result of an intersection test. One instance is owned by each render
+// thread and overwritten by every test so the hot path allocates nothing.
+public final class HitRecord
+{
+	// No hit and the ray goes upward
+	public static final int MATERIAL_SKY = 0;
+
+	// No sphere hit and the ray goes downward to the floor
+	public static final int MATERIAL_FLOOR = 1;
+
+	// A sphere was hit
+	public static final int MATERIAL_SPHERE = 2;
+
+	int material;
+
+	// Distance along the ray to the hit
+	float t;
+
+	// Surface normal at the hit
+	float nx;
+	float ny;
+	float nz;
+
+	// Index of the sphere hit in SphereBvh.getSpheres(), -1 for the grid
+	// intersection modes
+	int sphere = -1;
+
+	// SphereBvh traversal scratch
+	final int[] stack = new int[SphereBvh.MAX_DEPTH];
+
+	// Work done with this record, counted for RenderMetrics by the thread
+	// that owns it
+	long shadowRays;
+	long sphereTests;
+
+	public int getMaterial()
+	{
+		return material;
+	}
+
+	public float getDistance()
+	{
+		return t;
+	}
+
+	public float getNormalX()
+	{
+		return nx;
+	}
+
+	public float getNormalY()
+	{
+		return ny;
+	}
+
+	public float getNormalZ()
+	{
+		return nz;
+	}
+
+	public int getSphere()
+	{
+		return sphere;
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.imageio.ImageIO;
+
+// Writes JFXRay image data (RGB bytes, top row first) to disk without
+// JavaFX. The format comes from the file extension: .ppm for binary PPM,
+// anything else ImageIO can write (.png, .bmp ...) through ImageIO.
+public final class ImageFiles
+{
+	private ImageFiles()
+	{
+	}
+
+	public static void write(File file, byte[] rgb, int width, int height) throws IOException
+	{
+		String name = file.getName();
+
+		int dot = name.lastIndexOf('.');
+
+		String format = dot < 0 ? "png" : name.substring(dot + 1).toLowerCase();
+
+		if ("ppm".equals(format))
+		{
+			writePPM(file, rgb, width, height);
+		}
+		else
+		{
+			writeImageIO(file, format, rgb, width, height);
+		}
+	}
+
+	// Binary (P6) PPM, the image data is written as is
+	public static void writePPM(File file, byte[] rgb, int width, int height) throws IOException
+	{
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file)))
+		{
+			out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+			out.write(rgb, 0, width * height * 3);
+		}
+	}
+
+	public static void writeImageIO(File file, String format, byte[] rgb, int width, int height) throws IOException
+	{
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+		int[] pixels = new int[width * height];
+
+		for (int i = 0, pixel = 0; i < pixels.length; i++)
+		{
+			int r = rgb[pixel++] & 0xff;
+			int g = rgb[pixel++] & 0xff;
+			int b = rgb[pixel++] & 0xff;
+
+			pixels[i] = (r << 16) | (g << 8) | b;
+		}
+
+		image.setRGB(0, 0, width, height, pixels, 0, width);
+
+		if (!ImageIO.write(image, format, file))
+		{
+			throw new IOException("No ImageIO writer for " + format);
+		}
+	}
+}
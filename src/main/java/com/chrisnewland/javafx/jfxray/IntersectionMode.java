@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+public enum IntersectionMode
+{
+	// Test every sphere in the pattern for every ray (the original algorithm)
+	BRUTE_FORCE,
+
+	// Walk the character grid along the ray and only test nearby spheres
+	GRID,
+
+	// Traverse a bounding volume hierarchy over the spheres, always used for
+	// scenes loaded from a bitmap
+	BVH
+}
@@ -5,7 +5,22 @@
  */
 package com.chrisnewland.javafx.jfxray;
 
-import java.util.concurrent.ThreadLocalRandom;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 /*
  * Standing on the shoulders of giants.
@@ -14,324 +29,696 @@ import java.util.concurrent.ThreadLocalRandom;
  * http://fabiensanglard.net/rayTracing_back_of_business_card/index.php
  * The original code is by Andrew Kensler
  */
+// The engine keeps what outlives a render: the published frame, the cache,
+// the last scene hierarchy and the render threads. Everything a render
+// needs is in its own RenderContext so render() can be called from several
+// threads at once, the frame, times and metrics then being those of the
+// latest render.
 public class JFXRay
 {
-	private byte[] imageData;
+	// The latest complete frame, swapped rather than copied by progressive
+	// renders
+	private volatile byte[] imageData;
+
+	// Incremented after a whole new frame is published in imageData (a new
+	// render, a cache hit or a progressive pass)
+	private volatile int frameVersion;
+
+	// Tiles copied into imageData since it was published. Queued after the
+	// copy so a reader that polls a tile sees its pixels.
+	private final ConcurrentLinkedQueue<Tile> completedTiles = new ConcurrentLinkedQueue<>();
+
+	// Finished frames from earlier renders, null for none
+	private RenderCache cache;
+
+	// Tokens of the renders in flight
+	private final Set<CancelToken> renders = Collections.newSetFromMap(new ConcurrentHashMap<CancelToken, Boolean>());
+
+	// Runs submitted renders one at a time
+	private ExecutorService renderExecutor;
+
+	// HDR values of the frame in imageData, each multiplied by hdrScale
+	// (see ToneMapper), kept so toneMap() can redo the 8 bit frame. Only
+	// valid while hdrSceneKey is set, sample heatmaps, tile output and
+	// cancelled renders have none. Guarded by this.
+	private float[] hdrData;
+	private float hdrScale;
+	private String hdrSceneKey;
+
+	private volatile int completedPasses;
+
+	// The last hierarchy built and what it was built from, kept for
+	// renders of the same scene
+	private SphereBvh sceneBvh;
+	private String sceneBvhKey;
+	private long sceneLoadTime;
+
+	// The last floor light baked and the scene and resolution it was baked
+	// for, kept while only the camera and shading change
+	private FloorMap floorMap;
+	private String floorMapKey;
+
+	// Render threads owned by this instance by thread count, kept until
+	// shutdown() as a render on one may still be running when another asks
+	// for a different count. Idle pool threads time out so an unused count
+	// costs next to nothing. Guarded by this.
+	private final Map<Integer, RenderService> services = new HashMap<>();
+
+	// Render threads shared with other JFXRay instances, null if this one
+	// owns its threads
+	private final RenderService sharedService;
+
+	// Adds up the metrics of the renders in flight (see RenderMetrics)
+	private final RenderMetrics metrics = new RenderMetrics();
+
+	private volatile long renderStart = 0;
+	private volatile long renderTime = 0;
+
+	// Replace the published frame, readers redraw all of it
+	private void publishFrame(byte[] frame)
+	{
+		completedTiles.clear();
+		imageData = frame;
+		frameVersion++;
+	}
+
+	// Changes whenever getImageData() switches to a new frame. A viewer
+	// that sees a new version redraws the whole frame, otherwise it only
+	// needs the tiles from pollCompletedTile().
+	public int getFrameVersion()
+	{
+		return frameVersion;
+	}
+
+	// The next tile finished in the current frame since it was published,
+	// or null. Its pixels in getImageData() are complete when it is
+	// returned. Only in-memory renders queue tiles, progressive passes are
+	// published as whole frames.
+	public Tile pollCompletedTile()
+	{
+		return completedTiles.poll();
+	}
 
-	private boolean[][] data;
-	private int rows;
-	private int cols;
+	// The frame being rendered or last rendered
+	public byte[] getImageData()
+	{
+		return imageData;
+	}
 
-	private Vector3f floorColourOdd;
-	private Vector3f floorColourEven;
-	private Vector3f skyColour;
+	public JFXRay()
+	{
+		this(null);
+	}
 
-	private float sphereReflectivity;;
+	// Render on 'sharedService', which is left running by shutdown(). Any
+	// number of instances can render at once on one service, which decides
+	// whose tiles its threads take next (see RenderService).
+	public JFXRay(RenderService sharedService)
+	{
+		this.sharedService = sharedService;
+	}
 
-	private long renderStart = 0;
-	private long renderTime = 0;
+	public byte[] render(final RenderConfig config)
+	{
+		return render(config, new CancelToken());
+	}
 
-	private void init(String[] lines)
+	// Render into a new frame and return it, stopping early if 'token' is
+	// cancelled. A cancelled render leaves the frame partly drawn and is not
+	// cached. If a tile fails the render stops and throws what the tile
+	// threw (see RenderService.run()), the partial frame is neither cached
+	// nor kept for toneMap().
+	public byte[] render(final RenderConfig config, CancelToken token)
 	{
-		cols = lines[0].length();
-		rows = lines.length;
+		Object event = startRender(token);
 
-		data = new boolean[rows][cols];
+		RenderContext context = null;
+		boolean cached = false;
 
-		for (int r = 0; r < rows; r++)
+		try
 		{
-			for (int c = 0; c < cols; c++)
+			boolean cacheable = cache != null && RenderCache.isCacheable(config);
+
+			if (cacheable)
 			{
-				char ch = lines[r].charAt(c);
+				byte[] frame = cache.get(config);
+
+				if (frame != null)
+				{
+					publishFrame(frame);
+					keepHdr(cache.getHdr(config), RenderCache.sceneKey(config));
+					completedPasses = config.getRays();
+					cached = true;
 
-				data[rows - 1 - r][cols - 1 - c] = ch == '*';
+					return frame;
+				}
 			}
-		}
-	}
 
-	// The intersection test for line [o,v].
-	// Return 2 if a hit was found (and also return distance t and bouncing ray
-	// n).
-	// Return 0 if no hit was found but ray goes upward
-	// Return 1 if no hit was found but ray goes downward
+			context = prepare(config);
+			metrics.add(context.getMetrics());
 
-	// Returns object[] 0 = int (m), 1 = float (t), 2 = Vector3f n
-	Object[] test(Vector3f o, Vector3f d, Vector3f n)
-	{
-		float t = 1e9f;
+			int imageWidth = context.getImageWidth();
 
-		int m = 0;
+			context.token = token;
+			context.frame = new byte[imageWidth * context.getImageHeight() * 3];
+			context.output = new FrameOutput(context.frame, imageWidth, completedTiles);
 
-		float p2 = -o.getZ() / d.getZ();
+			publishFrame(context.frame);
+			completedPasses = 0;
+			setHdr(null, 0, null);
 
-		if (.01 < p2)
-		{
-			t = p2;
-			n = new Vector3f(0, 0, 1);
-			m = 1;
-		}
-
-		for (int col = 0; col < cols; col++)
-		{
-			for (int row = 0; row < rows; row++)
+			if (config.isProgressive())
 			{
-				// For this row and column is there a sphere?
-				if (data[row][col])
+				renderProgressive(context, config);
+			}
+			else
+			{
+				// A heatmap shows sample counts, not light
+				context.hdrData = context.isSampleHeatmap() ? null : new float[context.frame.length];
+				context.hdrScale = 1;
+
+				renderTiles(context, config, 0);
+
+				if (!token.isCancelled())
 				{
-					// There is a sphere but does the ray hit it ?
+					completedPasses = context.getRays();
+				}
+			}
 
-					Vector3f p = o.add(new Vector3f(-col, 0, -row - 4));
+			if (!token.isCancelled())
+			{
+				if (context.hdrData != null)
+				{
+					setHdr(context.hdrData, context.hdrScale, RenderCache.sceneKey(config));
+				}
 
-					float b = p.dot(d);
-					float c = p.dot(p) - 1;
-					float q = b * b - c;
+				if (cacheable)
+				{
+					cache.put(config, context.frame);
 
-					// Does the ray hit the sphere ?
-					if (q > 0)
+					if (context.hdrData != null)
 					{
-						float s = -b - (float) Math.sqrt(q);
-
-						if (s < t && s > .01)
-						{ // So far this is the minimum distance, save
-							// it. And // also // compute the bouncing ray
-							// vector into 'n'
-							t = s;
-							n = (p.add(d.scale(t))).normalise();
-							m = 2;
-						}
+						cache.putHdr(config, context.hdrData, context.hdrScale);
 					}
 				}
 			}
+
+			return context.frame;
+		}
+		finally
+		{
+			finishRender(token, config, context, event, cached);
 		}
-		return new Object[] { m, t, n };
 	}
 
-	// sample the world and return the pixel color for
-	// a ray passing by point o (Origin) and d (Direction)
-	Vector3f sample(Vector3f origin, Vector3f direction)
+	// Returns the render's flight recorder event, see RenderEvents
+	private Object startRender(CancelToken token)
 	{
-		Vector3f n = new Vector3f(0, 0, 0);
+		renders.add(token);
+		renderStart = System.currentTimeMillis();
+		metrics.start();
 
-		// Search for an intersection ray Vs World.
-		Object[] result = test(origin, direction, n);
+		return RenderEvents.INSTANCE.beginRender();
+	}
+
+	// End a render started by startRender(), 'context' null if it did not
+	// get as far as preparing one
+	private void finishRender(CancelToken token, RenderConfig config, RenderContext context, Object event,
+			boolean cached)
+	{
+		renderTime = System.currentTimeMillis() - renderStart;
 
-		int m = (int) result[0];
-		float t = (float) result[1];
-		n = (Vector3f) result[2];
+		long tiles = 0;
+		long primaryRays = 0;
 
-		if (m == 0)
+		if (context != null)
 		{
-			// No sphere found and the ray goes upward: Generate a sky color
-			return skyColour.scale((float) Math.pow(1 - direction.getZ(), 4));
-		}
+			metrics.remove(context.getMetrics());
 
-		// A sphere was maybe hit.
+			tiles = context.getMetrics().getTilesCompleted();
+			primaryRays = context.getMetrics().getPrimaryRays();
+		}
 
-		// h = intersection coordinate
-		Vector3f h = origin.add(direction.scale(t));
+		RenderEvents.INSTANCE.endRender(event, config, tiles, primaryRays, cached, token.isCancelled());
 
-		// 'l' = direction to light (with random delta for soft-shadows).
-		Vector3f l = new Vector3f(9 + getRandomFloat(), 9 + getRandomFloat(), 16);
+		metrics.finish();
+		renders.remove(token);
+	}
 
-		l = l.add(h.scale(-1));
+	// Stop every render in flight, render() returns within about a row of a
+	// tile
+	public void cancel()
+	{
+		for (CancelToken token : renders)
+		{
+			token.cancel();
+		}
+	}
 
-		l = l.normalise();
+	// Queue a render on a background thread, renders run one after another.
+	// The future gives the finished frame. Cancelling it stops the render
+	// if it has started or skips it if it has not.
+	public Future<byte[]> submit(final RenderConfig config)
+	{
+		return submit(config, false);
+	}
 
-		// r = The half-vector
-		Vector3f r = direction.add(n.scale(n.dot(direction.scale(-2f))));
+	// Like submit() but only tone maps the last frame again if that is
+	// enough to give the frame for 'config' (see toneMap())
+	public Future<byte[]> submitToneMap(final RenderConfig config)
+	{
+		return submit(config, true);
+	}
 
-		// Calculated the lambertian factor
-		float b = l.dot(n);
+	private Future<byte[]> submit(final RenderConfig config, final boolean toneMapOnly)
+	{
+		final CancelToken token = new CancelToken();
 
-		// Calculate illumination factor (lambertian coefficient > 0 or in
-		// shadow)?
-		if (b < 0)
+		FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>()
 		{
-			b = 0;
-		}
-		else
+			@Override
+			public byte[] call()
+			{
+				if (toneMapOnly && toneMap(config))
+				{
+					return imageData;
+				}
+
+				return render(config, token);
+			}
+		})
 		{
-			result = test(h, l, n);
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning)
+			{
+				token.cancel();
+
+				return super.cancel(mayInterruptIfRunning);
+			}
+		};
+
+		getRenderExecutor().execute(task);
 
-			int res = (int) result[0];
-			t = (float) result[1];
-			n = (Vector3f) result[2];
+		return task;
+	}
 
-			if (res > 0)
+	// Publish the last in-memory render's HDR values tone mapped again with
+	// the brightness, tone mapping, exposure and gamma of 'config', without
+	// tracing any rays. The mapping runs in parallel on the render threads
+	// and takes milliseconds. Returns false, leaving the frame alone, if
+	// there are no HDR values or 'config' changes anything else, then it
+	// needs rendering.
+	// Must not be called while rendering, submitToneMap() waits for any
+	// render in flight.
+	public boolean toneMap(RenderConfig config)
+	{
+		float[] hdr;
+		float scale;
+
+		synchronized (this)
+		{
+			if (hdrSceneKey == null || !hdrSceneKey.equals(RenderCache.sceneKey(config)))
 			{
-				b = 0;
+				return false;
 			}
+
+			hdr = hdrData;
+			scale = hdrScale;
 		}
 
-		// Calculate the color 'p' with diffuse and specular component
-		Vector3f rdash = r.scale(b > 0 ? 1 : 0);
+		long start = System.currentTimeMillis();
 
-		float p = (float) Math.pow(l.dot(rdash), 64);
+		byte[] frame = new byte[hdr.length];
 
-		if (m == 1)
+		new ToneMapper(config).map(getService(config.getThreads()).getPool(), hdr, scale, frame);
+
+		publishFrame(frame);
+
+		renderTime = System.currentTimeMillis() - start;
+
+		if (cache != null && RenderCache.isCacheable(config))
 		{
-			// No sphere was hit and the ray was going downward:
-			h = h.invertScale(4);
+			cache.put(config, frame);
+		}
 
-			// Generate a floor color
-			int ceil = (int) (Math.ceil(h.getX()) + Math.ceil(h.getY()));
+		return true;
+	}
 
-			if ((ceil & 1) == 1)
-			{
-				return floorColourOdd.scale(b / 4 + .1f);
-			}
-			else
-			{
-				return floorColourEven.scale(b / 4 + .1f);
-			}
+	// Keep the HDR values of the published frame for toneMap(), 'sceneKey'
+	// null for none
+	private synchronized void setHdr(float[] hdr, float scale, String sceneKey)
+	{
+		hdrData = hdr;
+		hdrScale = scale;
+		hdrSceneKey = sceneKey;
+	}
+
+	// Keep the HDR values of a cache hit, or if the cache has none the
+	// current ones while they are of the same scene
+	private synchronized void keepHdr(float[] cachedHdr, String sceneKey)
+	{
+		if (cachedHdr != null)
+		{
+			setHdr(cachedHdr, 1, sceneKey);
+		}
+		else if (!sceneKey.equals(hdrSceneKey))
+		{
+			setHdr(null, 0, null);
 		}
+	}
 
-		// m == 2 A sphere was hit.
-		// Cast an ray bouncing from the sphere surface.
+	private synchronized ExecutorService getRenderExecutor()
+	{
+		if (renderExecutor == null)
+		{
+			renderExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "JFXRay render");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
 
-		// Attenuate color since it is bouncing
-		return new Vector3f(p, p, p).add(sample(h, r).scale(sphereReflectivity));
+		return renderExecutor;
 	}
 
-	public byte[] getImageData()
+	// Frames rendered by render(config) are looked up in and added to
+	// 'cache', null to always render
+	public void setCache(RenderCache cache)
 	{
-		renderTime = System.currentTimeMillis() - renderStart;
-		return imageData;
+		this.cache = cache;
 	}
 
-	public JFXRay()
+	public RenderCache getCache()
 	{
+		return cache;
+	}
 
+	// Render straight into 'output' tile by tile without holding the frame
+	// in memory, for images larger than the heap. getImageData() returns
+	// null afterwards.
+	// Progressive rendering needs the whole frame so is not supported.
+	public void render(final RenderConfig config, TileOutput output)
+	{
+		render(config, null, output);
 	}
 
-	public void render(final RenderConfig config)
+	// Render only 'tiles' of the frame into 'output', a share of a frame
+	// split between processes (see RenderCoordinator), or every tile if
+	// 'tiles' is null
+	public void render(final RenderConfig config, List<Tile> tiles, TileOutput output)
 	{
-		renderStart = System.currentTimeMillis();
+		if (config.isProgressive())
+		{
+			throw new IllegalArgumentException("Progressive rendering needs an in-memory frame");
+		}
+
+		CancelToken token = new CancelToken();
 
-		this.floorColourOdd = config.getOddColour();
-		this.floorColourEven = config.getEvenColour();
-		this.skyColour = config.getSkyColour();
-		this.sphereReflectivity = config.getSphereReflectivity();
+		Object event = startRender(token);
 
-		init(config.getLines());
+		RenderContext context = null;
+
+		try
+		{
+			context = prepare(config);
+			metrics.add(context.getMetrics());
 
-		imageData = new byte[config.getImageWidth() * config.getImageHeight() * 3];
+			context.token = token;
+			context.output = output;
+
+			publishFrame(null);
+			completedPasses = 0;
+			setHdr(null, 0, null);
+
+			if (tiles == null)
+			{
+				renderTiles(context, config, 0);
+			}
+			else
+			{
+				renderTiles(context, config, 0, new TileScheduler(tiles));
+			}
 
-		// Camera direction
-		final Vector3f g = config.getCamDirection().normalise();
+			if (tiles == null && !token.isCancelled())
+			{
+				completedPasses = context.getRays();
+			}
+		}
+		finally
+		{
+			finishRender(token, config, context, event, false);
+		}
+	}
 
-		// Camera up vector...Seem Z is pointing up :/ WTF !
-		final Vector3f a = new Vector3f(0, 0, 1).cross(g).normalise().scale(.003f);
+	// The scene, camera and shading settings of the config for one render
+	RenderContext prepare(RenderConfig config)
+	{
+		SphereBvh bvh = null;
 
-		// The right vector, obtained via traditional cross-product
-		final Vector3f b = g.cross(a).normalise().scale(.003f);
+		if (config.getSceneFile() != null || config.getIntersectionMode() == IntersectionMode.BVH)
+		{
+			bvh = sceneBvh(config);
+		}
 
-		// WTF ? See https://news.ycombinator.com/item?id=6425965 for more.
-		final Vector3f c = a.add(b).scale(-256).add(g);
+		RenderContext prepared = new RenderContext(config, bvh, new RenderMetrics());
 
-		final int linesPerThread = config.getImageHeight() / config.getThreads();
+		if (config.getFloorMapResolution() > 0)
+		{
+			prepared.floorMap = floorMap(prepared, config);
+		}
 
-		// System.out.println("LinesPerThread: " + linesPerThread);
+		return prepared;
+	}
 
-		Thread[] workers = new Thread[config.getThreads()];
+	// The hierarchy for the config's scene file, or its pattern if it has
+	// none. Loading and building take a while for a large scene so the
+	// last one is reused while the scene and its file are unchanged.
+	private synchronized SphereBvh sceneBvh(RenderConfig config)
+	{
+		String sceneFile = config.getSceneFile();
 
-		final Vector3f defaultPixelColour = new Vector3f(16, 16, 16);
+		String key = sceneKey(config);
 
-		for (int i = 0; i < config.getThreads(); i++)
+		if (!key.equals(sceneBvhKey))
 		{
-			final int startingLine = config.getImageHeight() - 1 - (i * linesPerThread);
-			final int pixelBufferOffset = i * linesPerThread;
+			long start = System.currentTimeMillis();
 
-			// System.out.println("Thread " + i + " plotting " + startingLine);
+			Scene scene;
 
-			Thread worker = new Thread(new Runnable()
+			if (sceneFile != null)
 			{
-				@Override
-				public void run()
+				try
 				{
-					int pixel = config.getImageWidth() * pixelBufferOffset * 3;
-
-					// For each line
-					for (int y = startingLine; y > startingLine - linesPerThread; y--)
-					{
-						// For each pixel in a line
-						for (int x = config.getImageWidth() - 1; x >= 0; x--)
-						{
-							// Reuse the vector class to store not XYZ but an
-							// RGB
-							// pixel color
-							// Default pixel color is almost pitch black
-							Vector3f p = defaultPixelColour;
-
-							// Cast rays per pixel (For blur (stochastic
-							// sampling) and
-							// soft-shadows.
-							for (int r = config.getRays() - 1; r >= 0; r--)
-							{
-								// The delta to apply to the origin of the view
-								// (For Depth of View blur).
-
-								// A little bit of delta up/down and left/right
-								Vector3f t = a.scale(getRandomFloat() - 0.5f);
-								t = t.scale(64);
-
-								Vector3f t2 = b.scale(getRandomFloat() - 0.5f);
-								t2 = t2.scale(64);
-
-								t = t.add(t2);
-
-								// Set the camera focal point and
-								// Cast the ray
-								// Accumulate the color returned in the p
-								// variable
-								// Ray Direction with random deltas for
-								// stochastic sampling
-
-								Vector3f dirA = a.scale(getRandomFloat() + x);
-								Vector3f dirB = b.scale(getRandomFloat() + y);
-								Vector3f dirC = dirA.add(dirB).add(c);
-
-								Vector3f dir = t.scale(-1).add(dirC.scale(16)).normalise();
-
-								// Ray Origin +p for color accumulation
-								p = sample(config.getRayOrigin().add(t), dir).scale(config.getBrightness()).add(p);
-
-							}
-
-							imageData[pixel++] = (byte) p.getX();
-							imageData[pixel++] = (byte) p.getY();
-							imageData[pixel++] = (byte) p.getZ();
-						}
-					}
+					scene = SceneLoader.load(new File(sceneFile), config.getSceneWidth());
 				}
-			});
+				catch (IOException e)
+				{
+					throw new IllegalArgumentException("Can not load scene " + sceneFile + ": " + e.getMessage(), e);
+				}
+			}
+			else
+			{
+				scene = Scene.fromLines(config.getLines());
+			}
 
-			worker.start();
-			workers[i] = worker;
+			sceneLoadTime = System.currentTimeMillis() - start;
+
+			sceneBvh = SphereBvh.build(scene, getService(config.getThreads()).getPool());
+			sceneBvhKey = key;
 		}
 
-		for (int i = 0; i < config.getThreads(); i++)
+		return sceneBvh;
+	}
+
+	// Identifies the spheres of the config's scene file or pattern
+	private static String sceneKey(RenderConfig config)
+	{
+		String sceneFile = config.getSceneFile();
+
+		if (sceneFile != null)
+		{
+			File file = new File(sceneFile);
+
+			return "file:" + file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified() + ":"
+					+ config.getSceneWidth();
+		}
+
+		return "lines:" + Arrays.toString(config.getLines());
+	}
+
+	// The floor light for the context's scene at the config's resolution.
+	// The floor and light never move so the last map is reused until the
+	// spheres or the resolution change.
+	private synchronized FloorMap floorMap(RenderContext context, RenderConfig config)
+	{
+		String key = sceneKey(config) + ":" + config.getFloorMapResolution();
+
+		if (!key.equals(floorMapKey))
+		{
+			floorMap = FloorMap.build(context, context.getSceneBounds(), config.getFloorMapResolution(),
+					getService(config.getThreads()).getPool());
+			floorMapKey = key;
+		}
+
+		return floorMap;
+	}
+
+	// Render 1 sample per pixel per pass over the whole frame, accumulating
+	// into a float buffer. After each pass the frame so far is scaled up to
+	// the brightness of the full sample count and published, so a usable
+	// preview appears after the first pass.
+	// Stops after config.getRays() passes or once the time limit is reached.
+	// The accumulated samples are the frame's HDR values.
+	private void renderProgressive(RenderContext context, RenderConfig config)
+	{
+		int rays = context.getRays();
+
+		context.accumulation = new float[context.frame.length];
+		context.hdrData = context.accumulation;
+
+		byte[] backBuffer = new byte[context.frame.length];
+
+		long start = System.currentTimeMillis();
+		long timeLimit = config.getProgressiveTimeLimit();
+
+		for (int pass = 1; pass <= rays; pass++)
 		{
-			try
+			context.passBuffer = backBuffer;
+
+			renderTiles(context, config, pass);
+
+			// A cancelled pass is incomplete so is not shown
+			if (context.token.isCancelled())
 			{
-				workers[i].join();
+				break;
 			}
-			catch (InterruptedException ie)
+
+			// Publish the completed pass and draw the next one into the
+			// previous frame
+			backBuffer = context.frame;
+			context.frame = context.passBuffer;
+			context.hdrScale = (float) rays / pass;
+			completedPasses = pass;
+			publishFrame(context.frame);
+
+			if (timeLimit > 0 && System.currentTimeMillis() - start >= timeLimit)
 			{
-				ie.printStackTrace();
+				break;
 			}
 		}
 
-		renderTime = System.currentTimeMillis() - renderStart;
+		context.passBuffer = null;
+	}
+
+	// Render every tile once on the render threads. Pass 0 is a full
+	// quality render, otherwise this is the given progressive pass.
+	private void renderTiles(RenderContext context, RenderConfig config, int pass)
+	{
+		renderTiles(context, config, pass, new TileScheduler(context.getImageWidth(), context.getImageHeight(),
+				config.getTileSize(), config.getTileOrder()));
+	}
+
+	private void renderTiles(RenderContext context, RenderConfig config, int pass, TileScheduler scheduler)
+	{
+		if (pass <= 1)
+		{
+			context.getMetrics().setTilesTotal((long) scheduler.getTileCount() * (pass == 0 ? 1 : context.getRays()));
+		}
+
+		getService(config.getThreads()).run(context.tiles(scheduler, pass), context.getPriority());
 	}
 
-	private float getRandomFloat()
+	// The render threads for the requested thread count, kept between
+	// renders
+	private synchronized RenderService getService(int threads)
 	{
-		return ThreadLocalRandom.current().nextFloat();
+		if (sharedService != null)
+		{
+			return sharedService;
+		}
+
+		RenderService service = services.get(threads);
+
+		if (service == null)
+		{
+			service = new RenderService(threads);
+			services.put(threads, service);
+		}
+
+		return service;
 	}
 
+	// Stop any render in flight and release the render threads
+	public synchronized void shutdown()
+	{
+		cancel();
+
+		if (renderExecutor != null)
+		{
+			renderExecutor.shutdownNow();
+			renderExecutor = null;
+		}
+
+		for (RenderService service : services.values())
+		{
+			service.shutdown();
+		}
+
+		services.clear();
+	}
+
+	// Time taken by the last render, or so far by the one in flight
 	public long getRenderTime()
 	{
+		if (!renders.isEmpty())
+		{
+			return System.currentTimeMillis() - renderStart;
+		}
+
 		return renderTime;
 	}
+
+	// Camera rays traced so far in the current render
+	public long getSamplesTaken()
+	{
+		return metrics.getPrimaryRays();
+	}
+
+	// Ray counts, thread use and progress of the renders in flight, or the
+	// last ones once they are done
+	public RenderMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	// The last hierarchy built, kept for renders of its scene, null if no
+	// render has needed one
+	public synchronized SphereBvh getSceneBvh()
+	{
+		return sceneBvh;
+	}
+
+	// The last floor light baked, kept for renders of its scene and
+	// resolution, null if no render has used one
+	public synchronized FloorMap getFloorMap()
+	{
+		return floorMap;
+	}
+
+	// Time taken to read the current hierarchy's scene
+	public long getSceneLoadTime()
+	{
+		return sceneLoadTime;
+	}
+
+	// Number of progressive passes (samples per pixel) in the published frame
+	public int getCompletedPasses()
+	{
+		return completedPasses;
+	}
 }
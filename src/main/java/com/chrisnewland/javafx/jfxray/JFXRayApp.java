@@ -5,28 +5,44 @@
  */
 package com.chrisnewland.javafx.jfxray;
 
+import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.management.JMException;
 
 import javafx.animation.Animation;
 import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
 import javafx.animation.Timeline;
 import javafx.animation.TimelineBuilder;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
+import javafx.collections.FXCollections;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.image.PixelFormat;
 import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
@@ -79,6 +95,20 @@ public class JFXRayApp extends Application
 			return hb;
 		}
 
+		public void addListener(ChangeListener<Object> listener)
+		{
+			tfX.textProperty().addListener(listener);
+			tfY.textProperty().addListener(listener);
+			tfZ.textProperty().addListener(listener);
+		}
+
+		public void setVector3f(Vector3f v3f)
+		{
+			tfX.setText(Float.toString(v3f.getX()));
+			tfY.setText(Float.toString(v3f.getY()));
+			tfZ.setText(Float.toString(v3f.getZ()));
+		}
+
 		public Vector3f getVector3f()
 		{
 			Vector3f result = null;
@@ -106,12 +136,94 @@ public class JFXRayApp extends Application
 	private JFXRay raytracer;
 	private WritableImage image;
 
+	// Frame version last uploaded in full
+	private int drawnFrameVersion = -1;
+
+	// The latest render started, earlier ones have been cancelled
+	private Future<byte[]> currentRender;
+
+	// Waits for each render off the FX thread, one at a time. A replaced
+	// render is cancelled, which ends its wait at once.
+	private final ExecutorService renderWaiter = Executors.newSingleThreadExecutor(new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "JFXRay render waiter");
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	});
+
+	// Interactive camera navigation on the canvas
+	private static final float ORBIT_PER_PIXEL = 0.01f;
+	private static final float ORBIT_PER_KEY = 0.05f;
+	private static final float DOLLY_PER_SCROLL = 0.05f;
+	private static final float DOLLY_PER_KEY = 1f;
+
+	private static final int MIN_PREVIEW_SCALE = 2;
+	private static final int MAX_PREVIEW_SCALE = 16;
+	private static final long PREVIEW_FRAME_MS = 33;
+
+	// Frame pixels per preview pixel
+	private int previewScale = 4;
+
+	// Full quality render once navigation pauses
+	private PauseTransition refineDelay;
+
+	private boolean navigating;
+
+	private double dragX;
+	private double dragY;
+
+	private final ChangeListener<Object> restartListener = new ChangeListener<Object>()
+	{
+		@Override
+		public void changed(ObservableValue<? extends Object> observable, Object oldValue, Object newValue)
+		{
+			if (!navigating && currentRender != null && !currentRender.isDone())
+			{
+				startRaytracing();
+			}
+		}
+	};
+
+	// Brightness and tone mapping only change how the traced light is
+	// shown, so the last frame is tone mapped again instead of rendered. A
+	// render in flight restarts as for any other input.
+	private final ChangeListener<Object> toneListener = new ChangeListener<Object>()
+	{
+		@Override
+		public void changed(ObservableValue<? extends Object> observable, Object oldValue, Object newValue)
+		{
+			if (currentRender == null)
+			{
+				return;
+			}
+
+			if (!currentRender.isDone())
+			{
+				startRaytracing();
+			}
+			else
+			{
+				startToneMapping();
+			}
+		}
+	};
+
 	private Button btnRayTrace;
 	private TextArea taPattern;
 
 	private TextField tfRays;
 	private TextField tfThreads;
+	private TextField tfTileSize;
+	private ChoiceBox<TileOrder> cbTileOrder;
+	private ChoiceBox<SamplerType> cbSampler;
 	private TextField tfRenderTime;
+	private TextField tfRenderStats;
+	private TextField tfCache;
 
 	private TextField tfImageWidth;
 	private TextField tfImageHeight;
@@ -124,9 +236,28 @@ public class JFXRayApp extends Application
 
 	private TextField tfSphereReflectivity;
 	private TextField tfBrightness;
+	private TextField tfExposure;
+	private ChoiceBox<ToneMapping> cbToneMapping;
+	private TextField tfGamma;
+
+	private CheckBox cbProgressive;
+	private TextField tfTimeLimit;
+
+	private CheckBox cbAdaptive;
+	private TextField tfMinRays;
+	private TextField tfMaxRays;
+	private TextField tfNoiseThreshold;
+	private CheckBox cbSampleHeatmap;
 
 	private Timeline timeline;
 
+	// Frames already rendered this session, also kept on disk if the
+	// jfxray.cache.dir system property names a directory
+	private static final long CACHE_BYTES = 256L * 1024 * 1024;
+
+	private final RenderCache cache = new RenderCache(CACHE_BYTES, System.getProperty("jfxray.cache.dir") == null ? null
+			: new File(System.getProperty("jfxray.cache.dir")));
+
 	private String[] pattern = new String[9];
 
 	private int canvasWidth = 512;
@@ -154,6 +285,12 @@ public class JFXRayApp extends Application
 			@Override
 			public void handle(WindowEvent arg0)
 			{
+				renderWaiter.shutdownNow();
+
+				if (raytracer != null)
+				{
+					raytracer.shutdown();
+				}
 			}
 		});
 
@@ -163,6 +300,7 @@ public class JFXRayApp extends Application
 		int height = canvasHeight;
 
 		canvas = new Canvas(canvasWidth, canvasHeight);
+		initNavigation();
 		gc = canvas.getGraphicsContext2D();
 		gc.fillRect(0, 0, canvasWidth, canvasHeight);
 
@@ -271,18 +409,39 @@ public class JFXRayApp extends Application
 		hbThreads.getChildren().add(lblThreads);
 		hbThreads.getChildren().add(tfThreads);
 
+		// ==============================
+		// Tile size and render order
+		// ==============================
+		Label lblTiles = new Label("Tile size / order");
+		lblTiles.setPrefWidth(labelWidth);
+
+		tfTileSize = new TextField(Integer.toString(config.getTileSize()));
+		tfTileSize.setPrefWidth(valueWidth);
+
+		cbTileOrder = new ChoiceBox<>(FXCollections.observableArrayList(TileOrder.values()));
+		cbTileOrder.getSelectionModel().select(config.getTileOrder());
+
+		HBox hbTiles = new HBox();
+		hbTiles.getChildren().add(lblTiles);
+		hbTiles.getChildren().add(tfTileSize);
+		hbTiles.getChildren().add(cbTileOrder);
+
 		// ==============================
 		// Rays per pixel
 		// ==============================
-		Label lblRays = new Label("Rays per pixel");
+		Label lblRays = new Label("Rays per pixel / sampler");
 		lblRays.setPrefWidth(labelWidth);
 
 		tfRays = new TextField(Integer.toString(config.getRays()));
 		tfRays.setPrefWidth(valueWidth);
 
+		cbSampler = new ChoiceBox<>(FXCollections.observableArrayList(SamplerType.values()));
+		cbSampler.getSelectionModel().select(config.getSamplerType());
+
 		HBox hbRays = new HBox();
 		hbRays.getChildren().add(lblRays);
 		hbRays.getChildren().add(tfRays);
+		hbRays.getChildren().add(cbSampler);
 
 		// ==============================
 		// Vector3d inputs
@@ -319,6 +478,73 @@ public class JFXRayApp extends Application
 		hbBrightness.getChildren().add(lblBrightness);
 		hbBrightness.getChildren().add(tfBrightness);
 
+		// ==============================
+		// Tone mapping
+		// ==============================
+		Label lblToneMapping = new Label("Exposure / map / gamma");
+		lblToneMapping.setPrefWidth(labelWidth);
+
+		tfExposure = new TextField(Float.toString(config.getExposure()));
+		tfExposure.setPrefWidth(valueWidth * 2 / 3);
+
+		cbToneMapping = new ChoiceBox<>(FXCollections.observableArrayList(ToneMapping.values()));
+		cbToneMapping.getSelectionModel().select(config.getToneMapping());
+
+		tfGamma = new TextField(Float.toString(config.getGamma()));
+		tfGamma.setPrefWidth(valueWidth * 2 / 3);
+
+		HBox hbToneMapping = new HBox();
+		hbToneMapping.getChildren().add(lblToneMapping);
+		hbToneMapping.getChildren().add(tfExposure);
+		hbToneMapping.getChildren().add(cbToneMapping);
+		hbToneMapping.getChildren().add(tfGamma);
+
+		// ==============================
+		// Progressive rendering
+		// ==============================
+		Label lblProgressive = new Label("Progressive / limit ms");
+		lblProgressive.setPrefWidth(labelWidth);
+
+		cbProgressive = new CheckBox();
+		cbProgressive.setSelected(config.isProgressive());
+
+		tfTimeLimit = new TextField(Long.toString(config.getProgressiveTimeLimit()));
+		tfTimeLimit.setPrefWidth(valueWidth * 3 / 2);
+
+		HBox hbProgressive = new HBox();
+		hbProgressive.getChildren().add(lblProgressive);
+		hbProgressive.getChildren().add(cbProgressive);
+		hbProgressive.getChildren().add(tfTimeLimit);
+
+		// ==============================
+		// Adaptive sampling
+		// ==============================
+		Label lblAdaptive = new Label("Adaptive min/max/noise");
+		lblAdaptive.setPrefWidth(labelWidth);
+
+		cbAdaptive = new CheckBox();
+		cbAdaptive.setSelected(config.isAdaptive());
+
+		tfMinRays = new TextField(Integer.toString(config.getMinRays()));
+		tfMinRays.setPrefWidth(valueWidth * 2 / 3);
+
+		tfMaxRays = new TextField(Integer.toString(config.getMaxRays()));
+		tfMaxRays.setPrefWidth(valueWidth * 2 / 3);
+
+		tfNoiseThreshold = new TextField(Float.toString(config.getNoiseThreshold()));
+		tfNoiseThreshold.setPrefWidth(valueWidth * 2 / 3);
+
+		cbSampleHeatmap = new CheckBox("Heatmap");
+		cbSampleHeatmap.setSelected(config.isSampleHeatmap());
+
+		HBox hbAdaptive = new HBox();
+		hbAdaptive.getChildren().add(lblAdaptive);
+		hbAdaptive.getChildren().add(cbAdaptive);
+		hbAdaptive.getChildren().add(tfMinRays);
+		hbAdaptive.getChildren().add(tfMaxRays);
+		hbAdaptive.getChildren().add(tfNoiseThreshold);
+		hbAdaptive.getChildren().add(cbSampleHeatmap);
+
 		// ==============================
 		// Render time
 		// ==============================
@@ -332,6 +558,32 @@ public class JFXRayApp extends Application
 		hbRenderTime.getChildren().add(lblRenderTime);
 		hbRenderTime.getChildren().add(tfRenderTime);
 
+		// ==============================
+		// Render stats
+		// ==============================
+		Label lblRenderStats = new Label("Rays P/S/R, tests");
+		lblRenderStats.setPrefWidth(labelWidth);
+
+		tfRenderStats = new TextField("");
+		tfRenderStats.setPrefWidth(valueWidth * 3);
+
+		HBox hbRenderStats = new HBox();
+		hbRenderStats.getChildren().add(lblRenderStats);
+		hbRenderStats.getChildren().add(tfRenderStats);
+
+		// ==============================
+		// Render cache
+		// ==============================
+		Label lblCache = new Label("Cache hits / misses");
+		lblCache.setPrefWidth(labelWidth);
+
+		tfCache = new TextField("0 / 0");
+		tfCache.setPrefWidth(valueWidth * 3);
+
+		HBox hbCache = new HBox();
+		hbCache.getChildren().add(lblCache);
+		hbCache.getChildren().add(tfCache);
+
 		// ==============================
 		// Raytrac button
 		// ==============================
@@ -341,7 +593,6 @@ public class JFXRayApp extends Application
 			@Override
 			public void handle(ActionEvent e)
 			{
-				stage.setResizable(false);
 				startRaytracing();
 			}
 		});
@@ -351,6 +602,7 @@ public class JFXRayApp extends Application
 		vBoxControls.getChildren().add(taPattern);
 		vBoxControls.getChildren().add(hbImageSize);
 		vBoxControls.getChildren().add(hbThreads);
+		vBoxControls.getChildren().add(hbTiles);
 		vBoxControls.getChildren().add(hbRays);
 		vBoxControls.getChildren().add(viRayOrigin.getHBox());
 		vBoxControls.getChildren().add(viCamDirection.getHBox());
@@ -359,11 +611,44 @@ public class JFXRayApp extends Application
 		vBoxControls.getChildren().add(viSkyColour.getHBox());
 		vBoxControls.getChildren().add(hbReflectivity);
 		vBoxControls.getChildren().add(hbBrightness);
+		vBoxControls.getChildren().add(hbToneMapping);
+		vBoxControls.getChildren().add(hbProgressive);
+		vBoxControls.getChildren().add(hbAdaptive);
 		vBoxControls.getChildren().add(hbRenderTime);
+		vBoxControls.getChildren().add(hbRenderStats);
+		vBoxControls.getChildren().add(hbCache);
 		vBoxControls.getChildren().add(btnRayTrace);
 
 		vBoxControls.setMinWidth(controlsWidth);
 
+		// Editing any input while rendering restarts the render
+		restartOnChange(taPattern.textProperty());
+		restartOnChange(tfImageWidth.textProperty());
+		restartOnChange(tfImageHeight.textProperty());
+		restartOnChange(tfThreads.textProperty());
+		restartOnChange(tfTileSize.textProperty());
+		restartOnChange(cbTileOrder.valueProperty());
+		restartOnChange(tfRays.textProperty());
+		restartOnChange(cbSampler.valueProperty());
+		restartOnChange(tfSphereReflectivity.textProperty());
+		tfBrightness.textProperty().addListener(toneListener);
+		tfExposure.textProperty().addListener(toneListener);
+		cbToneMapping.valueProperty().addListener(toneListener);
+		tfGamma.textProperty().addListener(toneListener);
+		restartOnChange(cbProgressive.selectedProperty());
+		restartOnChange(tfTimeLimit.textProperty());
+		restartOnChange(cbAdaptive.selectedProperty());
+		restartOnChange(tfMinRays.textProperty());
+		restartOnChange(tfMaxRays.textProperty());
+		restartOnChange(tfNoiseThreshold.textProperty());
+		restartOnChange(cbSampleHeatmap.selectedProperty());
+
+		viRayOrigin.addListener(restartListener);
+		viCamDirection.addListener(restartListener);
+		viOddColour.addListener(restartListener);
+		viEvenColour.addListener(restartListener);
+		viSkyColour.addListener(restartListener);
+
 		HBox box = new HBox();
 		box.getChildren().add(vBoxControls);
 		box.getChildren().add(canvas);
@@ -393,116 +678,463 @@ public class JFXRayApp extends Application
 		timeline = TimelineBuilder.create().cycleCount(Animation.INDEFINITE).keyFrames(oneFrame).build();
 	}
 
+	// Render the current inputs, replacing any render in flight
 	private void startRaytracing()
 	{
-		btnRayTrace.setDisable(true);
+		readInputs();
 
-		raytracer = new JFXRay();
+		submitRender(new RenderConfig(config), false, false);
+	}
+
+	// Show the last frame with the current brightness and tone mapping,
+	// rendering only if it can't be tone mapped again
+	private void startToneMapping()
+	{
+		readInputs();
+
+		submitRender(new RenderConfig(config), false, true);
+	}
+
+	// Render the current inputs quickly at reduced resolution and one sample
+	// per pixel while the camera is moving. The preview scale adapts to keep
+	// each frame within PREVIEW_FRAME_MS.
+	private void startPreview()
+	{
+		readInputs();
+
+		RenderConfig preview = new RenderConfig(config);
+
+		preview.setImageWidth(Math.max(1, config.getImageWidth() / previewScale));
+		preview.setImageHeight(Math.max(1, config.getImageHeight() / previewScale));
+		preview.setPixelScale(previewScale);
 
-		Thread t = new Thread(new Runnable()
+		// One sample carries the brightness of the full ray count
+		preview.setRays(1);
+		preview.setBrightness(config.getBrightness() * config.getRays());
+		preview.setProgressive(false);
+		preview.setAdaptive(false);
+
+		// Seen once, they would evict the full renders
+		preview.setCacheable(false);
+
+		submitRender(preview, true, false);
+	}
+
+	// Copy the input fields into config
+	private void readInputs()
+	{
+		String patternText = taPattern.getText();
+		String[] lines = patternText.split("\n");
+
+		int maxWidth = 0;
+
+		for (String line : lines)
 		{
-			@Override
-			public void run()
+			if (line.length() > maxWidth)
 			{
-				String patternText = taPattern.getText();
-				String[] lines = patternText.split("\n");
+				maxWidth = line.length();
+			}
+		}
 
-				int maxWidth = 0;
+		for (int i = 0; i < lines.length; i++)
+		{
+			String line = lines[i];
 
-				for (String line : lines)
-				{
-					if (line.length() > maxWidth)
-					{
-						maxWidth = line.length();
-					}
-				}
+			if (line.length() < maxWidth)
+			{
+				lines[i] = padLine(line, maxWidth);
+			}
+		}
 
-				for (int i = 0; i < lines.length; i++)
-				{
-					String line = lines[i];
+		config.setLines(lines);
 
-					if (line.length() < maxWidth)
-					{
-						lines[i] = padLine(line, maxWidth);
-					}
-				}
+		try
+		{
+			config.setThreads(Integer.parseInt(tfThreads.getText()));
+			config.setTileSize(Integer.parseInt(tfTileSize.getText()));
+			config.setTileOrder(cbTileOrder.getValue());
+			config.setRays(Integer.parseInt(tfRays.getText()));
+			config.setSamplerType(cbSampler.getValue());
+			config.setImageWidth(Integer.parseInt(tfImageWidth.getText()));
+			config.setImageHeight(Integer.parseInt(tfImageHeight.getText()));
+			config.setSphereReflectivity(Float.parseFloat(tfSphereReflectivity.getText()));
+			config.setBrightness(Float.parseFloat(tfBrightness.getText()));
+			config.setExposure(Float.parseFloat(tfExposure.getText()));
+			config.setToneMapping(cbToneMapping.getValue());
+			config.setGamma(Float.parseFloat(tfGamma.getText()));
+			config.setProgressive(cbProgressive.isSelected());
+			config.setProgressiveTimeLimit(Long.parseLong(tfTimeLimit.getText()));
+			config.setAdaptive(cbAdaptive.isSelected());
+			config.setMinRays(Integer.parseInt(tfMinRays.getText()));
+			config.setMaxRays(Integer.parseInt(tfMaxRays.getText()));
+			config.setNoiseThreshold(Float.parseFloat(tfNoiseThreshold.getText()));
+			config.setSampleHeatmap(cbSampleHeatmap.isSelected());
+
+			config.setRayOrigin(viRayOrigin.getVector3f());
+			config.setOddColour(viOddColour.getVector3f());
+			config.setEvenColour(viEvenColour.getVector3f());
+			config.setCamDirection(viCamDirection.getVector3f());
+			config.setSkyColour(viSkyColour.getVector3f());
+
+			canvasWidth = config.getImageWidth();
+			canvasHeight = config.getImageHeight();
+
+			canvas.setWidth(canvasWidth);
+			canvas.setHeight(canvasHeight);
+		}
+		catch (NumberFormatException nfe)
+		{
+		}
+	}
 
-				config.setLines(lines);
+	// Start rendering 'renderConfig', a copy the inputs can't change,
+	// cancelling any render in flight. With 'toneMapOnly' the last frame is
+	// tone mapped again if that is all that changed.
+	private void submitRender(RenderConfig renderConfig, final boolean preview, boolean toneMapOnly)
+	{
+		// Keep the same engine so its render threads are reused
+		if (raytracer == null)
+		{
+			raytracer = new JFXRay();
+			raytracer.setCache(cache);
 
-				try
-				{
-					config.setThreads(Integer.parseInt(tfThreads.getText()));
-					config.setRays(Integer.parseInt(tfRays.getText()));
-					config.setImageWidth(Integer.parseInt(tfImageWidth.getText()));
-					config.setImageHeight(Integer.parseInt(tfImageHeight.getText()));
-					config.setSphereReflectivity(Float.parseFloat(tfSphereReflectivity.getText()));
-					config.setBrightness(Float.parseFloat(tfBrightness.getText()));
-
-					config.setRayOrigin(viRayOrigin.getVector3f());
-					config.setOddColour(viOddColour.getVector3f());
-					config.setEvenColour(viEvenColour.getVector3f());
-					config.setCamDirection(viCamDirection.getVector3f());
-					config.setSkyColour(viSkyColour.getVector3f());
-
-					Platform.runLater(new Runnable()
-					{
-						@Override
-						public void run()
-						{
-							canvasWidth = config.getImageWidth();
-							canvasHeight = config.getImageHeight();
+			try
+			{
+				raytracer.getMetrics().register("JFXRayApp");
+			}
+			catch (JMException e)
+			{
+				System.err.println("Could not register render metrics: " + e);
+			}
+		}
 
-							canvas.setWidth(canvasWidth);
-							canvas.setHeight(canvasHeight);
-						}
-					});
+		if (currentRender != null)
+		{
+			currentRender.cancel(false);
+		}
+
+		// Someone is waiting for it, ahead of any batch renders sharing the
+		// threads
+		renderConfig.setPriority(RenderPriority.INTERACTIVE);
+
+		image = new WritableImage(renderConfig.getImageWidth(), renderConfig.getImageHeight());
+
+		// Previews are drawn as soon as they finish
+		if (!preview)
+		{
+			timeline.play();
+		}
+
+		final Future<byte[]> render = toneMapOnly ? raytracer.submitToneMap(renderConfig) : raytracer.submit(renderConfig);
+
+		currentRender = render;
+
+		// Wait off the FX thread, then show the finished frame, or why there
+		// isn't one, unless a newer render has replaced this one
+		renderWaiter.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				Throwable failure = null;
 
+				try
+				{
+					render.get();
 				}
-				catch (NumberFormatException nfe)
+				catch (CancellationException ce)
 				{
+					return;
+				}
+				catch (InterruptedException ie)
+				{
+					Thread.currentThread().interrupt();
+					return;
+				}
+				catch (ExecutionException ee)
+				{
+					failure = ee.getCause();
 				}
 
-				timeline.play();
-
-				image = new WritableImage(config.getImageWidth(), config.getImageHeight());
-
-				raytracer.render(config);
+				final Throwable renderFailure = failure;
 
 				Platform.runLater(new Runnable()
 				{
 					@Override
 					public void run()
 					{
-						updateCanvas();
+						if (render != currentRender)
+						{
+							return;
+						}
 
-						timeline.stop();
+						if (renderFailure != null)
+						{
+							renderFailed(renderFailure);
+							return;
+						}
 
-						btnRayTrace.setDisable(false);
-						stage.setResizable(true);
+						updateCanvas();
+
+						if (preview)
+						{
+							adaptPreviewScale();
+						}
+						else
+						{
+							timeline.stop();
+						}
 					}
 				});
 			}
 		});
+	}
+
+	// Leave the canvas as it was before the render, its tiles are partial
+	private void renderFailed(Throwable failure)
+	{
+		timeline.stop();
+
+		// Drop the tiles queued for drawing
+		while (raytracer.pollCompletedTile() != null)
+		{
+		}
+
+		tfRenderTime.setText("Failed: " + failure);
+
+		failure.printStackTrace();
+	}
+
+	// Coarser previews when they are slower than the frame budget, finer
+	// when there is plenty of time. Cache hits trace nothing and say nothing
+	// about the speed.
+	private void adaptPreviewScale()
+	{
+		if (raytracer.getSamplesTaken() == 0)
+		{
+			return;
+		}
+
+		long time = raytracer.getRenderTime();
+
+		if (time > PREVIEW_FRAME_MS && previewScale < MAX_PREVIEW_SCALE)
+		{
+			previewScale++;
+		}
+		else if (time < PREVIEW_FRAME_MS / 3 && previewScale > MIN_PREVIEW_SCALE)
+		{
+			previewScale--;
+		}
+	}
+
+	// Move the camera, show a preview and render in full once the input
+	// stops
+	private void navigate(float yaw, float pitch, float dolly)
+	{
+		CameraOrbit orbit = new CameraOrbit(viRayOrigin.getVector3f(), viCamDirection.getVector3f());
+
+		orbit.orbit(yaw, pitch);
+		orbit.dolly(dolly);
+
+		// Not an edit, don't restart the render from the field listeners
+		navigating = true;
+
+		viRayOrigin.setVector3f(orbit.getOrigin());
+		viCamDirection.setVector3f(orbit.getDirection());
+
+		navigating = false;
+
+		startPreview();
+
+		refineDelay.playFromStart();
+	}
+
+	// Changing 'value' while a render is in flight restarts it with the new
+	// inputs
+	private void restartOnChange(ObservableValue<?> value)
+	{
+		value.addListener(restartListener);
+	}
+
+	// Drag to orbit, scroll to dolly, or with the canvas focused use the
+	// arrow keys to orbit and W/S to dolly
+	private void initNavigation()
+	{
+		refineDelay = new PauseTransition(Duration.millis(250));
+		refineDelay.setOnFinished(new EventHandler<ActionEvent>()
+		{
+			@Override
+			public void handle(ActionEvent event)
+			{
+				startRaytracing();
+			}
+		});
+
+		canvas.setFocusTraversable(true);
+
+		canvas.setOnMousePressed(new EventHandler<MouseEvent>()
+		{
+			@Override
+			public void handle(MouseEvent event)
+			{
+				dragX = event.getX();
+				dragY = event.getY();
+
+				canvas.requestFocus();
+			}
+		});
 
-		t.start();
+		canvas.setOnMouseDragged(new EventHandler<MouseEvent>()
+		{
+			@Override
+			public void handle(MouseEvent event)
+			{
+				float yaw = (float) (event.getX() - dragX) * -ORBIT_PER_PIXEL;
+				float pitch = (float) (event.getY() - dragY) * ORBIT_PER_PIXEL;
+
+				dragX = event.getX();
+				dragY = event.getY();
+
+				navigate(yaw, pitch, 0);
+			}
+		});
+
+		canvas.setOnScroll(new EventHandler<ScrollEvent>()
+		{
+			@Override
+			public void handle(ScrollEvent event)
+			{
+				navigate(0, 0, (float) event.getDeltaY() * DOLLY_PER_SCROLL);
+			}
+		});
+
+		canvas.setOnKeyPressed(new EventHandler<KeyEvent>()
+		{
+			@Override
+			public void handle(KeyEvent event)
+			{
+				switch (event.getCode())
+				{
+				case LEFT:
+					navigate(ORBIT_PER_KEY, 0, 0);
+					break;
+				case RIGHT:
+					navigate(-ORBIT_PER_KEY, 0, 0);
+					break;
+				case UP:
+					navigate(0, -ORBIT_PER_KEY, 0);
+					break;
+				case DOWN:
+					navigate(0, ORBIT_PER_KEY, 0);
+					break;
+				case W:
+					navigate(0, 0, DOLLY_PER_KEY);
+					break;
+				case S:
+					navigate(0, 0, -DOLLY_PER_KEY);
+					break;
+				default:
+					return;
+				}
+
+				event.consume();
+			}
+		});
 	}
 
+	// Upload the whole frame when the raytracer has published a new one,
+	// otherwise only the tiles finished since the last refresh
 	private void updateCanvas()
 	{
+		// Version first, the frame is published before its version changes
+		int frameVersion = raytracer.getFrameVersion();
+
 		byte[] imgData = raytracer.getImageData();
 
+		// Tiles of a cancelled render can arrive after the image has been
+		// resized for the next one
+		if (imgData != null && imgData.length == (int) image.getWidth() * (int) image.getHeight() * 3)
+		{
+			int imageWidth = (int) image.getWidth();
+			int imageHeight = (int) image.getHeight();
+
+			if (frameVersion != drawnFrameVersion)
+			{
+				drawnFrameVersion = frameVersion;
+
+				drawRegion(imgData, 0, 0, imageWidth, imageHeight);
+			}
+
+			Tile tile;
+
+			while ((tile = raytracer.pollCompletedTile()) != null)
+			{
+				drawRegion(imgData, tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight());
+			}
+		}
+
+		RenderMetrics metrics = raytracer.getMetrics();
+
+		StringBuilder renderTime = new StringBuilder();
+
+		renderTime.append(raytracer.getRenderTime()).append("ms");
+
+		if (config.isProgressive())
+		{
+			renderTime.append(" (").append(raytracer.getCompletedPasses()).append(" spp)");
+		}
+
+		renderTime.append(String.format(" %.2f Mrays/s", metrics.getRaysPerSecond() / 1e6));
+
+		if (metrics.getEtaMillis() > 0)
+		{
+			renderTime.append(" ETA ").append(metrics.getEtaMillis() / 1000).append('s');
+		}
+
+		tfRenderTime.setText(renderTime.toString());
+
+		tfRenderStats.setText(String.format("%s / %s / %s, %s (%.0f%% busy)", formatCount(metrics.getPrimaryRays()),
+				formatCount(metrics.getShadowRays()), formatCount(metrics.getReflectionRays()),
+				formatCount(metrics.getSphereTests()), metrics.getUtilisation() * 100));
+
+		tfCache.setText((cache.getHits() + cache.getDiskHits()) + " / " + cache.getMisses() + " ("
+				+ cache.getBytes() / (1024 * 1024) + " MB)");
+	}
+
+	// 1234567 as 1.2M
+	private static String formatCount(long count)
+	{
+		if (count >= 1000000)
+		{
+			return String.format("%.1fM", count / 1e6);
+		}
+		else if (count >= 1000)
+		{
+			return String.format("%.1fk", count / 1e3);
+		}
+
+		return Long.toString(count);
+	}
+
+	private void drawRegion(byte[] imgData, int x, int y, int width, int height)
+	{
+		// The size the frame was rendered at, config changes when the window
+		// is resized
+		int imageWidth = (int) image.getWidth();
+		int imageHeight = (int) image.getHeight();
+
 		PixelWriter pixelWriter = image.getPixelWriter();
 
 		PixelFormat<ByteBuffer> pixelFormat = PixelFormat.getByteRgbInstance();
 
 		// write rgb data to WritableImage
-		pixelWriter.setPixels(0, 0, config.getImageWidth(), config.getImageHeight(), pixelFormat, imgData, 0,
-				config.getImageWidth() * 3);
+		pixelWriter.setPixels(x, y, width, height, pixelFormat, imgData, (y * imageWidth + x) * 3, imageWidth * 3);
 
 		// scale WritableImage onto Canvas
-		gc.drawImage(image, 0, 0, canvasWidth, canvasHeight);
+		double scaleX = (double) canvasWidth / imageWidth;
+		double scaleY = (double) canvasHeight / imageHeight;
 
-		tfRenderTime.setText(raytracer.getRenderTime() + "ms");
+		gc.drawImage(image, x, y, width, height, x * scaleX, y * scaleY, width * scaleX, height * scaleY);
 	}
 
 	private String padLine(String line, int width)
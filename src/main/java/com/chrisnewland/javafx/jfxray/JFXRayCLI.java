@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.management.JMException;
+
+// Headless batch renderer, needs no JavaFX toolkit or display.
+//
+// Usage: JFXRayCLI [key=value ...] [render.properties ...]
+//
+// Each properties file is one render (see RenderConfigLoader for the keys)
+// and key=value arguments apply to every render on top of its file. With no
+// files a single render is made from the arguments alone.
+// Extra keys:
+// output=<file> image to write, .ppm or anything ImageIO writes (.png ...),
+// defaults to the properties file name with .png
+// warmup=<n> untimed renders of the first config before the batch
+// mapped=true write tiles straight into a memory mapped .ppm or .rgb (raw)
+// output as they finish instead of holding the image in the heap, for
+// images of any size
+// cache=<dir> reuse frames rendered earlier with the same settings, kept
+// in the directory across runs (command line only)
+// coordinator=<port> render on RenderWorker processes connected to this
+// port instead of locally (command line only)
+// workers=<n> with coordinator, wait for n workers before the first render
+// frames=<n> render an animation of n frames with the properties files as
+// keyframes spread evenly from the first frame to the last, output is a
+// String.format pattern for the frame number (default <first file>_%04d.png)
+//
+// All renders share one JFXRay so its thread pool is created once and the
+// JIT warms up on the first render rather than on every one.
+public class JFXRayCLI
+{
+	private static final String KEY_OUTPUT = "output";
+	private static final String KEY_WARMUP = "warmup";
+	private static final String KEY_MAPPED = "mapped";
+	private static final String KEY_CACHE = "cache";
+	private static final String KEY_COORDINATOR = "coordinator";
+	private static final String KEY_WORKERS = "workers";
+	private static final String KEY_FRAMES = "frames";
+
+	// Frames rendered at once and finished frames waiting to be written
+	private static final int FRAMES_IN_FLIGHT = 2;
+	private static final int BUFFERED_FRAMES = 2;
+
+	private static final long CACHE_BYTES = 256L * 1024 * 1024;
+
+	public static void main(String[] args)
+	{
+		System.setProperty("java.awt.headless", "true");
+
+		Properties overrides = new Properties();
+		List<File> files = new ArrayList<>();
+
+		for (String arg : args)
+		{
+			int equals = arg.indexOf('=');
+
+			if (equals > 0)
+			{
+				overrides.setProperty(arg.substring(0, equals), arg.substring(equals + 1));
+			}
+			else
+			{
+				files.add(new File(arg));
+			}
+		}
+
+		List<Job> jobs = new ArrayList<>();
+
+		int warmup = 0;
+		int coordinatorPort = -1;
+		int workers = 0;
+		int frames = 0;
+
+		try
+		{
+			frames = Integer.parseInt(overrides.getProperty(KEY_FRAMES, "0"));
+
+			// Every render of a batch would overwrite the same file
+			if (frames == 0 && files.size() > 1 && overrides.containsKey(KEY_OUTPUT))
+			{
+				throw new IllegalArgumentException("Set output in each properties file for a batch");
+			}
+
+			warmup = Integer.parseInt(overrides.getProperty(KEY_WARMUP, "0"));
+
+			if (overrides.containsKey(KEY_COORDINATOR))
+			{
+				coordinatorPort = Integer.parseInt(overrides.getProperty(KEY_COORDINATOR));
+				workers = Integer.parseInt(overrides.getProperty(KEY_WORKERS, "1"));
+			}
+
+			if (files.isEmpty())
+			{
+				jobs.add(createJob(new Properties(), overrides, "jfxray"));
+			}
+			else
+			{
+				for (File file : files)
+				{
+					jobs.add(createJob(RenderConfigLoader.readProperties(file), overrides, baseName(file)));
+				}
+			}
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.println("Usage: JFXRayCLI [key=value ...] [render.properties ...]");
+			System.exit(1);
+		}
+
+		if (frames > 0)
+		{
+			String output = overrides.getProperty(KEY_OUTPUT, (files.isEmpty() ? "jfxray" : baseName(files.get(0)))
+					+ "_%04d.png");
+
+			if (!renderAnimation(jobs, frames, output))
+			{
+				System.exit(1);
+			}
+
+			return;
+		}
+
+		if (coordinatorPort >= 0)
+		{
+			if (!renderDistributed(jobs, coordinatorPort, workers))
+			{
+				System.exit(1);
+			}
+
+			return;
+		}
+
+		JFXRay raytracer = new JFXRay();
+
+		// Progress of long renders can be watched in JConsole
+		try
+		{
+			raytracer.getMetrics().register("JFXRayCLI");
+		}
+		catch (JMException e)
+		{
+			System.err.println("Could not register render metrics: " + e);
+		}
+
+		if (overrides.containsKey(KEY_CACHE))
+		{
+			raytracer.setCache(new RenderCache(CACHE_BYTES, new File(overrides.getProperty(KEY_CACHE))));
+		}
+
+		boolean failed = false;
+
+		try
+		{
+			for (int i = 0; i < warmup; i++)
+			{
+				raytracer.render(jobs.get(0).config);
+			}
+
+			for (Job job : jobs)
+			{
+				try
+				{
+					render(raytracer, job);
+				}
+				catch (IOException | RuntimeException e)
+				{
+					System.err.println(job.output + ": " + e);
+					failed = true;
+				}
+			}
+		}
+		finally
+		{
+			raytracer.shutdown();
+		}
+
+		if (failed)
+		{
+			System.exit(1);
+		}
+	}
+
+	private static void render(JFXRay raytracer, Job job) throws IOException
+	{
+		RenderConfig config = job.config;
+
+		RenderCache cache = raytracer.getCache();
+
+		long cacheMisses = cache == null ? 0 : cache.getMisses();
+
+		if (job.mapped)
+		{
+			boolean ppm = job.output.getName().toLowerCase().endsWith(".ppm");
+
+			try (MappedImageFile image = new MappedImageFile(job.output, config.getImageWidth(), config.getImageHeight(), ppm))
+			{
+				raytracer.render(config, image);
+			}
+		}
+		else
+		{
+			raytracer.render(config);
+
+			ImageFiles.write(job.output, raytracer.getImageData(), config.getImageWidth(), config.getImageHeight());
+		}
+
+		long time = Math.max(1, raytracer.getRenderTime());
+
+		if (cache != null && !job.mapped && cache.getMisses() == cacheMisses)
+		{
+			System.out.println(String.format("%s %dx%d %d rays cached", job.output, config.getImageWidth(),
+					config.getImageHeight(), config.getRays()));
+		}
+		else
+		{
+			RenderMetrics metrics = raytracer.getMetrics();
+
+			System.out.println(String.format("%s %dx%d %d rays %d ms %.2f Mrays/s", job.output, config.getImageWidth(),
+					config.getImageHeight(), config.getRays(), time, raytracer.getSamplesTaken() / (time * 1000.0)));
+
+			System.out.println(String.format("  %d primary %d shadow %d reflection rays, %d sphere tests, %.0f%% busy",
+					metrics.getPrimaryRays(), metrics.getShadowRays(), metrics.getReflectionRays(), metrics.getSphereTests(),
+					metrics.getUtilisation() * 100));
+
+			System.out.println("  camera rays by bounces " + bounces(metrics.getBounceHistogram()));
+
+			if (config.getSceneFile() != null || config.getIntersectionMode() == IntersectionMode.BVH)
+			{
+				SphereBvh bvh = raytracer.getSceneBvh();
+
+
+				System.out.println(String.format("  %d spheres read in %d ms, BVH of %d nodes depth %d built in %d ms, %.1f MB",
+						bvh.getSpheres().size(), raytracer.getSceneLoadTime(), bvh.getNodeCount(), bvh.getDepth(),
+						bvh.getBuildMillis(), bvh.getMemoryBytes() / (1024.0 * 1024)));
+			}
+
+			if (config.getFloorMapResolution() > 0)
+			{
+				FloorMap floorMap = raytracer.getFloorMap();
+
+
+				System.out.println(String.format("  floor map of %dx%d texels baked in %d ms, %.1f MB",
+						floorMap.getWidth(), floorMap.getHeight(), floorMap.getBuildMillis(),
+						floorMap.getMemoryBytes() / (1024.0 * 1024)));
+			}
+		}
+	}
+
+	// A histogram as "0:n 1:n ..."
+	private static String bounces(long[] histogram)
+	{
+		StringBuilder builder = new StringBuilder();
+
+		for (int i = 0; i < histogram.length; i++)
+		{
+			if (i > 0)
+			{
+				builder.append(' ');
+			}
+
+			builder.append(i).append(':').append(histogram[i]);
+		}
+
+		return builder.toString();
+	}
+
+	// The jobs are the keyframes, returns false if the animation failed
+	private static boolean renderAnimation(List<Job> jobs, int frames, final String output)
+	{
+		KeyframeAnimation animation = new KeyframeAnimation();
+
+		for (int i = 0; i < jobs.size(); i++)
+		{
+			int frame = jobs.size() == 1 ? frames - 1 : Math.round((float) i * (frames - 1) / (jobs.size() - 1));
+
+			animation.addKeyframe(frame, jobs.get(i).config);
+		}
+
+		AnimationRenderer renderer = new AnimationRenderer(jobs.get(0).config.getThreads(), FRAMES_IN_FLIGHT,
+				BUFFERED_FRAMES);
+
+		try
+		{
+			double framesPerSecond = renderer.render(animation, new FrameSink()
+			{
+				@Override
+				public void writeFrame(int frame, byte[] rgb, int width, int height) throws IOException
+				{
+					ImageFiles.write(new File(String.format(output, frame)), rgb, width, height);
+				}
+			});
+
+			RenderConfig config = animation.getFrame(0);
+
+			System.out.println(String.format("%s %d frames %dx%d %d rays %.2f frames/s", output, frames,
+					config.getImageWidth(), config.getImageHeight(), config.getRays(), framesPerSecond));
+
+			return true;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			System.err.println(output + ": " + e);
+			return false;
+		}
+	}
+
+	// Returns false if any job failed
+	private static boolean renderDistributed(List<Job> jobs, int port, int workers)
+	{
+		boolean failed = false;
+
+		try (RenderCoordinator coordinator = new RenderCoordinator(port))
+		{
+			System.out.println("Waiting for " + workers + " worker(s) on port " + coordinator.getPort());
+
+			coordinator.awaitWorkers(workers);
+
+			for (Job job : jobs)
+			{
+				try
+				{
+					renderDistributed(coordinator, job);
+				}
+				catch (IOException | RuntimeException e)
+				{
+					System.err.println(job.output + ": " + e);
+					failed = true;
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println("Coordinator failed: " + e);
+			failed = true;
+		}
+		catch (InterruptedException e)
+		{
+			failed = true;
+		}
+
+		return !failed;
+	}
+
+	private static void renderDistributed(RenderCoordinator coordinator, Job job) throws IOException
+	{
+		RenderConfig config = job.config;
+
+		long start = System.currentTimeMillis();
+
+		if (job.mapped)
+		{
+			boolean ppm = job.output.getName().toLowerCase().endsWith(".ppm");
+
+			try (MappedImageFile image = new MappedImageFile(job.output, config.getImageWidth(), config.getImageHeight(), ppm))
+			{
+				coordinator.render(config, image);
+			}
+		}
+		else
+		{
+			byte[] frame = coordinator.render(config);
+
+			ImageFiles.write(job.output, frame, config.getImageWidth(), config.getImageHeight());
+		}
+
+		long time = Math.max(1, System.currentTimeMillis() - start);
+
+		long samples = (long) config.getImageWidth() * config.getImageHeight() * config.getRays();
+
+		System.out.println(String.format("%s %dx%d %d rays %d ms %.2f Mrays/s on %d worker(s)", job.output,
+				config.getImageWidth(), config.getImageHeight(), config.getRays(), time, samples / (time * 1000.0),
+				coordinator.getWorkerCount()));
+	}
+
+	// File settings first then the command line ones over the top
+	private static Job createJob(Properties settings, Properties overrides, String name)
+	{
+		Properties merged = new Properties();
+		merged.putAll(settings);
+		merged.putAll(overrides);
+
+		for (String key : merged.stringPropertyNames())
+		{
+			if (!RenderConfigLoader.isConfigKey(key) && !KEY_OUTPUT.equals(key) && !KEY_WARMUP.equals(key)
+					&& !KEY_MAPPED.equals(key) && !KEY_CACHE.equals(key) && !KEY_COORDINATOR.equals(key)
+					&& !KEY_WORKERS.equals(key) && !KEY_FRAMES.equals(key))
+			{
+				throw new IllegalArgumentException("Unknown setting: " + key);
+			}
+		}
+
+		RenderConfig config = RenderConfigLoader.createDefault();
+		RenderConfigLoader.apply(config, merged);
+
+		boolean mapped = Boolean.parseBoolean(merged.getProperty(KEY_MAPPED));
+
+		String output = merged.getProperty(KEY_OUTPUT, name + (mapped ? ".ppm" : ".png"));
+
+		if (mapped && !output.toLowerCase().endsWith(".ppm") && !output.toLowerCase().endsWith(".rgb"))
+		{
+			throw new IllegalArgumentException("mapped output must be .ppm or .rgb: " + output);
+		}
+
+		if (mapped && config.isProgressive())
+		{
+			throw new IllegalArgumentException("mapped output does not support progressive rendering");
+		}
+
+		return new Job(config, new File(output), mapped);
+	}
+
+	private static String baseName(File file)
+	{
+		String name = file.getName();
+
+		int dot = name.lastIndexOf('.');
+
+		String base = dot > 0 ? name.substring(0, dot) : name;
+
+		File parent = file.getParentFile();
+
+		return parent == null ? base : new File(parent, base).getPath();
+	}
+
+	private static final class Job
+	{
+		final RenderConfig config;
+		final File output;
+		final boolean mapped;
+
+		Job(RenderConfig config, File output, boolean mapped)
+		{
+			this.config = config;
+			this.output = output;
+			this.mapped = mapped;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+// A sequence of frames described by keyframes. Between two keyframes the
+// camera (rayOrigin, camDirection), the colours (odd, even and sky), the
+// brightness, the exposure and the sphere reflectivity are interpolated
+// linearly. Every other setting comes from the keyframe at or before the
+// frame.
+public final class KeyframeAnimation
+{
+	// Keyframe configs by frame number
+	private final TreeMap<Integer, RenderConfig> keyframes = new TreeMap<>();
+
+	// 'config' is copied, frame numbers start at 0
+	public void addKeyframe(int frame, RenderConfig config)
+	{
+		if (frame < 0)
+		{
+			throw new IllegalArgumentException("Keyframe before frame 0: " + frame);
+		}
+
+		keyframes.put(frame, new RenderConfig(config));
+	}
+
+	// Frames up to and including the last keyframe
+	public int getFrameCount()
+	{
+		return keyframes.isEmpty() ? 0 : keyframes.lastKey() + 1;
+	}
+
+	// A new config for 'frame'. Frames before the first keyframe use it
+	// unchanged.
+	public RenderConfig getFrame(int frame)
+	{
+		if (keyframes.isEmpty())
+		{
+			throw new IllegalStateException("No keyframes");
+		}
+
+		Map.Entry<Integer, RenderConfig> from = keyframes.floorEntry(frame);
+		Map.Entry<Integer, RenderConfig> to = keyframes.ceilingEntry(frame);
+
+		if (from == null)
+		{
+			return new RenderConfig(to.getValue());
+		}
+
+		if (to == null || from.getKey().equals(to.getKey()))
+		{
+			return new RenderConfig(from.getValue());
+		}
+
+		float t = (float) (frame - from.getKey()) / (to.getKey() - from.getKey());
+
+		RenderConfig a = from.getValue();
+		RenderConfig b = to.getValue();
+
+		RenderConfig config = new RenderConfig(a);
+
+		config.setRayOrigin(lerp(a.getRayOrigin(), b.getRayOrigin(), t));
+		config.setCamDirection(lerp(a.getCamDirection(), b.getCamDirection(), t));
+		config.setOddColour(lerp(a.getOddColour(), b.getOddColour(), t));
+		config.setEvenColour(lerp(a.getEvenColour(), b.getEvenColour(), t));
+		config.setSkyColour(lerp(a.getSkyColour(), b.getSkyColour(), t));
+		config.setBrightness(lerp(a.getBrightness(), b.getBrightness(), t));
+		config.setExposure(lerp(a.getExposure(), b.getExposure(), t));
+		config.setSphereReflectivity(lerp(a.getSphereReflectivity(), b.getSphereReflectivity(), t));
+
+		return config;
+	}
+
+	private static float lerp(float a, float b, float t)
+	{
+		return a + (b - a) * t;
+	}
+
+	private static Vector3f lerp(Vector3f a, Vector3f b, float t)
+	{
+		return new Vector3f(lerp(a.getX(), b.getX(), t), lerp(a.getY(), b.getY(), t), lerp(a.getZ(), b.getZ(), t));
+	}
+}
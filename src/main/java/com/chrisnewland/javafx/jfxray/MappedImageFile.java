@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+// Image file written tile by tile through memory mapped views, so images far
+// larger than the heap can be rendered: the pixels live in the OS page cache
+// and only the tile being written is touched by the JVM.
+// The file is raw RGB, optionally preceded by a binary (P6) PPM header.
+// A single mapping is limited to 2GB so the file is mapped in chunks of
+// whole rows, which keeps every tile row inside one chunk.
+public final class MappedImageFile implements TileOutput, Closeable
+{
+	private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer[] chunks;
+
+	private final int width;
+	private final int height;
+	private final int rowsPerChunk;
+
+	public MappedImageFile(File path, int width, int height, boolean ppmHeader) throws IOException
+	{
+		long rowBytes = (long) width * 3;
+
+		if (width <= 0 || height <= 0 || rowBytes > MAX_CHUNK_BYTES)
+		{
+			throw new IllegalArgumentException("Unsupported image size " + width + "x" + height);
+		}
+
+		this.width = width;
+		this.height = height;
+		this.rowsPerChunk = (int) Math.min(height, MAX_CHUNK_BYTES / rowBytes);
+
+		byte[] header = ppmHeader ? ("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII)
+				: new byte[0];
+
+		file = new RandomAccessFile(path, "rw");
+
+		try
+		{
+			file.setLength(header.length + rowBytes * height);
+			file.write(header);
+
+			FileChannel channel = file.getChannel();
+
+			chunks = new MappedByteBuffer[(height + rowsPerChunk - 1) / rowsPerChunk];
+
+			for (int i = 0; i < chunks.length; i++)
+			{
+				int rows = Math.min(rowsPerChunk, height - i * rowsPerChunk);
+
+				chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, header.length + rowBytes * i * rowsPerChunk, rowBytes
+						* rows);
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{
+			file.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void writeTile(Tile tile, byte[] rgb)
+	{
+		int length = tile.getWidth() * 3;
+
+		for (int row = 0; row < tile.getHeight(); row++)
+		{
+			int y = tile.getY() + row;
+
+			// Each thread needs its own position so write through a view
+			ByteBuffer view = chunks[y / rowsPerChunk].duplicate();
+
+			view.position(((y % rowsPerChunk) * width + tile.getX()) * 3);
+			view.put(rgb, row * length, length);
+		}
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	// Flush the mapped pages to disk. The mappings themselves are released
+	// when they are garbage collected.
+	@Override
+	public void close() throws IOException
+	{
+		for (MappedByteBuffer chunk : chunks)
+		{
+			chunk.force();
+		}
+
+		file.close();
+	}
+}
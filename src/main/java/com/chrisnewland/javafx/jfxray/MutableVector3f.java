@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// Mutable counterpart of Vector3f for the render loop.
+// Every operation updates this vector in place and returns it for chaining
+// so scratch vectors can be reused per thread without allocating.
+public final class MutableVector3f
+{
+	float x, y, z;
+
+	public MutableVector3f()
+	{
+	}
+
+	public MutableVector3f(float x, float y, float z)
+	{
+		set(x, y, z);
+	}
+
+	public MutableVector3f(Vector3f v)
+	{
+		set(v);
+	}
+
+	public MutableVector3f(MutableVector3f v)
+	{
+		set(v);
+	}
+
+	public MutableVector3f set(float x, float y, float z)
+	{
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		return this;
+	}
+
+	public MutableVector3f set(Vector3f v)
+	{
+		return set(v.getX(), v.getY(), v.getZ());
+	}
+
+	public MutableVector3f set(MutableVector3f v)
+	{
+		return set(v.x, v.y, v.z);
+	}
+
+	// this = v * s
+	public MutableVector3f setScaled(MutableVector3f v, float s)
+	{
+		return set(v.x * s, v.y * s, v.z * s);
+	}
+
+	public MutableVector3f add(MutableVector3f v)
+	{
+		return set(x + v.x, y + v.y, z + v.z);
+	}
+
+	public MutableVector3f add(Vector3f v)
+	{
+		return set(x + v.getX(), y + v.getY(), z + v.getZ());
+	}
+
+	// this = this + v * s
+	public MutableVector3f addScaled(MutableVector3f v, float s)
+	{
+		return set(x + v.x * s, y + v.y * s, z + v.z * s);
+	}
+
+	public MutableVector3f sub(MutableVector3f v)
+	{
+		return set(x - v.x, y - v.y, z - v.z);
+	}
+
+	public MutableVector3f scale(float s)
+	{
+		return set(x * s, y * s, z * s);
+	}
+
+	public float dot(MutableVector3f v)
+	{
+		return x * v.x + y * v.y + z * v.z;
+	}
+
+	// this = this x v
+	public MutableVector3f cross(MutableVector3f v)
+	{
+		return set(y * v.z - z * v.y, z * v.x - x * v.z, x * v.y - y * v.x);
+	}
+
+	public MutableVector3f normalise()
+	{
+		float factor = 1f / (float) Math.sqrt(dot(this));
+
+		return scale(factor);
+	}
+
+	public Vector3f toVector3f()
+	{
+		return new Vector3f(x, y, z);
+	}
+
+	public String toString()
+	{
+		return x + "  " + y + "  " + z;
+	}
+
+	public float getX()
+	{
+		return x;
+	}
+
+	public float getY()
+	{
+		return y;
+	}
+
+	public float getZ()
+	{
+		return z;
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// The sphere tests of RenderContext.testPacket() with several lanes of a
+// packet per instruction.
+// The implementation is VectorPacketKernel in src/main/java16, written
+// against the incubating Vector API (jdk.incubator.vector). It is compiled
+// by the vector profile on JDK 16 and later and loaded by name, and only
+// loads when the JVM is started with --add-modules jdk.incubator.vector.
+// Otherwise VECTOR is null and testPacket() tests one lane at a time.
+abstract class PacketKernel
+{
+	static final PacketKernel VECTOR = load();
+
+	// Test every sphere of 'data' in columns colMin to colMax and rows
+	// rowMin to rowMax, column by column like the scalar loop, against the
+	// lanes set in 'laneMask'. Each lane keeps its closest hit beyond .01 in
+	// the packet's t, material, hitCol and hitRow, lanes outside the mask
+	// are left alone. Returns the number of spheres tested.
+	abstract int intersectSpheres(RayPacket packet, int laneMask, boolean[][] data, int colMin, int colMax, int rowMin,
+			int rowMax);
+
+	private static PacketKernel load()
+	{
+		try
+		{
+			return (PacketKernel) Class.forName("com.chrisnewland.javafx.jfxray.VectorPacketKernel").getDeclaredConstructor()
+					.newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError e)
+		{
+			return null;
+		}
+	}
+}
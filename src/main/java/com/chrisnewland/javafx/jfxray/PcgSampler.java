@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// Counter based random numbers: each dimension of a sample is the PCG hash
+// of the seed, pixel, sample index and dimension, so there is no generator
+// state to share or keep in step between threads and the numbers do not
+// depend on which thread renders which tile.
+// The low discrepancy samplers extend this and fall back to it for the
+// dimensions they do not cover.
+public class PcgSampler implements Sampler
+{
+	private final int seedHash;
+
+	// Hash of the seed and the current pixel
+	protected int pixelHash;
+
+	protected int index;
+	protected int dimension;
+
+	private int sampleHash;
+
+	// Pixel of the current sample, most samples repeat it
+	private int pixelX = -1;
+	private int pixelY = -1;
+
+	public PcgSampler(long seed)
+	{
+		seedHash = hash((int) (seed ^ (seed >>> 32)));
+	}
+
+	@Override
+	public final void startSample(int x, int y, int index, int dimension)
+	{
+		if (x != pixelX || y != pixelY)
+		{
+			pixelX = x;
+			pixelY = y;
+			pixelHash = hash(seedHash ^ hash(x ^ hash(y)));
+
+			startPixel();
+		}
+
+		this.index = index;
+		this.dimension = dimension;
+
+		sampleHash = hash(pixelHash + index);
+	}
+
+	@Override
+	public float next()
+	{
+		return random(dimension++);
+	}
+
+	// Called when a sample starts on a new pixel, after pixelHash is set
+	protected void startPixel()
+	{
+	}
+
+	// Random number for dimension 'd' of the current sample
+	protected final float random(int d)
+	{
+		return toFloat(hash(sampleHash + d * 0x9e3779b9));
+	}
+
+	// Random number for dimension 'd' shared by every sample of the pixel
+	protected final float pixelRandom(int d)
+	{
+		return toFloat(hash(pixelHash + d * 0x9e3779b9));
+	}
+
+	// PCG hash (Jarzynski and Olano, Hash Functions for GPU Rendering)
+	static int hash(int input)
+	{
+		int state = input * 747796405 + 0xac564b05;
+		int word = ((state >>> ((state >>> 28) + 4)) ^ state) * 277803737;
+
+		return (word >>> 22) ^ word;
+	}
+
+	// The top 24 bits as a float in [0, 1)
+	static float toFloat(int bits)
+	{
+		return (bits >>> 8) * 0x1p-24f;
+	}
+}
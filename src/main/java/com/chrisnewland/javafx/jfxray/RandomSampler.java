@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Every number from ThreadLocalRandom, the sample position is ignored
+public final class RandomSampler implements Sampler
+{
+	@Override
+	public void startSample(int x, int y, int index, int dimension)
+	{
+	}
+
+	@Override
+	public float next()
+	{
+		return ThreadLocalRandom.current().nextFloat();
+	}
+}
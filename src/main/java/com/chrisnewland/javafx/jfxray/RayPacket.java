@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// A group of up to LANES rays traced together, stored as one array per
+// component (structure of arrays) so the per-lane loops in
+// RenderContext.testPacket() run over contiguous floats.
+// Lanes from size upwards are unused.
+public final class RayPacket
+{
+	public static final int LANES = 8;
+
+	int size;
+
+	// Ray origins and directions
+	final float[] ox = new float[LANES];
+	final float[] oy = new float[LANES];
+	final float[] oz = new float[LANES];
+
+	final float[] dx = new float[LANES];
+	final float[] dy = new float[LANES];
+	final float[] dz = new float[LANES];
+
+	// Closest hit per lane
+	final int[] material = new int[LANES];
+	final float[] t = new float[LANES];
+	final int[] hitCol = new int[LANES];
+	final int[] hitRow = new int[LANES];
+
+	// Sphere tests made by testPacket(), counted for RenderMetrics
+	long sphereTests;
+
+	public void clear()
+	{
+		size = 0;
+	}
+
+	// Append a ray, returns its lane
+	public int add(float ox, float oy, float oz, float dx, float dy, float dz)
+	{
+		int lane = size++;
+
+		this.ox[lane] = ox;
+		this.oy[lane] = oy;
+		this.oz[lane] = oz;
+
+		this.dx[lane] = dx;
+		this.dy[lane] = dy;
+		this.dz[lane] = dz;
+
+		return lane;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isFull()
+	{
+		return size == LANES;
+	}
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Finished frames keyed on a hash of every RenderConfig setting that changes
+// the image. Settings that only change how fast it is made (threads,
+// priority, tile size and order, intersection mode, packet tracing, frustum
+// culling) are left out so they still hit. Configs marked not cacheable are
+// neither looked up nor stored.
+// Alongside each frame go its HDR values (see ToneMapper), keyed on
+// sceneKey() so every tone mapping of a scene shares them and a cache hit
+// can still be tone mapped again without rendering.
+// Frames are kept in memory least recently used first up to a byte budget
+// and, if a directory is given, also written there as <key>.rgb and
+// <sceneKey>.hdr so they survive restarts. Arrays are copied going in and
+// coming out, so callers can go on using and modifying their own.
+public final class RenderCache
+{
+	private final long maxBytes;
+	private final File directory;
+
+	private static final String FRAME_SUFFIX = ".rgb";
+	private static final String HDR_SUFFIX = ".hdr";
+
+	// 8 bit frames (byte[]) and HDR values (float[]) by file name, access
+	// ordered so iteration starts at the least recently used
+	private final LinkedHashMap<String, Object> frames = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	// 'directory' may be null for a memory only cache
+	public RenderCache(long maxBytes, File directory)
+	{
+		this.maxBytes = maxBytes;
+		this.directory = directory;
+
+		if (directory != null)
+		{
+			directory.mkdirs();
+		}
+	}
+
+	// A progressive render stopped by its time limit has a sample count that
+	// depends on the machine, so it can not be reproduced from its config
+	public static boolean isCacheable(RenderConfig config)
+	{
+		return config.isCacheable() && !(config.isProgressive() && config.getProgressiveTimeLimit() > 0);
+	}
+
+	// Returns the cached frame or null
+	public byte[] get(RenderConfig config)
+	{
+		String name = key(config) + FRAME_SUFFIX;
+
+		synchronized (this)
+		{
+			byte[] frame = (byte[]) frames.get(name);
+
+			if (frame != null)
+			{
+				hits.incrementAndGet();
+				return frame.clone();
+			}
+		}
+
+		byte[] frame = readFile(name, config.getImageWidth() * config.getImageHeight() * 3);
+
+		if (frame != null)
+		{
+			diskHits.incrementAndGet();
+			store(name, frame, frame.length);
+			return frame.clone();
+		}
+
+		misses.incrementAndGet();
+
+		return null;
+	}
+
+	public void put(RenderConfig config, byte[] frame)
+	{
+		String name = key(config) + FRAME_SUFFIX;
+
+		store(name, frame.clone(), frame.length);
+		writeFile(name, frame);
+	}
+
+	// Returns the cached HDR values of the config's scene, at a scale of 1,
+	// or null. HDR lookups are not counted in the hit and miss totals.
+	public float[] getHdr(RenderConfig config)
+	{
+		String name = sceneKey(config) + HDR_SUFFIX;
+
+		synchronized (this)
+		{
+			float[] hdr = (float[]) frames.get(name);
+
+			if (hdr != null)
+			{
+				return hdr.clone();
+			}
+		}
+
+		int length = config.getImageWidth() * config.getImageHeight() * 3;
+
+		byte[] data = readFile(name, length * 4L);
+
+		if (data == null)
+		{
+			return null;
+		}
+
+		float[] hdr = new float[length];
+
+		ByteBuffer.wrap(data).asFloatBuffer().get(hdr);
+
+		store(name, hdr, data.length);
+
+		return hdr.clone();
+	}
+
+	// Keep the HDR values of the config's frame, each multiplied by 'scale'
+	public void putHdr(RenderConfig config, float[] hdr, float scale)
+	{
+		String name = sceneKey(config) + HDR_SUFFIX;
+
+		float[] scaled = new float[hdr.length];
+
+		for (int i = 0; i < hdr.length; i++)
+		{
+			scaled[i] = hdr[i] * scale;
+		}
+
+		hdr = scaled;
+
+		store(name, hdr, hdr.length * 4L);
+
+		if (directory != null)
+		{
+			ByteBuffer data = ByteBuffer.allocate(hdr.length * 4);
+
+			data.asFloatBuffer().put(hdr);
+
+			writeFile(name, data.array());
+		}
+	}
+
+	private synchronized void store(String name, Object frame, long size)
+	{
+		if (size > maxBytes)
+		{
+			return;
+		}
+
+		Object previous = frames.put(name, frame);
+
+		bytes += size - (previous == null ? 0 : sizeOf(previous));
+
+		Iterator<Map.Entry<String, Object>> iterator = frames.entrySet().iterator();
+
+		while (bytes > maxBytes)
+		{
+			bytes -= sizeOf(iterator.next().getValue());
+			iterator.remove();
+		}
+	}
+
+	private static long sizeOf(Object frame)
+	{
+		return frame instanceof byte[] ? ((byte[]) frame).length : ((float[]) frame).length * 4L;
+	}
+
+	private byte[] readFile(String name, long length)
+	{
+		if (directory == null)
+		{
+			return null;
+		}
+
+		File file = new File(directory, name);
+
+		if (file.length() != length)
+		{
+			return null;
+		}
+
+		try
+		{
+			return Files.readAllBytes(file.toPath());
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	// Written to a temporary file and renamed so a reader never sees part
+	// of a frame. The cache is best effort, a failed write is only logged.
+	private void writeFile(String name, byte[] frame)
+	{
+		if (directory == null)
+		{
+			return;
+		}
+
+		File file = new File(directory, name);
+
+		try
+		{
+			File temp = File.createTempFile(name, ".tmp", directory);
+
+			try (OutputStream out = new FileOutputStream(temp))
+			{
+				out.write(frame);
+			}
+
+			if (!temp.renameTo(file))
+			{
+				temp.delete();
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println("Could not write " + file + ": " + e);
+		}
+	}
+
+	public synchronized void clear()
+	{
+		frames.clear();
+		bytes = 0;
+	}
+
+	// Hits served from memory
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	// Hits served from the disk directory
+	public long getDiskHits()
+	{
+		return diskHits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	// Size of the frames and HDR values held in memory
+	public synchronized long getBytes()
+	{
+		return bytes;
+	}
+
+	// SHA-256 of the canonical text form of the settings that affect the image
+	public static String key(RenderConfig config)
+	{
+		StringBuilder builder = sceneSettings(config);
+
+		builder.append("brightness=").append(config.getBrightness()).append('\n');
+		builder.append("toneMapping=").append(config.getToneMapping()).append('\n');
+		builder.append("exposure=").append(config.getExposure()).append('\n');
+		builder.append("gamma=").append(config.getGamma()).append('\n');
+
+		return sha256(builder.toString());
+	}
+
+	// Like key() but leaving out the tone mapping settings, equal for two
+	// configs whose HDR frames are the same. Brightness is left in for
+	// adaptive renders as it scales their noise threshold.
+	public static String sceneKey(RenderConfig config)
+	{
+		return sha256(sceneSettings(config).toString());
+	}
+
+	private static StringBuilder sceneSettings(RenderConfig config)
+	{
+		StringBuilder builder = new StringBuilder();
+
+		if (config.getLines() != null)
+		{
+			for (String line : config.getLines())
+			{
+				builder.append(line).append('\n');
+			}
+		}
+
+		builder.append("size=").append(config.getImageWidth()).append('x').append(config.getImageHeight()).append('\n');
+		builder.append("rays=").append(config.getRays()).append('\n');
+		builder.append("seed=").append(config.getSeed()).append('\n');
+		builder.append("sampler=").append(config.getSamplerType()).append('\n');
+		builder.append("pixelScale=").append(config.getPixelScale()).append('\n');
+
+		if (config.getSceneFile() != null)
+		{
+			// A changed file renders differently under the same name
+			File scene = new File(config.getSceneFile());
+
+			builder.append("sceneFile=").append(scene.getAbsolutePath()).append(',').append(scene.length()).append(',')
+					.append(scene.lastModified()).append('\n');
+			builder.append("sceneWidth=").append(config.getSceneWidth()).append('\n');
+		}
+
+		append(builder, "rayOrigin", config.getRayOrigin());
+		append(builder, "camDirection", config.getCamDirection());
+		append(builder, "oddColour", config.getOddColour());
+		append(builder, "evenColour", config.getEvenColour());
+		append(builder, "skyColour", config.getSkyColour());
+
+		builder.append("sphereReflectivity=").append(config.getSphereReflectivity()).append('\n');
+		builder.append("maxBounces=").append(config.getMaxBounces()).append('\n');
+		builder.append("russianRoulette=").append(config.isRussianRoulette()).append('\n');
+		builder.append("rouletteThreshold=").append(config.getRouletteThreshold()).append('\n');
+
+		// Left out when off so frames cached before it existed still hit
+		if (config.getFloorMapResolution() > 0)
+		{
+			builder.append("floorMapResolution=").append(config.getFloorMapResolution()).append('\n');
+		}
+
+		builder.append("progressive=").append(config.isProgressive()).append('\n');
+		builder.append("adaptive=").append(config.isAdaptive()).append('\n');
+
+		if (config.isAdaptive())
+		{
+			builder.append("minRays=").append(config.getMinRays()).append('\n');
+			builder.append("maxRays=").append(config.getMaxRays()).append('\n');
+			builder.append("noiseThreshold=").append(config.getNoiseThreshold()).append('\n');
+			builder.append("sampleHeatmap=").append(config.isSampleHeatmap()).append('\n');
+			builder.append("adaptiveBrightness=").append(config.getBrightness()).append('\n');
+		}
+
+		return builder;
+	}
+
+	private static String sha256(String text)
+	{
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+
+			for (byte b : digest)
+			{
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every JRE has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void append(StringBuilder builder, String name, Vector3f vector)
+	{
+		builder.append(name).append('=').append(vector.getX()).append(',').append(vector.getY()).append(',')
+				.append(vector.getZ()).append('\n');
+	}
+}
@@ -12,6 +12,8 @@ public final class RenderConfig
 	private int rays;
 	private String[] lines;
 	private int threads;
+	private RenderPriority priority = RenderPriority.BATCH;
+	private boolean cacheable = true;
 	private Vector3f rayOrigin;
 	private Vector3f camDirection;
 	private Vector3f oddColour;
@@ -19,6 +21,78 @@ public final class RenderConfig
 	private Vector3f skyColour;
 	private float sphereReflectivity;
 	private float brightness;
+	private ToneMapping toneMapping = ToneMapping.CLAMP;
+	private float exposure;
+	private float gamma = 1;
+	private IntersectionMode intersectionMode = IntersectionMode.GRID;
+	private boolean packetTracing;
+	private boolean frustumCulling = true;
+	private int tileSize = 32;
+	private TileOrder tileOrder = TileOrder.SCANLINE;
+	private boolean progressive;
+	private long progressiveTimeLimit;
+	private boolean adaptive;
+	private int minRays = 8;
+	private int maxRays = 64;
+	private float noiseThreshold = 2f;
+	private boolean sampleHeatmap;
+	private int maxBounces = 16;
+	private boolean russianRoulette;
+	private float rouletteThreshold = 0.1f;
+	private float floorMapResolution;
+	private long seed;
+	private SamplerType samplerType = SamplerType.RANDOM;
+	private float pixelScale = 1;
+	private String sceneFile;
+	private float sceneWidth = 24;
+
+	public RenderConfig()
+	{
+	}
+
+	// Copy of 'other' that can be handed to a background render while the
+	// original keeps changing. Vectors are immutable and so shared.
+	public RenderConfig(RenderConfig other)
+	{
+		imageWidth = other.imageWidth;
+		imageHeight = other.imageHeight;
+		rays = other.rays;
+		lines = other.lines == null ? null : other.lines.clone();
+		threads = other.threads;
+		priority = other.priority;
+		cacheable = other.cacheable;
+		rayOrigin = other.rayOrigin;
+		camDirection = other.camDirection;
+		oddColour = other.oddColour;
+		evenColour = other.evenColour;
+		skyColour = other.skyColour;
+		sphereReflectivity = other.sphereReflectivity;
+		brightness = other.brightness;
+		toneMapping = other.toneMapping;
+		exposure = other.exposure;
+		gamma = other.gamma;
+		intersectionMode = other.intersectionMode;
+		packetTracing = other.packetTracing;
+		frustumCulling = other.frustumCulling;
+		tileSize = other.tileSize;
+		tileOrder = other.tileOrder;
+		progressive = other.progressive;
+		progressiveTimeLimit = other.progressiveTimeLimit;
+		adaptive = other.adaptive;
+		minRays = other.minRays;
+		maxRays = other.maxRays;
+		noiseThreshold = other.noiseThreshold;
+		sampleHeatmap = other.sampleHeatmap;
+		maxBounces = other.maxBounces;
+		russianRoulette = other.russianRoulette;
+		rouletteThreshold = other.rouletteThreshold;
+		floorMapResolution = other.floorMapResolution;
+		seed = other.seed;
+		samplerType = other.samplerType;
+		pixelScale = other.pixelScale;
+		sceneFile = other.sceneFile;
+		sceneWidth = other.sceneWidth;
+	}
 
 	public final int getImageWidth()
 	{
@@ -70,6 +144,29 @@ public final class RenderConfig
 		this.threads = threads;
 	}
 
+	// Which renders on a shared RenderService go first
+	public final RenderPriority getPriority()
+	{
+		return priority;
+	}
+
+	public final void setPriority(RenderPriority priority)
+	{
+		this.priority = priority;
+	}
+
+	// False for throwaway frames, such as previews while the camera moves,
+	// that would only push reusable frames out of a RenderCache
+	public final boolean isCacheable()
+	{
+		return cacheable;
+	}
+
+	public final void setCacheable(boolean cacheable)
+	{
+		this.cacheable = cacheable;
+	}
+
 	public final Vector3f getRayOrigin()
 	{
 		return rayOrigin;
@@ -139,4 +236,268 @@ public final class RenderConfig
 	{
 		this.brightness = brightness;
 	}
+
+	public final ToneMapping getToneMapping()
+	{
+		return toneMapping;
+	}
+
+	public final void setToneMapping(ToneMapping toneMapping)
+	{
+		this.toneMapping = toneMapping;
+	}
+
+	// Stops, each one doubles the light
+	public final float getExposure()
+	{
+		return exposure;
+	}
+
+	public final void setExposure(float exposure)
+	{
+		this.exposure = exposure;
+	}
+
+	public final float getGamma()
+	{
+		return gamma;
+	}
+
+	public final void setGamma(float gamma)
+	{
+		this.gamma = gamma;
+	}
+
+	public final IntersectionMode getIntersectionMode()
+	{
+		return intersectionMode;
+	}
+
+	public final void setIntersectionMode(IntersectionMode intersectionMode)
+	{
+		this.intersectionMode = intersectionMode;
+	}
+
+	public final boolean isPacketTracing()
+	{
+		return packetTracing;
+	}
+
+	public final void setPacketTracing(boolean packetTracing)
+	{
+		this.packetTracing = packetTracing;
+	}
+
+	public final boolean isFrustumCulling()
+	{
+		return frustumCulling;
+	}
+
+	public final void setFrustumCulling(boolean frustumCulling)
+	{
+		this.frustumCulling = frustumCulling;
+	}
+
+	public final int getTileSize()
+	{
+		return tileSize;
+	}
+
+	public final void setTileSize(int tileSize)
+	{
+		this.tileSize = tileSize;
+	}
+
+	public final TileOrder getTileOrder()
+	{
+		return tileOrder;
+	}
+
+	public final void setTileOrder(TileOrder tileOrder)
+	{
+		this.tileOrder = tileOrder;
+	}
+
+	public final boolean isProgressive()
+	{
+		return progressive;
+	}
+
+	public final void setProgressive(boolean progressive)
+	{
+		this.progressive = progressive;
+	}
+
+	// Milliseconds after which a progressive render stops, 0 for no limit
+	public final long getProgressiveTimeLimit()
+	{
+		return progressiveTimeLimit;
+	}
+
+	public final void setProgressiveTimeLimit(long progressiveTimeLimit)
+	{
+		this.progressiveTimeLimit = progressiveTimeLimit;
+	}
+
+	public final boolean isAdaptive()
+	{
+		return adaptive;
+	}
+
+	public final void setAdaptive(boolean adaptive)
+	{
+		this.adaptive = adaptive;
+	}
+
+	// Rays every pixel gets before its noise is checked
+	public final int getMinRays()
+	{
+		return minRays;
+	}
+
+	public final void setMinRays(int minRays)
+	{
+		this.minRays = minRays;
+	}
+
+	// Rays a noisy pixel may use when sampling adaptively
+	public final int getMaxRays()
+	{
+		return maxRays;
+	}
+
+	public final void setMaxRays(int maxRays)
+	{
+		this.maxRays = maxRays;
+	}
+
+	// Standard error of a pixel, in 8-bit output levels, below which
+	// adaptive sampling stops
+	public final float getNoiseThreshold()
+	{
+		return noiseThreshold;
+	}
+
+	public final void setNoiseThreshold(float noiseThreshold)
+	{
+		this.noiseThreshold = noiseThreshold;
+	}
+
+	// Output the number of rays used per pixel (blue = min, red = max)
+	// instead of the image when sampling adaptively
+	public final boolean isSampleHeatmap()
+	{
+		return sampleHeatmap;
+	}
+
+	public final void setSampleHeatmap(boolean sampleHeatmap)
+	{
+		this.sampleHeatmap = sampleHeatmap;
+	}
+
+	// Most reflection rays followed from one camera ray
+	public final int getMaxBounces()
+	{
+		return maxBounces;
+	}
+
+	public final void setMaxBounces(int maxBounces)
+	{
+		this.maxBounces = maxBounces;
+	}
+
+	public final boolean isRussianRoulette()
+	{
+		return russianRoulette;
+	}
+
+	public final void setRussianRoulette(boolean russianRoulette)
+	{
+		this.russianRoulette = russianRoulette;
+	}
+
+	// Bounce weight below which Russian roulette may end a ray
+	public final float getRouletteThreshold()
+	{
+		return rouletteThreshold;
+	}
+
+	public final void setRouletteThreshold(float rouletteThreshold)
+	{
+		this.rouletteThreshold = rouletteThreshold;
+	}
+
+	// Texels per scene unit of the baked floor light (see FloorMap), 0 to
+	// trace the floor's shadow rays
+	public final float getFloorMapResolution()
+	{
+		return floorMapResolution;
+	}
+
+	public final void setFloorMapResolution(float floorMapResolution)
+	{
+		this.floorMapResolution = floorMapResolution;
+	}
+
+	// Identifies the random sample sequence, renders with different seeds
+	// are cached separately
+	public final long getSeed()
+	{
+		return seed;
+	}
+
+	public final void setSeed(long seed)
+	{
+		this.seed = seed;
+	}
+
+	// How the random numbers for the lens, pixel and light jitter are
+	// picked, the low discrepancy samplers reach a given noise level with
+	// fewer rays
+	public final SamplerType getSamplerType()
+	{
+		return samplerType;
+	}
+
+	public final void setSamplerType(SamplerType samplerType)
+	{
+		this.samplerType = samplerType;
+	}
+
+	// Size of a rendered pixel in pixels of the frame the camera is set up
+	// for. Rendering a 512x512 view at 128x128 with a pixel scale of 4 gives
+	// the same picture at a quarter of the resolution.
+	public final float getPixelScale()
+	{
+		return pixelScale;
+	}
+
+	public final void setPixelScale(float pixelScale)
+	{
+		this.pixelScale = pixelScale;
+	}
+
+	// PBM or PNG bitmap to build the spheres from instead of the pattern
+	// lines, null for the pattern (see SceneLoader)
+	public final String getSceneFile()
+	{
+		return sceneFile;
+	}
+
+	public final void setSceneFile(String sceneFile)
+	{
+		this.sceneFile = sceneFile;
+	}
+
+	// Width in world units the scene bitmap is scaled to, the pattern
+	// spheres are 1 apart
+	public final float getSceneWidth()
+	{
+		return sceneWidth;
+	}
+
+	public final void setSceneWidth(float sceneWidth)
+	{
+		this.sceneWidth = sceneWidth;
+	}
 }
@@ -0,0 +1,410 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+// Builds a RenderConfig from key=value settings, read from a properties file
+// or given on the command line. Keys are the RenderConfig property names:
+//
+// imageWidth=1024
+// imageHeight=768
+// rays=64
+// lines=******* ****** *       *|   *    *       *     * |...
+// rayOrigin=16,18,8
+// intersectionMode=GRID
+//
+// 'lines' is the sphere pattern, one '|' separated string per line, where
+// '*' is a sphere and any other character is empty. A properties file drops
+// the spaces at the start of a value, so a first row that starts with
+// spaces has to be written with the value in double quotes
+// (lines="   *   |*******") or the spaces escaped as '\ '. 'sceneFile'
+// replaces the pattern with a PBM or PNG bitmap 'sceneWidth' units across
+// (see SceneLoader). Vectors are x,y,z and enums use the constant names.
+// Anything not set keeps the JFXRayApp default.
+public final class RenderConfigLoader
+{
+	private static final String[] DEFAULT_PATTERN = new String[] {
+			"******* ****** *       *",
+			"   *    *       *     * ",
+			"   *    *        *   *  ",
+			"   *    *         * *   ",
+			"   *    *****      *    ",
+			"   *    *         * *   ",
+			"   *    *        *   *  ",
+			"   *    *       *     * ",
+			"****    *      *       *" };
+
+	private RenderConfigLoader()
+	{
+	}
+
+	// The JFXRayApp startup settings
+	public static RenderConfig createDefault()
+	{
+		RenderConfig config = new RenderConfig();
+
+		config.setImageWidth(512);
+		config.setImageHeight(512);
+		config.setLines(DEFAULT_PATTERN.clone());
+		config.setThreads(Runtime.getRuntime().availableProcessors());
+
+		config.setBrightness(10);
+		config.setCamDirection(new Vector3f(-2, -12, 0));
+		config.setEvenColour(new Vector3f(3, 1, 1));
+		config.setOddColour(new Vector3f(3, 3, 3));
+		config.setRayOrigin(new Vector3f(16, 18, 8));
+		config.setSkyColour(new Vector3f(.4f, .4f, 1f));
+		config.setSphereReflectivity(0.5f);
+		config.setRays(22);
+
+		return config;
+	}
+
+	public static Properties readProperties(File file) throws IOException
+	{
+		Properties properties = new Properties();
+
+		try (InputStream in = new FileInputStream(file))
+		{
+			properties.load(in);
+		}
+
+		return properties;
+	}
+
+	// Apply every setting in 'properties' that is a RenderConfig property.
+	// Other keys are left for the caller.
+	public static void apply(RenderConfig config, Properties properties)
+	{
+		for (String key : properties.stringPropertyNames())
+		{
+			if (isConfigKey(key))
+			{
+				set(config, key, properties.getProperty(key));
+			}
+		}
+	}
+
+	// Every setting of 'config' in the form apply() reads, so applying the
+	// result to a new RenderConfig gives an identical one
+	public static Properties toProperties(RenderConfig config)
+	{
+		Properties properties = new Properties();
+
+		properties.setProperty("imageWidth", Integer.toString(config.getImageWidth()));
+		properties.setProperty("imageHeight", Integer.toString(config.getImageHeight()));
+		properties.setProperty("rays", Integer.toString(config.getRays()));
+		properties.setProperty("threads", Integer.toString(config.getThreads()));
+		properties.setProperty("priority", config.getPriority().name());
+		properties.setProperty("cacheable", Boolean.toString(config.isCacheable()));
+
+		if (config.getLines() != null)
+		{
+			StringBuilder lines = new StringBuilder();
+
+			for (String line : config.getLines())
+			{
+				if (lines.length() > 0)
+				{
+					lines.append('|');
+				}
+
+				lines.append(line);
+			}
+
+			properties.setProperty("lines", lines.toString());
+		}
+
+		setVector(properties, "rayOrigin", config.getRayOrigin());
+		setVector(properties, "camDirection", config.getCamDirection());
+		setVector(properties, "oddColour", config.getOddColour());
+		setVector(properties, "evenColour", config.getEvenColour());
+		setVector(properties, "skyColour", config.getSkyColour());
+
+		properties.setProperty("sphereReflectivity", Float.toString(config.getSphereReflectivity()));
+		properties.setProperty("brightness", Float.toString(config.getBrightness()));
+		properties.setProperty("toneMapping", config.getToneMapping().name());
+		properties.setProperty("exposure", Float.toString(config.getExposure()));
+		properties.setProperty("gamma", Float.toString(config.getGamma()));
+		properties.setProperty("intersectionMode", config.getIntersectionMode().name());
+		properties.setProperty("packetTracing", Boolean.toString(config.isPacketTracing()));
+		properties.setProperty("frustumCulling", Boolean.toString(config.isFrustumCulling()));
+		properties.setProperty("tileSize", Integer.toString(config.getTileSize()));
+		properties.setProperty("tileOrder", config.getTileOrder().name());
+		properties.setProperty("progressive", Boolean.toString(config.isProgressive()));
+		properties.setProperty("progressiveTimeLimit", Long.toString(config.getProgressiveTimeLimit()));
+		properties.setProperty("adaptive", Boolean.toString(config.isAdaptive()));
+		properties.setProperty("minRays", Integer.toString(config.getMinRays()));
+		properties.setProperty("maxRays", Integer.toString(config.getMaxRays()));
+		properties.setProperty("noiseThreshold", Float.toString(config.getNoiseThreshold()));
+		properties.setProperty("sampleHeatmap", Boolean.toString(config.isSampleHeatmap()));
+		properties.setProperty("maxBounces", Integer.toString(config.getMaxBounces()));
+		properties.setProperty("russianRoulette", Boolean.toString(config.isRussianRoulette()));
+		properties.setProperty("rouletteThreshold", Float.toString(config.getRouletteThreshold()));
+		properties.setProperty("floorMapResolution", Float.toString(config.getFloorMapResolution()));
+		properties.setProperty("seed", Long.toString(config.getSeed()));
+		properties.setProperty("sampler", config.getSamplerType().name());
+		properties.setProperty("pixelScale", Float.toString(config.getPixelScale()));
+
+		if (config.getSceneFile() != null)
+		{
+			properties.setProperty("sceneFile", config.getSceneFile());
+		}
+
+		properties.setProperty("sceneWidth", Float.toString(config.getSceneWidth()));
+
+		return properties;
+	}
+
+	private static void setVector(Properties properties, String key, Vector3f vector)
+	{
+		if (vector != null)
+		{
+			properties.setProperty(key, vector.getX() + "," + vector.getY() + "," + vector.getZ());
+		}
+	}
+
+	public static boolean isConfigKey(String key)
+	{
+		switch (key)
+		{
+		case "imageWidth":
+		case "imageHeight":
+		case "rays":
+		case "threads":
+		case "priority":
+		case "cacheable":
+		case "lines":
+		case "rayOrigin":
+		case "camDirection":
+		case "oddColour":
+		case "evenColour":
+		case "skyColour":
+		case "sphereReflectivity":
+		case "brightness":
+		case "toneMapping":
+		case "exposure":
+		case "gamma":
+		case "intersectionMode":
+		case "packetTracing":
+		case "frustumCulling":
+		case "tileSize":
+		case "tileOrder":
+		case "progressive":
+		case "progressiveTimeLimit":
+		case "adaptive":
+		case "minRays":
+		case "maxRays":
+		case "noiseThreshold":
+		case "sampleHeatmap":
+		case "maxBounces":
+		case "russianRoulette":
+		case "rouletteThreshold":
+		case "floorMapResolution":
+		case "seed":
+		case "sampler":
+		case "pixelScale":
+		case "sceneFile":
+		case "sceneWidth":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	// Set a single property, throws IllegalArgumentException for an unknown
+	// key or a value that does not parse
+	public static void set(RenderConfig config, String key, String value)
+	{
+		if (!isConfigKey(key))
+		{
+			throw new IllegalArgumentException("Unknown setting: " + key);
+		}
+
+		// Spaces at either end are part of a pattern, which may be quoted to
+		// keep them in a properties file
+		String raw = value;
+
+		value = value.trim();
+
+		if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\""))
+		{
+			raw = value.substring(1, value.length() - 1);
+		}
+
+		try
+		{
+			switch (key)
+			{
+			case "imageWidth":
+				config.setImageWidth(Integer.parseInt(value));
+				break;
+			case "imageHeight":
+				config.setImageHeight(Integer.parseInt(value));
+				break;
+			case "rays":
+				config.setRays(Integer.parseInt(value));
+				break;
+			case "threads":
+				config.setThreads(Integer.parseInt(value));
+				break;
+			case "priority":
+				config.setPriority(RenderPriority.valueOf(value));
+				break;
+			case "cacheable":
+				config.setCacheable(Boolean.parseBoolean(value));
+				break;
+			case "lines":
+				config.setLines(parseLines(raw));
+				break;
+			case "rayOrigin":
+				config.setRayOrigin(parseVector(value));
+				break;
+			case "camDirection":
+				config.setCamDirection(parseVector(value));
+				break;
+			case "oddColour":
+				config.setOddColour(parseVector(value));
+				break;
+			case "evenColour":
+				config.setEvenColour(parseVector(value));
+				break;
+			case "skyColour":
+				config.setSkyColour(parseVector(value));
+				break;
+			case "sphereReflectivity":
+				config.setSphereReflectivity(Float.parseFloat(value));
+				break;
+			case "brightness":
+				config.setBrightness(Float.parseFloat(value));
+				break;
+			case "toneMapping":
+				config.setToneMapping(ToneMapping.valueOf(value));
+				break;
+			case "exposure":
+				config.setExposure(Float.parseFloat(value));
+				break;
+			case "gamma":
+				config.setGamma(Float.parseFloat(value));
+				break;
+			case "intersectionMode":
+				config.setIntersectionMode(IntersectionMode.valueOf(value));
+				break;
+			case "packetTracing":
+				config.setPacketTracing(Boolean.parseBoolean(value));
+				break;
+			case "frustumCulling":
+				config.setFrustumCulling(Boolean.parseBoolean(value));
+				break;
+			case "tileSize":
+				config.setTileSize(Integer.parseInt(value));
+				break;
+			case "tileOrder":
+				config.setTileOrder(TileOrder.valueOf(value));
+				break;
+			case "progressive":
+				config.setProgressive(Boolean.parseBoolean(value));
+				break;
+			case "progressiveTimeLimit":
+				config.setProgressiveTimeLimit(Long.parseLong(value));
+				break;
+			case "adaptive":
+				config.setAdaptive(Boolean.parseBoolean(value));
+				break;
+			case "minRays":
+				config.setMinRays(Integer.parseInt(value));
+				break;
+			case "maxRays":
+				config.setMaxRays(Integer.parseInt(value));
+				break;
+			case "noiseThreshold":
+				config.setNoiseThreshold(Float.parseFloat(value));
+				break;
+			case "sampleHeatmap":
+				config.setSampleHeatmap(Boolean.parseBoolean(value));
+				break;
+			case "maxBounces":
+				config.setMaxBounces(Integer.parseInt(value));
+				break;
+			case "russianRoulette":
+				config.setRussianRoulette(Boolean.parseBoolean(value));
+				break;
+			case "rouletteThreshold":
+				config.setRouletteThreshold(Float.parseFloat(value));
+				break;
+			case "floorMapResolution":
+				config.setFloorMapResolution(Float.parseFloat(value));
+				break;
+			case "seed":
+				config.setSeed(Long.parseLong(value));
+				break;
+			case "sampler":
+				config.setSamplerType(SamplerType.valueOf(value));
+				break;
+			case "pixelScale":
+				config.setPixelScale(Float.parseFloat(value));
+				break;
+			case "sceneFile":
+				config.setSceneFile(value.isEmpty() ? null : value);
+				break;
+			case "sceneWidth":
+				config.setSceneWidth(Float.parseFloat(value));
+				break;
+			}
+		}
+		catch (IllegalArgumentException e)
+		{
+			// NumberFormatException and bad enum names
+			throw new IllegalArgumentException("Bad value for " + key + ": " + value, e);
+		}
+	}
+
+	// Split on '|' and pad every line to the longest, JFXRay needs a
+	// rectangular pattern
+	static String[] parseLines(String value)
+	{
+		String[] lines = value.split("\\|");
+
+		int width = 0;
+
+		for (String line : lines)
+		{
+			width = Math.max(width, line.length());
+		}
+
+		for (int i = 0; i < lines.length; i++)
+		{
+			StringBuilder builder = new StringBuilder(lines[i]);
+
+			while (builder.length() < width)
+			{
+				builder.append(' ');
+			}
+
+			lines[i] = builder.toString();
+		}
+
+		return lines;
+	}
+
+	static Vector3f parseVector(String value)
+	{
+		String[] parts = value.split(",");
+
+		if (parts.length != 3)
+		{
+			throw new IllegalArgumentException("Expected x,y,z but got " + value);
+		}
+
+		return new Vector3f(Float.parseFloat(parts[0].trim()), Float.parseFloat(parts[1].trim()), Float.parseFloat(parts[2]
+				.trim()));
+	}
+}
@@ -0,0 +1,1407 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// One render: the scene, camera and shading settings of its RenderConfig,
+// where its tiles go and its progressive buffers.
+// JFXRay makes a new one for every render so an engine can run any number
+// of renders at once. The settings never change once it is made and each
+// thread traces with its own HitRecord, so the tracing methods can be
+// called from any thread.
+final class RenderContext
+{
+	// Width of the lens the camera rays start from, in units of the camera
+	// vectors. Gives the depth of field blur.
+	private static final float LENS_SIZE = 64;
+
+	// Most spheres a tile's primary rays test one by one after frustum
+	// culling, tiles that see more use the intersection mode's own search
+	private static final int MAX_TILE_CANDIDATES = 32;
+
+	private final boolean[][] data;
+	private final int rows;
+	private final int cols;
+
+	// Hierarchy over the spheres for the BVH intersection mode and bitmap
+	// scenes, otherwise null
+	private final SphereBvh bvh;
+
+	private final Vector3f floorColourOdd;
+	private final Vector3f floorColourEven;
+	private final Vector3f skyColour;
+
+	private final float sphereReflectivity;
+
+	private final int maxBounces;
+	private final boolean russianRoulette;
+	private final float rouletteThreshold;
+
+	private final IntersectionMode intersectionMode;
+
+	// Trace primary rays in packets of neighbouring pixels
+	private final boolean packetTracing;
+
+	// Sphere tests of testPacket() for several lanes at a time, null to test
+	// lane by lane. Benchmarks and tests may swap it before rendering.
+	PacketKernel packetKernel = PacketKernel.VECTOR;
+
+	// Cull the spheres per tile for primary rays
+	private final boolean frustumCulling;
+
+	private final int imageWidth;
+	private final int imageHeight;
+	private final int rays;
+	private final float brightness;
+	private final Vector3f rayOrigin;
+
+	// Adaptive sampling
+	private final boolean adaptive;
+	private final int minRays;
+	private final int maxRays;
+	private final float noiseThreshold;
+	private final boolean sampleHeatmap;
+
+	// Frame pixels per rendered pixel
+	private final float pixelScale;
+
+	private final SamplerType samplerType;
+	private final long seed;
+
+	// Camera basis
+	private final MutableVector3f camA;
+	private final MutableVector3f camB;
+	private final MutableVector3f camC;
+
+	// Brightness, exposure and tone mapping
+	private final ToneMapper toneMapper;
+
+	// Baked light of the floor, null to trace its shadow rays. Set by JFXRay
+	// before any tile is rendered.
+	FloorMap floorMap;
+
+	private final RenderPriority priority;
+
+	private final RenderMetrics metrics;
+
+	// Scratch of each thread that has rendered a tile, kept for the later
+	// passes of a progressive render
+	private final ConcurrentMap<Thread, TileWorker> workers = new ConcurrentHashMap<>();
+
+	// Set by JFXRay before any tile is rendered: where finished tiles go,
+	// the token that stops the render, the in-memory frame (null for tile
+	// output), HDR values of the whole frame (null to keep none) each
+	// multiplied by hdrScale, and for progressive renders the samples so far
+	// and the frame the current pass is drawn into
+	TileOutput output;
+	CancelToken token = new CancelToken();
+	byte[] frame;
+	float[] hdrData;
+	float hdrScale = 1;
+	float[] accumulation;
+	byte[] passBuffer;
+
+	// Set up the camera and shading settings from the config, tracing the
+	// spheres of 'bvh' or the config's pattern if it is null and counting
+	// into 'metrics', the render's own
+	RenderContext(RenderConfig config, SphereBvh bvh, RenderMetrics metrics)
+	{
+		this.bvh = bvh;
+		this.metrics = metrics;
+
+		this.floorColourOdd = config.getOddColour();
+		this.floorColourEven = config.getEvenColour();
+		this.skyColour = config.getSkyColour();
+		this.sphereReflectivity = config.getSphereReflectivity();
+		this.intersectionMode = config.getIntersectionMode();
+		this.packetTracing = config.isPacketTracing();
+		this.frustumCulling = config.isFrustumCulling();
+		this.maxBounces = Math.max(0, config.getMaxBounces());
+		this.russianRoulette = config.isRussianRoulette();
+		this.rouletteThreshold = config.getRouletteThreshold();
+		this.toneMapper = new ToneMapper(config);
+		this.priority = config.getPriority();
+
+		if (bvh == null)
+		{
+			String[] lines = config.getLines();
+
+			cols = lines[0].length();
+			rows = lines.length;
+
+			data = new boolean[rows][cols];
+
+			for (int r = 0; r < rows; r++)
+			{
+				for (int c = 0; c < cols; c++)
+				{
+					char ch = lines[r].charAt(c);
+
+					data[rows - 1 - r][cols - 1 - c] = ch == '*';
+				}
+			}
+		}
+		else
+		{
+			cols = 0;
+			rows = 0;
+			data = null;
+		}
+
+		imageWidth = config.getImageWidth();
+		imageHeight = config.getImageHeight();
+		rays = config.getRays();
+		brightness = config.getBrightness();
+		rayOrigin = config.getRayOrigin();
+
+		adaptive = config.isAdaptive();
+		minRays = Math.max(2, config.getMinRays());
+		maxRays = Math.max(minRays, config.getMaxRays());
+		noiseThreshold = config.getNoiseThreshold();
+		sampleHeatmap = config.isSampleHeatmap();
+
+		pixelScale = config.getPixelScale();
+
+		samplerType = config.getSamplerType();
+		seed = config.getSeed();
+
+		// Camera direction
+		MutableVector3f g = new MutableVector3f(config.getCamDirection()).normalise();
+
+		// Camera up vector...Seem Z is pointing up :/ WTF !
+		camA = new MutableVector3f(0, 0, 1).cross(g).normalise().scale(.003f);
+
+		// The right vector, obtained via traditional cross-product
+		camB = new MutableVector3f(g).cross(camA).normalise().scale(.003f);
+
+		// WTF ? See https://news.ycombinator.com/item?id=6425965 for more.
+		camC = new MutableVector3f(camA).add(camB).scale(-256).add(g);
+	}
+
+	int getImageWidth()
+	{
+		return imageWidth;
+	}
+
+	int getImageHeight()
+	{
+		return imageHeight;
+	}
+
+	int getRays()
+	{
+		return rays;
+	}
+
+	RenderPriority getPriority()
+	{
+		return priority;
+	}
+
+	// A sample heatmap shows sample counts, not light, so has no HDR values
+	boolean isSampleHeatmap()
+	{
+		return adaptive && sampleHeatmap;
+	}
+
+	SphereBvh getBvh()
+	{
+		return bvh;
+	}
+
+	// This render's own counters
+	RenderMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	// Bounds of the spheres as minX, minY, minZ, maxX, maxY, maxZ, null if
+	// there are none
+	float[] getSceneBounds()
+	{
+		if (bvh != null)
+		{
+			return bvh.getBounds();
+		}
+
+		float[] bounds = null;
+
+		for (int col = 0; col < cols; col++)
+		{
+			for (int row = 0; row < rows; row++)
+			{
+				if (!data[row][col])
+				{
+					continue;
+				}
+
+				if (bounds == null)
+				{
+					bounds = new float[] { col - 1, -1, row + 3, col + 1, 1, row + 5 };
+				}
+
+				bounds[0] = Math.min(bounds[0], col - 1);
+				bounds[2] = Math.min(bounds[2], row + 3);
+				bounds[3] = Math.max(bounds[3], col + 1);
+				bounds[5] = Math.max(bounds[5], row + 5);
+			}
+		}
+
+		return bounds;
+	}
+
+	// The tiles of 'scheduler' as a job for the render service. Pass 0 is a
+	// full quality render, otherwise this is the given progressive pass.
+	TileJob tiles(final TileScheduler scheduler, final int pass)
+	{
+		return new TileJob()
+		{
+			@Override
+			public Tile nextTile()
+			{
+				return token.isCancelled() ? null : scheduler.nextTile();
+			}
+
+			@Override
+			public void renderTile(Tile tile)
+			{
+				Thread thread = Thread.currentThread();
+
+				TileWorker worker = workers.get(thread);
+
+				if (worker == null)
+				{
+					worker = new TileWorker();
+					workers.put(thread, worker);
+				}
+
+				worker.render(tile, pass);
+			}
+
+			@Override
+			public void cancel()
+			{
+				token.cancel();
+			}
+		};
+	}
+
+	// The intersection test for line [o,d].
+	// Writes the result into 'hit' (the caller's reusable record):
+	// material 2 if a sphere was hit (and also distance t and bouncing ray n),
+	// material 0 if no hit was found but ray goes upward,
+	// material 1 if no hit was found but ray goes downward.
+	void test(float ox, float oy, float oz, float dx, float dy, float dz, HitRecord hit)
+	{
+		hit.t = 1e9f;
+		hit.material = HitRecord.MATERIAL_SKY;
+		hit.sphere = -1;
+
+		float p2 = -oz / dz;
+
+		if (.01 < p2)
+		{
+			hit.t = p2;
+			hit.nx = 0;
+			hit.ny = 0;
+			hit.nz = 1;
+			hit.material = HitRecord.MATERIAL_FLOOR;
+		}
+
+		if (bvh != null)
+		{
+			bvh.intersect(ox, oy, oz, dx, dy, dz, hit);
+		}
+		else if (intersectionMode == IntersectionMode.GRID)
+		{
+			testGrid(ox, oy, oz, dx, dy, dz, hit, false);
+		}
+		else
+		{
+			for (int col = 0; col < cols; col++)
+			{
+				for (int row = 0; row < rows; row++)
+				{
+					// For this row and column is there a sphere?
+					if (data[row][col])
+					{
+						hit.sphereTests++;
+
+						// There is a sphere but does the ray hit it ?
+						float s = intersectSphere(ox, oy, oz, dx, dy, dz, col, row);
+
+						if (s < hit.t && s > .01)
+						{
+							recordSphereHit(ox, oy, oz, dx, dy, dz, col, row, s, hit);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	// Shadow ray query for line [o,d]. Returns true as soon as anything is
+	// found in the way (the floor or any sphere), without looking for the
+	// closest hit or computing its normal. Equivalent to test() returning a
+	// material other than sky.
+	// 'hit' is only used as scratch and is left undefined.
+	boolean occluded(float ox, float oy, float oz, float dx, float dy, float dz, HitRecord hit)
+	{
+		float p2 = -oz / dz;
+
+		if (.01 < p2)
+		{
+			return true;
+		}
+
+		if (bvh != null)
+		{
+			return bvh.occluded(ox, oy, oz, dx, dy, dz, 1e9f, hit);
+		}
+
+		hit.t = 1e9f;
+		hit.material = HitRecord.MATERIAL_SKY;
+
+		if (intersectionMode == IntersectionMode.GRID)
+		{
+			return testGrid(ox, oy, oz, dx, dy, dz, hit, true);
+		}
+
+		for (int col = 0; col < cols; col++)
+		{
+			for (int row = 0; row < rows; row++)
+			{
+				if (data[row][col])
+				{
+					hit.sphereTests++;
+
+					float s = intersectSphere(ox, oy, oz, dx, dy, dz, col, row);
+
+					if (s < hit.t && s > .01)
+					{
+						return true;
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
+	// Closest hit for every lane of a packet of rays, the same result test()
+	// gives for each ray on its own.
+	// Spheres are culled once for the whole packet: only spheres within reach
+	// of the part of some lane's ray inside the scene bounding box are
+	// tested, and lanes whose ray misses the box are masked out. Neighbouring
+	// primary rays share nearly all of their candidates so this suits
+	// coherent packets. The spheres are tested with packetKernel if there is
+	// one.
+	void testPacket(RayPacket packet)
+	{
+		int size = packet.size;
+
+		float[] ox = packet.ox;
+		float[] oy = packet.oy;
+		float[] oz = packet.oz;
+		float[] dx = packet.dx;
+		float[] dy = packet.dy;
+		float[] dz = packet.dz;
+		float[] t = packet.t;
+		int[] material = packet.material;
+
+		// Lanes that can still hit a sphere
+		int laneMask = 0;
+
+		float minX = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY;
+		float minZ = Float.POSITIVE_INFINITY;
+		float maxZ = Float.NEGATIVE_INFINITY;
+
+		for (int lane = 0; lane < size; lane++)
+		{
+			float p2 = -oz[lane] / dz[lane];
+
+			if (.01 < p2)
+			{
+				t[lane] = p2;
+				material[lane] = HitRecord.MATERIAL_FLOOR;
+			}
+			else
+			{
+				t[lane] = 1e9f;
+				material[lane] = HitRecord.MATERIAL_SKY;
+			}
+
+			float tNear = Math.max(0, Math.max(slabNear(ox[lane], dx[lane], -1.5f, cols + 0.5f),
+					Math.max(slabNear(oy[lane], dy[lane], -1.5f, 1.5f), slabNear(oz[lane], dz[lane], 2.5f, rows + 4.5f))));
+
+			float tFar = Math.min(t[lane], Math.min(slabFar(ox[lane], dx[lane], -1.5f, cols + 0.5f),
+					Math.min(slabFar(oy[lane], dy[lane], -1.5f, 1.5f), slabFar(oz[lane], dz[lane], 2.5f, rows + 4.5f))));
+
+			if (tNear <= tFar)
+			{
+				laneMask |= 1 << lane;
+
+				float x0 = ox[lane] + dx[lane] * tNear;
+				float x1 = ox[lane] + dx[lane] * tFar;
+				float z0 = oz[lane] + dz[lane] * tNear;
+				float z1 = oz[lane] + dz[lane] * tFar;
+
+				minX = Math.min(minX, Math.min(x0, x1));
+				maxX = Math.max(maxX, Math.max(x0, x1));
+				minZ = Math.min(minZ, Math.min(z0, z1));
+				maxZ = Math.max(maxZ, Math.max(z0, z1));
+			}
+		}
+
+		if (laneMask == 0)
+		{
+			return;
+		}
+
+		// Spheres centred within reach of the packet's footprint on the grid
+		int colMin = Math.max(0, (int) Math.floor(minX - 1.5f));
+		int colMax = Math.min(cols - 1, (int) Math.ceil(maxX + 1.5f));
+		int rowMin = Math.max(0, (int) Math.floor(minZ - 4 - 1.5f));
+		int rowMax = Math.min(rows - 1, (int) Math.ceil(maxZ - 4 + 1.5f));
+
+		if (packetKernel != null)
+		{
+			packet.sphereTests += (long) packetKernel.intersectSpheres(packet, laneMask, data, colMin, colMax, rowMin,
+					rowMax) * Integer.bitCount(laneMask);
+			return;
+		}
+
+		// Same order as the brute force loop so ties resolve identically
+		for (int col = colMin; col <= colMax; col++)
+		{
+			for (int row = rowMin; row <= rowMax; row++)
+			{
+				if (!data[row][col])
+				{
+					continue;
+				}
+
+				for (int lane = 0; lane < size; lane++)
+				{
+					if ((laneMask & (1 << lane)) == 0)
+					{
+						continue;
+					}
+
+					packet.sphereTests++;
+
+					float s = intersectSphere(ox[lane], oy[lane], oz[lane], dx[lane], dy[lane], dz[lane], col, row);
+
+					if (s < t[lane] && s > .01)
+					{
+						t[lane] = s;
+						material[lane] = HitRecord.MATERIAL_SPHERE;
+						packet.hitCol[lane] = col;
+						packet.hitRow[lane] = row;
+					}
+				}
+			}
+		}
+	}
+
+	// Copy the result of testPacket() for one lane into 'hit'
+	void packetHit(RayPacket packet, int lane, HitRecord hit)
+	{
+		if (packet.material[lane] == HitRecord.MATERIAL_SPHERE)
+		{
+			recordSphereHit(packet.ox[lane], packet.oy[lane], packet.oz[lane], packet.dx[lane], packet.dy[lane],
+					packet.dz[lane], packet.hitCol[lane], packet.hitRow[lane], packet.t[lane], hit);
+		}
+		else
+		{
+			hit.t = packet.t[lane];
+			hit.material = packet.material[lane];
+
+			if (hit.material == HitRecord.MATERIAL_FLOOR)
+			{
+				hit.nx = 0;
+				hit.ny = 0;
+				hit.nz = 1;
+			}
+		}
+	}
+
+	// Spheres the camera rays through 'tile' can hit, written to
+	// 'candidates' as sphere indices in the order test() meets them.
+	// Returns how many there are, or -1 if there are more than 'candidates'
+	// holds and the rays should use test(). 'stack' is scratch.
+	int cullTile(Tile tile, TileFrustum frustum, int[] candidates, int[] stack)
+	{
+		// Image positions of the tile, x counts down from the right and y up
+		// from the bottom, each pixel jittered by up to 1
+		float xMin = imageWidth - (tile.getX() + tile.getWidth());
+		float yMin = imageHeight - (tile.getY() + tile.getHeight());
+
+		frustum.set(rayOrigin, camA, camB, camC, LENS_SIZE / 2, pixelScale, xMin, xMin + tile.getWidth(), yMin,
+				yMin + tile.getHeight());
+
+		if (bvh != null)
+		{
+			return bvh.cull(frustum, candidates, stack);
+		}
+
+		int count = 0;
+
+		for (int col = 0; col < cols; col++)
+		{
+			for (int row = 0; row < rows; row++)
+			{
+				if (data[row][col] && frustum.intersectsSphere(col, 0, row + 4, 1))
+				{
+					if (count == candidates.length)
+					{
+						return -1;
+					}
+
+					candidates[count++] = col * rows + row;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	// test() for a primary ray of a tile that can only hit the first
+	// 'count' spheres in 'candidates', from cullTile(). With no candidates
+	// only the floor is left.
+	void testCandidates(float ox, float oy, float oz, float dx, float dy, float dz, int[] candidates, int count,
+			HitRecord hit)
+	{
+		hit.t = 1e9f;
+		hit.material = HitRecord.MATERIAL_SKY;
+		hit.sphere = -1;
+
+		float p2 = -oz / dz;
+
+		if (.01 < p2)
+		{
+			hit.t = p2;
+			hit.nx = 0;
+			hit.ny = 0;
+			hit.nz = 1;
+			hit.material = HitRecord.MATERIAL_FLOOR;
+		}
+
+		if (count == 0)
+		{
+			return;
+		}
+
+		if (bvh != null)
+		{
+			bvh.intersect(ox, oy, oz, dx, dy, dz, candidates, count, hit);
+			return;
+		}
+
+		// Candidates are in brute force order so ties resolve identically
+		for (int i = 0; i < count; i++)
+		{
+			int col = candidates[i] / rows;
+			int row = candidates[i] - col * rows;
+
+			hit.sphereTests++;
+
+			float s = intersectSphere(ox, oy, oz, dx, dy, dz, col, row);
+
+			if (s < hit.t && s > .01)
+			{
+				recordSphereHit(ox, oy, oz, dx, dy, dz, col, row, s, hit);
+			}
+		}
+	}
+
+	// Distance along the ray to the unit sphere at (col, 0, row + 4) or
+	// infinity if the ray misses it
+	private float intersectSphere(float ox, float oy, float oz, float dx, float dy, float dz, int col, int row)
+	{
+		float px = ox + -col;
+		float py = oy + 0;
+		float pz = oz + (-row - 4);
+
+		float b = px * dx + py * dy + pz * dz;
+		float c = (px * px + py * py + pz * pz) - 1;
+		float q = b * b - c;
+
+		// Does the ray hit the sphere ?
+		if (q > 0)
+		{
+			return -b - (float) Math.sqrt(q);
+		}
+
+		return Float.POSITIVE_INFINITY;
+	}
+
+	// So far this is the minimum distance, save it. And also compute the
+	// bouncing ray vector into 'n'
+	private void recordSphereHit(float ox, float oy, float oz, float dx, float dy, float dz, int col, int row, float s,
+			HitRecord hit)
+	{
+		float nx = (ox + -col) + dx * s;
+		float ny = (oy + 0) + dy * s;
+		float nz = (oz + (-row - 4)) + dz * s;
+
+		float factor = 1f / (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+
+		hit.t = s;
+		hit.nx = nx * factor;
+		hit.ny = ny * factor;
+		hit.nz = nz * factor;
+		hit.material = HitRecord.MATERIAL_SPHERE;
+	}
+
+	// Sphere intersection using a 2D DDA walk over the character grid.
+	// The spheres sit at (col, 0, row + 4) with radius 1 so a ray can only hit
+	// spheres centred in the 3x3 block of cells around each cell it passes
+	// through. Cells are visited in ray order so the walk stops as soon as the
+	// next cell starts beyond the closest hit found so far.
+	// Gives exactly the same result as the brute force loop, including
+	// which sphere wins a tie (lowest col then row).
+	// With anyHit set the walk returns true at the first sphere closer than
+	// hit.t without recording it.
+	private boolean testGrid(float ox, float oy, float oz, float dx, float dy, float dz, HitRecord hit, boolean anyHit)
+	{
+		// Scene bounding box reject. Padded by half a cell which the 3x3 cell
+		// neighbourhood already tolerates, so rounding can never lose a hit.
+		float tNear = Math.max(0, Math.max(slabNear(ox, dx, -1.5f, cols + 0.5f),
+				Math.max(slabNear(oy, dy, -1.5f, 1.5f), slabNear(oz, dz, 2.5f, rows + 4.5f))));
+
+		float tFar = Math.min(hit.t, Math.min(slabFar(ox, dx, -1.5f, cols + 0.5f),
+				Math.min(slabFar(oy, dy, -1.5f, 1.5f), slabFar(oz, dz, 2.5f, rows + 4.5f))));
+
+		if (tNear > tFar)
+		{
+			return false;
+		}
+
+		// Cell containing the entry point, cell centres are on integer
+		// coordinates
+		int cellCol = (int) Math.floor(ox + dx * tNear + 0.5f);
+		int cellRow = (int) Math.floor(oz + dz * tNear - 4 + 0.5f);
+
+		int stepCol = dx > 0 ? 1 : (dx < 0 ? -1 : 0);
+		int stepRow = dz > 0 ? 1 : (dz < 0 ? -1 : 0);
+
+		// Ray distance at which the next column / row boundary is crossed
+		float tNextCol = stepCol == 0 ? Float.POSITIVE_INFINITY : (cellCol + 0.5f * stepCol - ox) / dx;
+		float tNextRow = stepRow == 0 ? Float.POSITIVE_INFINITY : (cellRow + 4 + 0.5f * stepRow - oz) / dz;
+
+		float tDeltaCol = stepCol == 0 ? Float.POSITIVE_INFINITY : Math.abs(1 / dx);
+		float tDeltaRow = stepRow == 0 ? Float.POSITIVE_INFINITY : Math.abs(1 / dz);
+
+		float tCell = tNear;
+
+		int hitIndex = Integer.MAX_VALUE;
+
+		while (tCell <= tFar && tCell <= hit.t)
+		{
+			for (int col = cellCol - 1; col <= cellCol + 1; col++)
+			{
+				if (col < 0 || col >= cols)
+				{
+					continue;
+				}
+
+				for (int row = cellRow - 1; row <= cellRow + 1; row++)
+				{
+					if (row < 0 || row >= rows || !data[row][col])
+					{
+						continue;
+					}
+
+					hit.sphereTests++;
+
+					float s = intersectSphere(ox, oy, oz, dx, dy, dz, col, row);
+
+					if (s > .01)
+					{
+						if (anyHit && s < hit.t)
+						{
+							return true;
+						}
+
+						int index = col * rows + row;
+
+						// On an exact tie the brute force loop keeps the
+						// sphere it met first
+						if (s < hit.t || (s == hit.t && hit.material == HitRecord.MATERIAL_SPHERE && index < hitIndex))
+						{
+							recordSphereHit(ox, oy, oz, dx, dy, dz, col, row, s, hit);
+							hitIndex = index;
+						}
+					}
+				}
+			}
+
+			if (tNextCol < tNextRow)
+			{
+				tCell = tNextCol;
+				tNextCol += tDeltaCol;
+				cellCol += stepCol;
+			}
+			else
+			{
+				tCell = tNextRow;
+				tNextRow += tDeltaRow;
+				cellRow += stepRow;
+			}
+		}
+
+		return false;
+	}
+	// Entry distance of a ray into the slab [min, max] on one axis
+	private static float slabNear(float origin, float direction, float min, float max)
+	{
+		if (direction == 0)
+		{
+			return (origin < min || origin > max) ? Float.POSITIVE_INFINITY : Float.NEGATIVE_INFINITY;
+		}
+
+		return Math.min((min - origin) / direction, (max - origin) / direction);
+	}
+
+	// Exit distance of a ray from the slab [min, max] on one axis
+	private static float slabFar(float origin, float direction, float min, float max)
+	{
+		if (direction == 0)
+		{
+			return (origin < min || origin > max) ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+		}
+
+		return Math.max((min - origin) / direction, (max - origin) / direction);
+	}
+
+	// sample the world and write the pixel color into 'rgb' for
+	// a ray passing by point o (Origin) and d (Direction).
+	// Random numbers come from the sample started on 'sampler'.
+	// Returns the number of reflection rays traced.
+	int sample(float ox, float oy, float oz, float dx, float dy, float dz, HitRecord hit, float[] rgb, Sampler sampler)
+	{
+		// Search for an intersection ray Vs World.
+		test(ox, oy, oz, dx, dy, dz, hit);
+
+		return shade(ox, oy, oz, dx, dy, dz, hit, rgb, sampler);
+	}
+
+	// Shade a ray whose first intersection is already in 'hit' and write the
+	// pixel color into 'rgb'.
+	// Reflections off spheres are followed in a loop carrying the weight of
+	// the bounce, up to maxBounces and optionally ended early by Russian
+	// roulette once the weight becomes small.
+	// Returns the number of reflection rays traced.
+	int shade(float ox, float oy, float oz, float dx, float dy, float dz, HitRecord hit, float[] rgb, Sampler sampler)
+	{
+		float red = 0;
+		float green = 0;
+		float blue = 0;
+
+		// Attenuation of this bounce
+		float weight = 1;
+
+		// Colour of the spheres reflected off so far
+		float tintRed = 1;
+		float tintGreen = 1;
+		float tintBlue = 1;
+
+		int bounces = 0;
+
+		while (true)
+		{
+			int m = hit.material;
+			float t = hit.t;
+			int sphere = hit.sphere;
+
+			if (m == HitRecord.MATERIAL_SKY)
+			{
+				// No sphere found and the ray goes upward: Generate a sky
+				// color
+				float sky = weight * (float) Math.pow(1 - dz, 4);
+
+				red += skyColour.getX() * sky * tintRed;
+				green += skyColour.getY() * sky * tintGreen;
+				blue += skyColour.getZ() * sky * tintBlue;
+				break;
+			}
+
+			// A sphere was maybe hit.
+			float nx = hit.nx;
+			float ny = hit.ny;
+			float nz = hit.nz;
+
+			// h = intersection coordinate
+			float hx = ox + dx * t;
+			float hy = oy + dy * t;
+			float hz = oz + dz * t;
+
+			// The floor's light from the baked map where it has one, or
+			// whether its shadow ray is needed where it does not
+			float baked = m == HitRecord.MATERIAL_FLOOR && floorMap != null ? floorMap.lookup(hx, hy) : FloorMap.TRACE;
+
+			if (baked >= 0)
+			{
+				Vector3f floorColour = floorColour(hx, hy);
+
+				float diffuse = weight * (baked / 4 + .1f);
+
+				red += floorColour.getX() * diffuse * tintRed;
+				green += floorColour.getY() * diffuse * tintGreen;
+				blue += floorColour.getZ() * diffuse * tintBlue;
+				break;
+			}
+
+			// 'l' = direction to light (with random delta for soft-shadows).
+			float lx = (9 + sampler.next()) + hx * -1;
+			float ly = (9 + sampler.next()) + hy * -1;
+			float lz = 16 + hz * -1;
+
+			float factor = 1f / (float) Math.sqrt(lx * lx + ly * ly + lz * lz);
+
+			lx *= factor;
+			ly *= factor;
+			lz *= factor;
+
+			// r = The half-vector
+			float nd = nx * (dx * -2f) + ny * (dy * -2f) + nz * (dz * -2f);
+
+			float rx = dx + nx * nd;
+			float ry = dy + ny * nd;
+			float rz = dz + nz * nd;
+
+			// Calculated the lambertian factor
+			float b = lx * nx + ly * ny + lz * nz;
+
+			// Calculate illumination factor (lambertian coefficient > 0 or in
+			// shadow)?
+			if (b < 0)
+			{
+				b = 0;
+			}
+			else if (baked == FloorMap.TRACE)
+			{
+				hit.shadowRays++;
+
+				if (occluded(hx, hy, hz, lx, ly, lz, hit))
+				{
+					b = 0;
+				}
+			}
+
+			if (m == HitRecord.MATERIAL_FLOOR)
+			{
+				// No sphere was hit and the ray was going downward:
+				// Generate a floor color
+				Vector3f floorColour = floorColour(hx, hy);
+
+				float diffuse = weight * (b / 4 + .1f);
+
+				red += floorColour.getX() * diffuse * tintRed;
+				green += floorColour.getY() * diffuse * tintGreen;
+				blue += floorColour.getZ() * diffuse * tintBlue;
+				break;
+			}
+
+			// Calculate the color 'p' with diffuse and specular component
+			float rdash = b > 0 ? 1 : 0;
+
+			float p = weight * (float) Math.pow(lx * (rx * rdash) + ly * (ry * rdash) + lz * (rz * rdash), 64);
+
+			red += p * tintRed;
+			green += p * tintGreen;
+			blue += p * tintBlue;
+
+			// A coloured sphere tints what it reflects, its highlight is
+			// left white
+			if (sphere >= 0)
+			{
+				Scene spheres = bvh.getSpheres();
+
+				tintRed *= spheres.red[sphere];
+				tintGreen *= spheres.green[sphere];
+				tintBlue *= spheres.blue[sphere];
+			}
+
+			// m == 2 A sphere was hit.
+			// Cast an ray bouncing from the sphere surface.
+			if (bounces == maxBounces)
+			{
+				break;
+			}
+
+			// Attenuate color since it is bouncing
+			weight *= sphereReflectivity;
+
+			if (russianRoulette && weight < rouletteThreshold)
+			{
+				// Continue with probability weight / threshold and boost the
+				// survivors to keep the expected colour unchanged
+				if (sampler.next() * rouletteThreshold >= weight)
+				{
+					break;
+				}
+
+				weight = rouletteThreshold;
+			}
+
+			bounces++;
+
+			ox = hx;
+			oy = hy;
+			oz = hz;
+
+			dx = rx;
+			dy = ry;
+			dz = rz;
+
+			// Search for an intersection of the reflected ray Vs World.
+			test(ox, oy, oz, dx, dy, dz, hit);
+		}
+
+		rgb[0] = red;
+		rgb[1] = green;
+		rgb[2] = blue;
+
+		return bounces;
+	}
+
+	// The checkerboard colour of the floor at (x, y)
+	private Vector3f floorColour(float x, float y)
+	{
+		int ceil = (int) (Math.ceil(x / 4) + Math.ceil(y / 4));
+
+		return ((ceil & 1) == 1) ? floorColourOdd : floorColourEven;
+	}
+
+	// One thread's scratch for rendering tiles, so the sampling loop does
+	// not allocate
+	private class TileWorker
+	{
+		private final HitRecord hit = new HitRecord();
+		private final float[] rgb = new float[3];
+
+		private final MutableVector3f lens = new MutableVector3f();
+		private final MutableVector3f origin = new MutableVector3f();
+		private final MutableVector3f dir = new MutableVector3f();
+
+		private final Sampler sampler = samplerType.createSampler(seed, adaptive ? maxRays : rays);
+
+		// HDR values of the current tile and its pixels once tone mapped,
+		// handed to the output when it is done
+		private float[] tileHDR = new float[0];
+		private byte[] tileRGB = new byte[0];
+
+		// Packet tracing scratch, one running pixel color per lane
+		private final RayPacket packet = new RayPacket();
+		private final float[] packetRGB = new float[RayPacket.LANES * 3];
+
+		// Spheres the current tile's primary rays can hit, -1 for tiles
+		// that are not culled
+		private final TileFrustum frustum = new TileFrustum();
+		private final int[] candidates = new int[MAX_TILE_CANDIDATES];
+		private int candidateCount;
+
+		// Counts for the tile in progress, added to the thread's metrics
+		// when it is finished. bounces[n] is the camera rays that bounced n
+		// times.
+		private final long[] bounces = new long[maxBounces + 1];
+		private long primaryRays;
+		private long reflectionRays;
+
+		private final RenderMetrics.ThreadMetrics threadMetrics = metrics.forCurrentThread();
+
+		// Render 'tile' for full quality (pass 0) or the given progressive
+		// pass
+		void render(Tile tile, int pass)
+		{
+			Object event = RenderEvents.INSTANCE.beginTile();
+
+			long tileStart = System.nanoTime();
+
+			primaryRays = 0;
+			reflectionRays = 0;
+			hit.shadowRays = 0;
+			hit.sphereTests = 0;
+			packet.sphereTests = 0;
+
+			boolean packets = pass == 0 && !adaptive && packetTracing && bvh == null;
+
+			// Packets cull the spheres for themselves
+			candidateCount = frustumCulling && !packets ? cullTile(tile, frustum, candidates, hit.stack) : -1;
+
+			if (pass == 0)
+			{
+				if (adaptive)
+				{
+					renderTileAdaptive(tile);
+				}
+				else if (packets)
+				{
+					renderTilePackets(tile);
+				}
+				else
+				{
+					renderTile(tile);
+				}
+
+				if (!token.isCancelled())
+				{
+					finishTile(tile);
+				}
+			}
+			else
+			{
+				renderTilePass(tile, pass);
+			}
+
+			if (!token.isCancelled())
+			{
+				threadMetrics.addTile(System.nanoTime() - tileStart, primaryRays, hit.shadowRays, reflectionRays,
+						hit.sphereTests + packet.sphereTests, bounces);
+
+				RenderEvents.INSTANCE.endTile(event, tile, pass, primaryRays, hit.shadowRays, reflectionRays,
+						hit.sphereTests + packet.sphereTests);
+			}
+
+			Arrays.fill(bounces, 0);
+		}
+
+		private void renderTile(Tile tile)
+		{
+			float[] frame = tileBuffer(tile);
+
+			// For each line
+			for (int row = tile.getY(); row < tile.getY() + tile.getHeight(); row++)
+			{
+				if (token.isCancelled())
+				{
+					return;
+				}
+
+				// The image is stored top down but y counts up from the
+				// bottom and x counts down from the right
+				int y = imageHeight - 1 - row;
+
+				int pixel = (row - tile.getY()) * tile.getWidth() * 3;
+
+				// For each pixel in a line
+				for (int column = tile.getX(); column < tile.getX() + tile.getWidth(); column++)
+				{
+					int x = imageWidth - 1 - column;
+
+					// RGB pixel color
+					float pr = 0;
+					float pg = 0;
+					float pb = 0;
+
+					// Cast rays per pixel (For blur (stochastic sampling) and
+					// soft-shadows.
+					for (int r = rays - 1; r >= 0; r--)
+					{
+						samplePixel(x, y, r);
+
+						pr = rgb[0] + pr;
+						pg = rgb[1] + pg;
+						pb = rgb[2] + pb;
+					}
+
+					frame[pixel++] = pr;
+					frame[pixel++] = pg;
+					frame[pixel++] = pb;
+				}
+			}
+
+			primaryRays = (long) tile.getWidth() * tile.getHeight() * rays;
+		}
+
+		// Same image as renderTile() but each ray sample of a run of up to
+		// RayPacket.LANES neighbouring pixels in a row is intersected as one
+		// packet. Shading, including shadow and reflection rays, is still done
+		// ray by ray.
+		private void renderTilePackets(Tile tile)
+		{
+			float[] frame = tileBuffer(tile);
+
+			for (int row = tile.getY(); row < tile.getY() + tile.getHeight(); row++)
+			{
+				if (token.isCancelled())
+				{
+					return;
+				}
+
+				int y = imageHeight - 1 - row;
+
+				int tileEnd = tile.getX() + tile.getWidth();
+
+				for (int start = tile.getX(); start < tileEnd; start += RayPacket.LANES)
+				{
+					int lanes = Math.min(RayPacket.LANES, tileEnd - start);
+
+					Arrays.fill(packetRGB, 0, lanes * 3, 0);
+
+					for (int r = rays - 1; r >= 0; r--)
+					{
+						packet.clear();
+
+						for (int lane = 0; lane < lanes; lane++)
+						{
+							int x = imageWidth - 1 - (start + lane);
+
+							sampler.startSample(x, y, r, 0);
+
+							float lensU = sampler.next() - 0.5f;
+							float lensV = sampler.next() - 0.5f;
+
+							cameraRay(sampler.next() + x, sampler.next() + y, lensU, lensV, lens, origin, dir);
+
+							packet.add(origin.x, origin.y, origin.z, dir.x, dir.y, dir.z);
+						}
+
+						testPacket(packet);
+
+						for (int lane = 0; lane < lanes; lane++)
+						{
+							packetHit(packet, lane, hit);
+
+							// Carry on with the lane's sample after its camera ray
+							sampler.startSample(imageWidth - 1 - (start + lane), y, r, Sampler.CAMERA_DIMENSIONS);
+
+							int reflections = shade(packet.ox[lane], packet.oy[lane], packet.oz[lane], packet.dx[lane],
+									packet.dy[lane], packet.dz[lane], hit, rgb, sampler);
+
+							bounces[reflections]++;
+							reflectionRays += reflections;
+
+							int base = lane * 3;
+
+							packetRGB[base] = rgb[0] + packetRGB[base];
+							packetRGB[base + 1] = rgb[1] + packetRGB[base + 1];
+							packetRGB[base + 2] = rgb[2] + packetRGB[base + 2];
+						}
+					}
+
+					int pixel = ((row - tile.getY()) * tile.getWidth() + start - tile.getX()) * 3;
+
+					System.arraycopy(packetRGB, 0, frame, pixel, lanes * 3);
+				}
+			}
+
+			primaryRays = (long) tile.getWidth() * tile.getHeight() * rays;
+		}
+
+		// Sample each pixel until the standard error of its mean luminance
+		// drops below the noise threshold, between minRays and maxRays
+		// samples. The mean is scaled to the brightness of config.getRays()
+		// samples so the image matches a non-adaptive render.
+		private void renderTileAdaptive(Tile tile)
+		{
+			float[] frame = tileBuffer(tile);
+
+			float scale = brightness * rays;
+
+			long tileSamples = 0;
+
+			for (int row = tile.getY(); row < tile.getY() + tile.getHeight(); row++)
+			{
+				if (token.isCancelled())
+				{
+					return;
+				}
+
+				int y = imageHeight - 1 - row;
+
+				int pixel = (row - tile.getY()) * tile.getWidth() * 3;
+
+				for (int column = tile.getX(); column < tile.getX() + tile.getWidth(); column++)
+				{
+					int x = imageWidth - 1 - column;
+
+					float sr = 0;
+					float sg = 0;
+					float sb = 0;
+
+					// Running mean and sum of squared differences of the
+					// luminance (Welford)
+					float mean = 0;
+					float m2 = 0;
+
+					int n = 0;
+
+					while (n < maxRays)
+					{
+						samplePixel(x, y, n);
+
+						sr += rgb[0];
+						sg += rgb[1];
+						sb += rgb[2];
+
+						n++;
+
+						float luminance = (rgb[0] + rgb[1] + rgb[2]) / 3;
+						float delta = luminance - mean;
+
+						mean += delta / n;
+						m2 += delta * (luminance - mean);
+
+						if (n >= minRays && scale * (float) Math.sqrt(m2 / ((n - 1) * n)) < noiseThreshold)
+						{
+							break;
+						}
+					}
+
+					tileSamples += n;
+
+					if (sampleHeatmap)
+					{
+						float heat = maxRays == minRays ? 1 : (float) (n - minRays) / (maxRays - minRays);
+
+						tileRGB[pixel++] = (byte) (255 * heat);
+						tileRGB[pixel++] = 0;
+						tileRGB[pixel++] = (byte) (255 * (1 - heat));
+					}
+					else
+					{
+						frame[pixel++] = sr / n * rays;
+						frame[pixel++] = sg / n * rays;
+						frame[pixel++] = sb / n * rays;
+					}
+				}
+			}
+
+			primaryRays = tileSamples;
+		}
+
+		// The HDR buffer for 'tile', with tileRGB large enough for its
+		// pixels
+		private float[] tileBuffer(Tile tile)
+		{
+			int size = tile.getWidth() * tile.getHeight() * 3;
+
+			if (tileHDR.length < size)
+			{
+				tileHDR = new float[size];
+				tileRGB = new byte[size];
+			}
+
+			return tileHDR;
+		}
+
+		// Tone map the finished tile into tileRGB, unless it is a sample
+		// heatmap that is already there, keep its HDR values in the frame's
+		// and hand it to the output
+		private void finishTile(Tile tile)
+		{
+			if (!(adaptive && sampleHeatmap))
+			{
+				int length = tile.getWidth() * 3;
+
+				toneMapper.map(tileHDR, 0, 1, tileRGB, 0, length * tile.getHeight());
+
+				float[] hdr = hdrData;
+
+				if (hdr != null)
+				{
+					for (int row = 0; row < tile.getHeight(); row++)
+					{
+						System.arraycopy(tileHDR, row * length, hdr, ((tile.getY() + row) * imageWidth + tile.getX()) * 3,
+								length);
+					}
+				}
+			}
+
+			output.writeTile(tile, tileRGB);
+		}
+
+		// Add one sample per pixel to the accumulation buffer and write the
+		// tile into the pass buffer scaled up to the full sample count
+		private void renderTilePass(Tile tile, int pass)
+		{
+			float scale = (float) rays / pass;
+
+			for (int row = tile.getY(); row < tile.getY() + tile.getHeight(); row++)
+			{
+				if (token.isCancelled())
+				{
+					return;
+				}
+
+				int y = imageHeight - 1 - row;
+
+				int rowStart = (row * imageWidth + tile.getX()) * 3;
+				int pixel = rowStart;
+
+				for (int column = tile.getX(); column < tile.getX() + tile.getWidth(); column++)
+				{
+					int x = imageWidth - 1 - column;
+
+					samplePixel(x, y, pass - 1);
+
+					accumulation[pixel++] += rgb[0];
+					accumulation[pixel++] += rgb[1];
+					accumulation[pixel++] += rgb[2];
+				}
+
+				toneMapper.map(accumulation, rowStart, scale, passBuffer, rowStart, tile.getWidth() * 3);
+			}
+
+			primaryRays = (long) tile.getWidth() * tile.getHeight();
+		}
+
+		// Trace sample 'index' of pixel (x, y) into 'rgb'
+		private void samplePixel(int x, int y, int index)
+		{
+			sampler.startSample(x, y, index, 0);
+
+			float lensU = sampler.next() - 0.5f;
+			float lensV = sampler.next() - 0.5f;
+
+			cameraRay(sampler.next() + x, sampler.next() + y, lensU, lensV, lens, origin, dir);
+
+			if (candidateCount < 0)
+			{
+				test(origin.x, origin.y, origin.z, dir.x, dir.y, dir.z, hit);
+			}
+			else
+			{
+				testCandidates(origin.x, origin.y, origin.z, dir.x, dir.y, dir.z, candidates, candidateCount, hit);
+			}
+
+			int reflections = shade(origin.x, origin.y, origin.z, dir.x, dir.y, dir.z, hit, rgb, sampler);
+
+			bounces[reflections]++;
+			reflectionRays += reflections;
+		}
+	}
+	// Generate the camera ray through image position (px, py), which is the
+	// pixel plus its jitter, leaving the lens at (lensU, lensV) in
+	// -0.5..0.5. The position is multiplied by the pixel scale to get frame
+	// coordinates. 'lens' is scratch.
+	void cameraRay(float px, float py, float lensU, float lensV, MutableVector3f lens, MutableVector3f origin,
+			MutableVector3f dir)
+	{
+		// The delta to apply to the origin of the view (For Depth of View
+		// blur).
+
+		// A little bit of delta up/down and left/right
+		lens.setScaled(camA, lensU * LENS_SIZE);
+		lens.addScaled(camB, lensV * LENS_SIZE);
+
+		// Set the camera focal point and Cast the ray
+		// Ray Direction with random deltas for stochastic sampling
+		dir.setScaled(camA, px * pixelScale);
+		dir.addScaled(camB, py * pixelScale);
+		dir.add(camC).scale(16).sub(lens).normalise();
+
+		// Ray Origin +p for color accumulation
+		origin.set(rayOrigin).add(lens);
+	}
+}
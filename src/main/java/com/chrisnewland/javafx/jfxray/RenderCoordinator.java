@@ -0,0 +1,644 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+// Renders frames on RenderWorker processes that connect to a TCP port.
+// The frame's tiles are handed out in ranges of consecutive tiles (in the
+// config's tile order), each worker is kept two ranges ahead so it never
+// waits for the next one, and finished tiles stream back as raw RGB. See
+// RenderProtocol for the messages.
+// A worker that disconnects, or sends nothing for the stall timeout while
+// it has work, is dropped and its unfinished ranges go to the others. The
+// job fails once its last worker is dropped, or as soon as a worker reports
+// that it can not render it.
+// Tiles that arrive twice after a reassignment are written once.
+// Jobs run one at a time, render() blocks until every tile is in.
+public final class RenderCoordinator implements Closeable
+{
+	public static final int DEFAULT_TILES_PER_RANGE = 16;
+	public static final long DEFAULT_STALL_TIMEOUT = 60000;
+
+	// Ranges queued on each worker
+	private static final int RANGES_AHEAD = 2;
+
+	private final ServerSocket serverSocket;
+
+	private final List<WorkerConnection> workers = new ArrayList<>();
+
+	private int tilesPerRange = DEFAULT_TILES_PER_RANGE;
+	private long stallTimeout = DEFAULT_STALL_TIMEOUT;
+
+	// The job being rendered, null between jobs
+	private Job job;
+	private int nextJobId;
+
+	private volatile boolean closed;
+
+	public RenderCoordinator(int port) throws IOException
+	{
+		serverSocket = new ServerSocket(port);
+
+		Thread acceptThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				acceptWorkers();
+			}
+		}, "JFXRay coordinator");
+
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	// The port workers connect to, useful when constructed with port 0
+	public int getPort()
+	{
+		return serverSocket.getLocalPort();
+	}
+
+	public synchronized int getWorkerCount()
+	{
+		return workers.size();
+	}
+
+	// Block until at least 'count' workers are connected
+	public synchronized void awaitWorkers(int count) throws InterruptedException
+	{
+		while (workers.size() < count && !closed)
+		{
+			wait();
+		}
+	}
+
+	public synchronized void setTilesPerRange(int tilesPerRange)
+	{
+		this.tilesPerRange = Math.max(1, tilesPerRange);
+	}
+
+	// Milliseconds a worker with outstanding tiles may go without sending
+	// one before it is dropped
+	public synchronized void setStallTimeout(long stallTimeout)
+	{
+		this.stallTimeout = stallTimeout;
+	}
+
+	// Render the frame in memory, RGB bytes top row first
+	public byte[] render(RenderConfig config) throws IOException
+	{
+		byte[] frame = new byte[config.getImageWidth() * config.getImageHeight() * 3];
+
+		render(config, new FrameOutput(frame, config.getImageWidth(), null));
+
+		return frame;
+	}
+
+	// Render every tile of the frame into 'output'. Tiles are written one
+	// at a time. Waits for workers if none are connected. Throws an
+	// IOException if a worker can not render the job or every worker that
+	// took part is dropped.
+	public void render(RenderConfig config, TileOutput output) throws IOException
+	{
+		if (config.isProgressive())
+		{
+			throw new IllegalArgumentException("Progressive rendering needs an in-memory frame");
+		}
+
+		// Only the config's text is sent, the workers have no copy of the
+		// file
+		if (config.getSceneFile() != null)
+		{
+			throw new IllegalArgumentException("Distributed renders can not use a scene file");
+		}
+
+		byte[] encodedConfig = RenderProtocol.encodeConfig(config);
+
+		synchronized (this)
+		{
+			if (closed)
+			{
+				throw new IOException("Coordinator is closed");
+			}
+
+			if (job != null)
+			{
+				throw new IllegalStateException("A render is already in progress");
+			}
+
+			job = new Job(nextJobId++, config, encodedConfig, output, tilesPerRange);
+
+			dispatch();
+
+			try
+			{
+				while (!job.isComplete())
+				{
+					if (closed)
+					{
+						throw new IOException("Coordinator closed during the render");
+					}
+
+					if (job.failure != null)
+					{
+						throw new IOException(job.failure);
+					}
+
+					wait(Math.max(1, Math.min(1000, stallTimeout / 4)));
+
+					dropStalledWorkers();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+
+				throw new InterruptedIOException("Render interrupted");
+			}
+			finally
+			{
+				// Tiles still in flight for this job are ignored
+				for (WorkerConnection worker : workers)
+				{
+					worker.outstanding.clear();
+				}
+
+				job = null;
+			}
+		}
+	}
+
+	// Stop accepting workers and tell the connected ones to quit
+	@Override
+	public void close()
+	{
+		closed = true;
+
+		try
+		{
+			serverSocket.close();
+		}
+		catch (IOException e)
+		{
+		}
+
+		List<WorkerConnection> connected;
+
+		synchronized (this)
+		{
+			connected = new ArrayList<>(workers);
+			workers.clear();
+			notifyAll();
+		}
+
+		for (WorkerConnection worker : connected)
+		{
+			worker.quit();
+		}
+	}
+
+	private void acceptWorkers()
+	{
+		while (!closed)
+		{
+			try
+			{
+				Socket socket = serverSocket.accept();
+
+				socket.setTcpNoDelay(true);
+
+				final WorkerConnection worker = new WorkerConnection(socket);
+
+				synchronized (this)
+				{
+					workers.add(worker);
+					dispatch();
+					notifyAll();
+				}
+
+				Thread reader = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						readTiles(worker);
+					}
+				}, "JFXRay coordinator " + worker.name);
+
+				reader.setDaemon(true);
+				reader.start();
+			}
+			catch (IOException e)
+			{
+				if (!closed)
+				{
+					System.err.println("Coordinator accept failed: " + e);
+				}
+			}
+		}
+	}
+
+	// Reads tiles from one worker until it disconnects
+	private void readTiles(WorkerConnection worker)
+	{
+		byte[] rgb = new byte[0];
+
+		try
+		{
+			DataInputStream in = worker.in;
+
+			while (true)
+			{
+				int type = in.read();
+
+				if (type == -1)
+				{
+					throw new EOFException("Worker disconnected");
+				}
+
+				if (type == RenderProtocol.FAILED)
+				{
+					int jobId = in.readInt();
+
+					workerFailed(worker, jobId, RenderProtocol.readFailure(in));
+					continue;
+				}
+
+				if (type != RenderProtocol.TILE)
+				{
+					throw new IOException("Unexpected message " + type);
+				}
+
+				int jobId = in.readInt();
+				int x = in.readInt();
+				int y = in.readInt();
+				int width = in.readInt();
+				int height = in.readInt();
+
+				if (width <= 0 || height <= 0 || width > 4096 || height > 4096)
+				{
+					throw new IOException("Bad tile size " + width + "x" + height);
+				}
+
+				int length = width * height * 3;
+
+				if (rgb.length < length)
+				{
+					rgb = new byte[length];
+				}
+
+				in.readFully(rgb, 0, length);
+
+				tileReceived(worker, jobId, new Tile(x, y, width, height), rgb);
+			}
+		}
+		catch (IOException e)
+		{
+			if (!closed && !(e instanceof EOFException) && !(e instanceof SocketException))
+			{
+				System.err.println("Worker " + worker.name + ": " + e);
+			}
+
+			workerLost(worker);
+		}
+	}
+
+	private synchronized void tileReceived(WorkerConnection worker, int jobId, Tile tile, byte[] rgb) throws IOException
+	{
+		worker.lastProgress = System.currentTimeMillis();
+
+		if (job == null || job.id != jobId)
+		{
+			// Late tile of an earlier job
+			return;
+		}
+
+		if (!job.accept(tile, rgb))
+		{
+			throw new IOException("Tile " + tile + " is not part of the frame");
+		}
+
+		// Ranges whose tiles are all in, including ones finished by another
+		// worker after a reassignment
+		Iterator<Range> iterator = worker.outstanding.iterator();
+
+		while (iterator.hasNext())
+		{
+			if (job.isDone(iterator.next()))
+			{
+				iterator.remove();
+			}
+		}
+
+		dispatch();
+
+		if (job.isComplete())
+		{
+			notifyAll();
+		}
+	}
+
+	// A worker could not render the job, which would fail the same way on
+	// the others
+	private synchronized void workerFailed(WorkerConnection worker, int jobId, String message)
+	{
+		if (job != null && job.id == jobId && job.failure == null)
+		{
+			job.failure = "Worker " + worker.name + " failed: " + message;
+			notifyAll();
+		}
+	}
+
+	private synchronized void workerLost(WorkerConnection worker)
+	{
+		if (!workers.remove(worker))
+		{
+			return;
+		}
+
+		worker.close();
+
+		if (job != null)
+		{
+			// Redo its ranges first, they are the oldest
+			for (int i = worker.outstanding.size() - 1; i >= 0; i--)
+			{
+				job.pending.addFirst(worker.outstanding.get(i));
+			}
+
+			if (workers.isEmpty() && job.failure == null)
+			{
+				job.failure = "Every worker was dropped, the last was " + worker.name;
+			}
+		}
+
+		worker.outstanding.clear();
+
+		dispatch();
+
+		notifyAll();
+	}
+
+	private void dropStalledWorkers()
+	{
+		long now = System.currentTimeMillis();
+
+		for (WorkerConnection worker : new ArrayList<>(workers))
+		{
+			if (!worker.outstanding.isEmpty() && now - worker.lastProgress > stallTimeout)
+			{
+				System.err.println("Worker " + worker.name + " stalled, reassigning its tiles");
+
+				workerLost(worker);
+			}
+		}
+	}
+
+	// Top every worker up to RANGES_AHEAD ranges. Called holding the lock.
+	private void dispatch()
+	{
+		if (job == null)
+		{
+			return;
+		}
+
+		for (WorkerConnection worker : new ArrayList<>(workers))
+		{
+			while (worker.outstanding.size() < RANGES_AHEAD)
+			{
+				Range range = nextPendingRange();
+
+				if (range == null)
+				{
+					return;
+				}
+
+				if (worker.outstanding.isEmpty())
+				{
+					// The stall clock starts when the worker gets work
+					worker.lastProgress = System.currentTimeMillis();
+				}
+
+				worker.outstanding.add(range);
+
+				try
+				{
+					worker.send(job, range);
+				}
+				catch (IOException e)
+				{
+					workerLost(worker);
+					break;
+				}
+			}
+		}
+	}
+
+	// Skips requeued ranges that have been finished in the meantime
+	private Range nextPendingRange()
+	{
+		Range range;
+
+		while ((range = job.pending.poll()) != null)
+		{
+			if (!job.isDone(range))
+			{
+				return range;
+			}
+		}
+
+		return null;
+	}
+
+	// Tiles first .. first + count - 1 of a job's tile order
+	private static final class Range
+	{
+		final int first;
+		final int count;
+
+		Range(int first, int count)
+		{
+			this.first = first;
+			this.count = count;
+		}
+	}
+
+	private static final class Job
+	{
+		final int id;
+		final byte[] encodedConfig;
+		final TileOutput output;
+
+		final int imageWidth;
+		final int imageHeight;
+		final int tileSize;
+		final int tilesX;
+
+		final TileScheduler scheduler;
+
+		final Deque<Range> pending = new ArrayDeque<>();
+
+		// Finished tiles by position, row by row
+		final BitSet done = new BitSet();
+		int doneCount;
+
+		// Why the job can not finish, null while it can
+		String failure;
+
+		Job(int id, RenderConfig config, byte[] encodedConfig, TileOutput output, int tilesPerRange)
+		{
+			this.id = id;
+			this.encodedConfig = encodedConfig;
+			this.output = output;
+
+			imageWidth = config.getImageWidth();
+			imageHeight = config.getImageHeight();
+			tileSize = config.getTileSize();
+			tilesX = (imageWidth + tileSize - 1) / tileSize;
+
+			scheduler = new TileScheduler(imageWidth, imageHeight, tileSize, config.getTileOrder());
+
+			for (int first = 0; first < scheduler.getTileCount(); first += tilesPerRange)
+			{
+				pending.add(new Range(first, Math.min(tilesPerRange, scheduler.getTileCount() - first)));
+			}
+		}
+
+		// Write a tile unless it is already in, false if the tile does not
+		// match the frame's tiling
+		boolean accept(Tile tile, byte[] rgb)
+		{
+			int x = tile.getX();
+			int y = tile.getY();
+
+			if (x < 0 || y < 0 || x >= imageWidth || y >= imageHeight || x % tileSize != 0 || y % tileSize != 0
+					|| tile.getWidth() != Math.min(tileSize, imageWidth - x)
+					|| tile.getHeight() != Math.min(tileSize, imageHeight - y))
+			{
+				return false;
+			}
+
+			int index = gridIndex(tile);
+
+			if (!done.get(index))
+			{
+				output.writeTile(tile, rgb);
+
+				done.set(index);
+				doneCount++;
+			}
+
+			return true;
+		}
+
+		boolean isDone(Range range)
+		{
+			for (int i = range.first; i < range.first + range.count; i++)
+			{
+				if (!done.get(gridIndex(scheduler.getTile(i))))
+				{
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		boolean isComplete()
+		{
+			return doneCount == scheduler.getTileCount();
+		}
+
+		private int gridIndex(Tile tile)
+		{
+			return (tile.getY() / tileSize) * tilesX + tile.getX() / tileSize;
+		}
+	}
+
+	private static final class WorkerConnection
+	{
+		final Socket socket;
+		final String name;
+
+		final DataInputStream in;
+		final DataOutputStream out;
+
+		// Ranges sent and not yet finished, oldest first
+		final List<Range> outstanding = new ArrayList<>();
+
+		// Id of the last job whose config was sent
+		int jobSent = -1;
+
+		long lastProgress;
+
+		WorkerConnection(Socket socket) throws IOException
+		{
+			this.socket = socket;
+			this.name = socket.getRemoteSocketAddress().toString();
+
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		// The job's config goes first if this worker has not seen it
+		void send(Job job, Range range) throws IOException
+		{
+			if (jobSent != job.id)
+			{
+				RenderProtocol.writeJob(out, job.id, job.encodedConfig);
+				jobSent = job.id;
+			}
+
+			out.writeByte(RenderProtocol.RANGE);
+			out.writeInt(job.id);
+			out.writeInt(range.first);
+			out.writeInt(range.count);
+			out.flush();
+		}
+
+		void quit()
+		{
+			try
+			{
+				out.writeByte(RenderProtocol.QUIT);
+				out.flush();
+			}
+			catch (IOException e)
+			{
+			}
+
+			close();
+		}
+
+		void close()
+		{
+			try
+			{
+				socket.close();
+			}
+			catch (IOException e)
+			{
+			}
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// Java Flight Recorder events for each tile and each render.
+// The events themselves are JfrRenderEvents in src/main/jfr, compiled by
+// the jfr profile on JDK 11 and later and loaded by name, so the rest of
+// JFXRay still builds and runs on JDK 7. Where it is missing this does
+// nothing.
+// begin...() returns the event to hand to the matching end...() call, null
+// when nothing is recorded.
+abstract class RenderEvents
+{
+	static final RenderEvents INSTANCE = load();
+
+	abstract Object beginRender();
+
+	// 'tiles' finished, 'cached' if the frame came from a RenderCache
+	abstract void endRender(Object event, RenderConfig config, long tiles, long primaryRays, boolean cached,
+			boolean cancelled);
+
+	abstract Object beginTile();
+
+	// 'pass' is 0 for a full quality tile, or the progressive pass
+	abstract void endTile(Object event, Tile tile, int pass, long primaryRays, long shadowRays, long reflectionRays,
+			long sphereTests);
+
+	private static RenderEvents load()
+	{
+		try
+		{
+			return (RenderEvents) Class.forName("com.chrisnewland.javafx.jfxray.JfrRenderEvents").getDeclaredConstructor()
+					.newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError e)
+		{
+			return new RenderEvents()
+			{
+				@Override
+				Object beginRender()
+				{
+					return null;
+				}
+
+				@Override
+				void endRender(Object event, RenderConfig config, long tiles, long primaryRays, boolean cached,
+						boolean cancelled)
+				{
+				}
+
+				@Override
+				Object beginTile()
+				{
+					return null;
+				}
+
+				@Override
+				void endTile(Object event, Tile tile, int pass, long primaryRays, long shadowRays, long reflectionRays,
+						long sphereTests)
+				{
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,510 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Live counters for the renders in flight, or the last ones once they are
+// done.
+// Every render counts into its own RenderMetrics, held by its
+// RenderContext, so renders running at the same time never reset or mix up
+// each other's counters. JFXRay's instance adds up the renders in flight
+// and, as each finishes, folds its counts into its own totals. The totals
+// are cleared when a render starts with none in flight.
+// Each render thread has its own ThreadMetrics that only it writes, once
+// per finished tile, so the sampling loops never touch shared memory.
+// Totals are summed over the threads when read.
+// Registered with JMX by register(), JFXRay.getMetrics() gives the instance
+// for a raytracer.
+public final class RenderMetrics implements RenderMetricsMBean
+{
+	// Counters of this render's threads, or of the finished renders for
+	// JFXRay's instance
+	private final ConcurrentMap<String, ThreadMetrics> threads = new ConcurrentHashMap<>();
+
+	// Renders in flight added by add(), guarded by this
+	private final List<RenderMetrics> renders = new ArrayList<>();
+
+	// Renders between start() and finish(), guarded by this
+	private int inFlight;
+
+	private volatile long tilesTotal;
+
+	private volatile long startNanos;
+	private volatile long endNanos;
+	private volatile boolean running;
+
+	private ObjectName objectName;
+
+	// A render starts, clearing the counters if no other one is in flight
+	synchronized void start()
+	{
+		if (inFlight++ == 0)
+		{
+			threads.clear();
+			tilesTotal = 0;
+			startNanos = System.nanoTime();
+			running = true;
+		}
+	}
+
+	synchronized void finish()
+	{
+		if (--inFlight == 0)
+		{
+			endNanos = System.nanoTime();
+			running = false;
+		}
+	}
+
+	// Count the tiles of a render's own metrics while it is in flight
+	synchronized void add(RenderMetrics render)
+	{
+		renders.add(render);
+	}
+
+	// Fold the counts of a finished render into the totals
+	synchronized void remove(RenderMetrics render)
+	{
+		if (!renders.remove(render))
+		{
+			return;
+		}
+
+		for (ThreadMetrics metrics : render.threads.values())
+		{
+			forThread(metrics.getName()).add(metrics);
+		}
+
+		tilesTotal += render.tilesTotal;
+	}
+
+	void setTilesTotal(long tilesTotal)
+	{
+		this.tilesTotal = tilesTotal;
+	}
+
+	// The counters of the calling render thread
+	ThreadMetrics forCurrentThread()
+	{
+		return forThread(Thread.currentThread().getName());
+	}
+
+	private ThreadMetrics forThread(String name)
+	{
+		ThreadMetrics metrics = threads.get(name);
+
+		if (metrics == null)
+		{
+			ThreadMetrics created = new ThreadMetrics(name);
+
+			metrics = threads.putIfAbsent(name, created);
+
+			if (metrics == null)
+			{
+				metrics = created;
+			}
+		}
+
+		return metrics;
+	}
+
+	// Camera rays
+	@Override
+	public long getPrimaryRays()
+	{
+		long total = 0;
+
+		for (ThreadMetrics metrics : allThreads())
+		{
+			total += metrics.primaryRays;
+		}
+
+		return total;
+	}
+
+	// Rays towards the light from a floor or sphere hit
+	@Override
+	public long getShadowRays()
+	{
+		long total = 0;
+
+		for (ThreadMetrics metrics : allThreads())
+		{
+			total += metrics.shadowRays;
+		}
+
+		return total;
+	}
+
+	// Rays reflected off spheres
+	@Override
+	public long getReflectionRays()
+	{
+		long total = 0;
+
+		for (ThreadMetrics metrics : allThreads())
+		{
+			total += metrics.reflectionRays;
+		}
+
+		return total;
+	}
+
+	// Ray against sphere intersection tests, for every kind of ray
+	@Override
+	public long getSphereTests()
+	{
+		long total = 0;
+
+		for (ThreadMetrics metrics : allThreads())
+		{
+			total += metrics.sphereTests;
+		}
+
+		return total;
+	}
+
+	@Override
+	public long getTilesCompleted()
+	{
+		long total = 0;
+
+		for (ThreadMetrics metrics : allThreads())
+		{
+			total += metrics.tiles;
+		}
+
+		return total;
+	}
+
+	// Tiles in the whole render, every pass for a progressive one
+	@Override
+	public synchronized long getTilesTotal()
+	{
+		long total = tilesTotal;
+
+		for (RenderMetrics render : renders)
+		{
+			total += render.tilesTotal;
+		}
+
+		return total;
+	}
+
+	// Camera rays by the number of times they bounced off spheres, from 0 up
+	// to the largest maxBounces of the renders counted
+	@Override
+	public long[] getBounceHistogram()
+	{
+		long[] total = new long[0];
+
+		for (ThreadMetrics metrics : allThreads())
+		{
+			total = addCounts(total, metrics.bounces);
+		}
+
+		return total;
+	}
+
+	// Add 'counts' to 'total', returning 'total' or a longer copy if it is
+	// too short
+	private static long[] addCounts(long[] total, long[] counts)
+	{
+		if (total.length < counts.length)
+		{
+			total = Arrays.copyOf(total, counts.length);
+		}
+
+		for (int i = 0; i < counts.length; i++)
+		{
+			total[i] += counts[i];
+		}
+
+		return total;
+	}
+
+	// The counters of the finished renders' threads followed by those of
+	// the renders in flight, a thread appearing once for each
+	private synchronized List<ThreadMetrics> allThreads()
+	{
+		List<ThreadMetrics> result = new ArrayList<>(threads.values());
+
+		for (RenderMetrics render : renders)
+		{
+			result.addAll(render.threads.values());
+		}
+
+		return result;
+	}
+
+	@Override
+	public long getElapsedMillis()
+	{
+		return elapsedNanos() / 1000000;
+	}
+
+	private long elapsedNanos()
+	{
+		if (startNanos == 0)
+		{
+			return 0;
+		}
+
+		return (running ? System.nanoTime() : endNanos) - startNanos;
+	}
+
+	// All rays traced, primary, shadow and reflection
+	@Override
+	public double getRaysPerSecond()
+	{
+		long elapsed = elapsedNanos();
+
+		if (elapsed == 0)
+		{
+			return 0;
+		}
+
+		return (getPrimaryRays() + getShadowRays() + getReflectionRays()) * 1e9 / elapsed;
+	}
+
+	// Time left from the fraction of tiles finished so far, 0 when not
+	// rendering and -1 before the first tile. A progressive render with a
+	// time limit may stop sooner.
+	@Override
+	public long getEtaMillis()
+	{
+		if (!running)
+		{
+			return 0;
+		}
+
+		long completed = getTilesCompleted();
+		long total = getTilesTotal();
+
+		if (completed == 0 || total == 0)
+		{
+			return -1;
+		}
+
+		return Math.max(0, getElapsedMillis() * (total - completed) / completed);
+	}
+
+	@Override
+	public boolean isRunning()
+	{
+		return running;
+	}
+
+	// Render threads by name, each with its counts over every render
+	public List<ThreadMetrics> getThreads()
+	{
+		Map<String, ThreadMetrics> byName = new HashMap<>();
+
+		for (ThreadMetrics metrics : allThreads())
+		{
+			ThreadMetrics sum = byName.get(metrics.getName());
+
+			if (sum == null)
+			{
+				sum = new ThreadMetrics(metrics.getName());
+				byName.put(metrics.getName(), sum);
+			}
+
+			sum.add(metrics);
+		}
+
+		List<ThreadMetrics> result = new ArrayList<>(byName.values());
+
+		Collections.sort(result, new Comparator<ThreadMetrics>()
+		{
+			@Override
+			public int compare(ThreadMetrics t1, ThreadMetrics t2)
+			{
+				return t1.getName().compareTo(t2.getName());
+			}
+		});
+
+		return result;
+	}
+
+	// Share of the render threads' time spent on tiles, 0..1
+	public double getUtilisation()
+	{
+		long elapsed = elapsedNanos();
+
+		List<ThreadMetrics> list = getThreads();
+
+		if (elapsed == 0 || list.isEmpty())
+		{
+			return 0;
+		}
+
+		long busy = 0;
+
+		for (ThreadMetrics metrics : list)
+		{
+			busy += metrics.busyNanos;
+		}
+
+		return Math.min(1, (double) busy / (elapsed * list.size()));
+	}
+
+	@Override
+	public String[] getThreadSummary()
+	{
+		long elapsed = getElapsedMillis();
+
+		List<ThreadMetrics> list = getThreads();
+
+		String[] summary = new String[list.size()];
+
+		for (int i = 0; i < summary.length; i++)
+		{
+			ThreadMetrics metrics = list.get(i);
+
+			summary[i] = String.format("%s busy %d ms idle %d ms tiles %d", metrics.getName(), metrics.getBusyMillis(),
+					metrics.getIdleMillis(elapsed), metrics.getTiles());
+		}
+
+		return summary;
+	}
+
+	// Register with the platform MBean server as
+	// com.chrisnewland.javafx.jfxray:type=RenderMetrics,name=<name>
+	public synchronized void register(String name) throws JMException
+	{
+		unregister();
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		ObjectName objectName = new ObjectName("com.chrisnewland.javafx.jfxray:type=RenderMetrics,name="
+				+ ObjectName.quote(name));
+
+		server.registerMBean(this, objectName);
+
+		this.objectName = objectName;
+	}
+
+	public synchronized void unregister() throws JMException
+	{
+		if (objectName != null)
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			objectName = null;
+		}
+	}
+
+	// Counters of one render thread. Written only by that thread so plain
+	// volatile adds are safe, or for the totals by remove() holding the
+	// lock.
+	public static final class ThreadMetrics
+	{
+		private final String name;
+
+		private volatile long primaryRays;
+		private volatile long shadowRays;
+		private volatile long reflectionRays;
+		private volatile long sphereTests;
+		private volatile long tiles;
+		private volatile long busyNanos;
+
+		// Camera rays by bounce count. Added to in place and then written
+		// back, so a reader sees at least the counts up to that write.
+		private volatile long[] bounces = new long[0];
+
+		ThreadMetrics(String name)
+		{
+			this.name = name;
+		}
+
+		// Add the counts of 'other', called holding the owning metrics'
+		// lock or on a copy
+		void add(ThreadMetrics other)
+		{
+			this.busyNanos += other.busyNanos;
+			this.primaryRays += other.primaryRays;
+			this.shadowRays += other.shadowRays;
+			this.reflectionRays += other.reflectionRays;
+			this.sphereTests += other.sphereTests;
+			this.tiles += other.tiles;
+			this.bounces = addCounts(bounces, other.bounces);
+		}
+
+		// Add the counts of a finished tile, bounces[n] being its camera
+		// rays that bounced n times
+		void addTile(long busyNanos, long primaryRays, long shadowRays, long reflectionRays, long sphereTests,
+				long[] bounces)
+		{
+			this.busyNanos += busyNanos;
+			this.primaryRays += primaryRays;
+			this.shadowRays += shadowRays;
+			this.reflectionRays += reflectionRays;
+			this.sphereTests += sphereTests;
+			this.tiles++;
+			this.bounces = addCounts(this.bounces, bounces);
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public long getPrimaryRays()
+		{
+			return primaryRays;
+		}
+
+		public long getShadowRays()
+		{
+			return shadowRays;
+		}
+
+		public long getReflectionRays()
+		{
+			return reflectionRays;
+		}
+
+		public long getSphereTests()
+		{
+			return sphereTests;
+		}
+
+		public long getTiles()
+		{
+			return tiles;
+		}
+
+		public long[] getBounceHistogram()
+		{
+			return bounces.clone();
+		}
+
+		public long getBusyMillis()
+		{
+			return busyNanos / 1000000;
+		}
+
+		// Time in a render of 'elapsedMillis' not spent on tiles
+		public long getIdleMillis(long elapsedMillis)
+		{
+			return Math.max(0, elapsedMillis - getBusyMillis());
+		}
+	}
+}
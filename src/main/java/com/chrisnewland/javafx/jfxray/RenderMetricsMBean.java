@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// JMX view of the current or last render, see RenderMetrics
+public interface RenderMetricsMBean
+{
+	long getPrimaryRays();
+
+	long getShadowRays();
+
+	long getReflectionRays();
+
+	long getSphereTests();
+
+	// Camera rays by the number of times they bounced off spheres
+	long[] getBounceHistogram();
+
+	long getTilesCompleted();
+
+	long getTilesTotal();
+
+	long getElapsedMillis();
+
+	double getRaysPerSecond();
+
+	long getEtaMillis();
+
+	boolean isRunning();
+
+	// One line per render thread: name, busy and idle ms, tiles
+	String[] getThreadSummary();
+}
@@ -0,0 +1,17 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// Which renders a RenderService's threads work on first, in order of
+// precedence
+public enum RenderPriority
+{
+	// Someone is watching, previews and renders in the app
+	INTERACTIVE,
+
+	// Files, animation frames and distributed tiles
+	BATCH
+}
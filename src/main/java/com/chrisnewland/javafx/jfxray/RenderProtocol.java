@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+// Messages between RenderCoordinator and RenderWorker, big endian as
+// written by DataOutputStream.
+//
+// Coordinator to worker:
+// JOB      int jobId, int length, length bytes of the config as UTF-8
+//          properties text (sent once per job to each worker)
+// RANGE    int jobId, int firstTile, int count: render tiles
+//          firstTile .. firstTile + count - 1 in the job's tile order
+// QUIT     no more work
+//
+// Worker to coordinator:
+// TILE     int jobId, int x, int y, int width, int height, then the tile's
+//          RGB bytes, top row first
+// FAILED   int jobId, int length, length bytes of a UTF-8 message: the
+//          worker can not render the job, the coordinator fails it
+final class RenderProtocol
+{
+	static final int JOB = 'J';
+	static final int RANGE = 'R';
+	static final int QUIT = 'Q';
+	static final int TILE = 'T';
+	static final int FAILED = 'F';
+
+	private RenderProtocol()
+	{
+	}
+
+	static byte[] encodeConfig(RenderConfig config) throws IOException
+	{
+		StringWriter writer = new StringWriter();
+
+		RenderConfigLoader.toProperties(config).store(writer, null);
+
+		return writer.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	static void writeJob(DataOutputStream out, int jobId, byte[] config) throws IOException
+	{
+		out.writeByte(JOB);
+		out.writeInt(jobId);
+		out.writeInt(config.length);
+		out.write(config);
+	}
+
+	// Reads the config of a JOB message, after its job id. The whole
+	// message is read before the config is applied, so an
+	// IllegalArgumentException for a setting this side does not know leaves
+	// the stream at the next message.
+	static RenderConfig readConfig(DataInputStream in) throws IOException
+	{
+		Properties properties = new Properties();
+		properties.load(new StringReader(readText(in)));
+
+		RenderConfig config = new RenderConfig();
+
+		RenderConfigLoader.apply(config, properties);
+
+		return config;
+	}
+
+	static void writeFailure(DataOutputStream out, int jobId, String message) throws IOException
+	{
+		byte[] bytes = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+
+		out.writeByte(FAILED);
+		out.writeInt(jobId);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		out.flush();
+	}
+
+	// Reads the message of a FAILED message, after its job id
+	static String readFailure(DataInputStream in) throws IOException
+	{
+		return readText(in);
+	}
+
+	private static String readText(DataInputStream in) throws IOException
+	{
+		int length = in.readInt();
+
+		if (length < 0)
+		{
+			throw new IOException("Bad text length " + length);
+		}
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
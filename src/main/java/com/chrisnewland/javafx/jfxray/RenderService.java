@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// One pool of render threads shared by any number of renders, given to
+// the JFXRay instances that use it.
+// The threads are handed a tile at a time: each takes its next tile from
+// the highest priority job that has one, and jobs of the same priority
+// take turns, so a new interactive render starts within a tile of being
+// submitted however many batch renders are running, and no job of a
+// priority waits for another to finish. Threads stop when there are no
+// tiles left and start again with the next job.
+// The pool also runs the renders' fork/join work (building hierarchies
+// and tone mapping), which threads pick up between tiles.
+public final class RenderService
+{
+	private final RenderPool pool;
+
+	private final int threads;
+
+	// Jobs with tiles left, one queue per priority in order of precedence
+	private final List<ArrayDeque<Job>> queues = new ArrayList<>();
+
+	// Threads taking tiles, guarded by this
+	private int activeThreads;
+
+	public RenderService(int threads)
+	{
+		this.threads = Math.max(1, threads);
+
+		pool = new RenderPool(this.threads);
+
+		for (int i = 0; i < RenderPriority.values().length; i++)
+		{
+			queues.add(new ArrayDeque<Job>());
+		}
+	}
+
+	public int getThreads()
+	{
+		return threads;
+	}
+
+	ForkJoinPool getPool()
+	{
+		return pool;
+	}
+
+	// Render the tiles of 'tiles' and return once every one is finished.
+	// Interrupting the caller cancels the job, the tiles in progress are
+	// still waited for and the interrupt is kept.
+	// If a tile throws, no more of the job's tiles are handed out and once
+	// those in progress are finished the first failure is thrown here,
+	// wrapped in an IllegalStateException unless it is an Error.
+	void run(TileJob tiles, RenderPriority priority)
+	{
+		Job job = new Job(tiles);
+
+		boolean interrupted = false;
+
+		synchronized (this)
+		{
+			queues.get(priority.ordinal()).add(job);
+
+			while (activeThreads < threads)
+			{
+				activeThreads++;
+				pool.execute(new TileTask());
+			}
+
+			while (!job.done)
+			{
+				try
+				{
+					wait();
+				}
+				catch (InterruptedException e)
+				{
+					tiles.cancel();
+					interrupted = true;
+				}
+			}
+		}
+
+		if (interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		if (job.failure instanceof Error)
+		{
+			throw (Error) job.failure;
+		}
+
+		if (job.failure != null)
+		{
+			throw new IllegalStateException("Rendering tile " + job.failedTile + " failed", job.failure);
+		}
+	}
+
+	// Stop the threads once their tiles are finished, jobs still queued
+	// are not rendered
+	public void shutdown()
+	{
+		pool.shutdown();
+	}
+
+	// Gives the tile threads the fork/join work waiting for a thread
+	private static final class RenderPool extends ForkJoinPool
+	{
+		RenderPool(int threads)
+		{
+			super(threads);
+		}
+
+		ForkJoinTask<?> nextSubmission()
+		{
+			return pollSubmission();
+		}
+	}
+
+	// A job's place in the queues
+	private static final class Job
+	{
+		private final TileJob tiles;
+
+		// Tiles handed out and not yet finished
+		private int inFlight;
+
+		// No tiles left to hand out
+		private boolean drained;
+
+		// Drained and every tile finished
+		private boolean done;
+
+		// The first exception thrown by a tile and that tile, null if none
+		// failed
+		private Throwable failure;
+		private Tile failedTile;
+
+		Job(TileJob tiles)
+		{
+			this.tiles = tiles;
+		}
+	}
+
+	// One thread's loop, rendering tiles until no job has any left
+	private final class TileTask implements Runnable
+	{
+		private Job job;
+		private Tile tile;
+
+		@Override
+		public void run()
+		{
+			while (true)
+			{
+				// Hierarchy builds and tone mapping would otherwise wait
+				// until no job had tiles left
+				ForkJoinTask<?> task;
+
+				while ((task = pool.nextSubmission()) != null)
+				{
+					task.quietlyInvoke();
+				}
+
+				if (!claim())
+				{
+					return;
+				}
+
+				Throwable failure = null;
+
+				try
+				{
+					job.tiles.renderTile(tile);
+				}
+				catch (Throwable t)
+				{
+					failure = t;
+				}
+				finally
+				{
+					release(failure);
+				}
+			}
+		}
+
+		// Take the next tile into 'job' and 'tile', or stop this thread if
+		// there is none
+		private boolean claim()
+		{
+			synchronized (RenderService.this)
+			{
+				for (ArrayDeque<Job> queue : queues)
+				{
+					Job next;
+
+					while ((next = queue.poll()) != null)
+					{
+						Tile nextTile = next.failure == null ? next.tiles.nextTile() : null;
+
+						if (nextTile == null)
+						{
+							next.drained = true;
+							finishIfDone(next);
+							continue;
+						}
+
+						// To the back of the queue so the next tile is
+						// another job's
+						queue.add(next);
+
+						next.inFlight++;
+
+						job = next;
+						tile = nextTile;
+
+						return true;
+					}
+				}
+
+				activeThreads--;
+
+				return false;
+			}
+		}
+
+		// Finish the claimed tile, 'failure' being what it threw or null
+		private void release(Throwable failure)
+		{
+			synchronized (RenderService.this)
+			{
+				if (failure != null && job.failure == null)
+				{
+					job.failure = failure;
+					job.failedTile = tile;
+				}
+
+				job.inFlight--;
+				finishIfDone(job);
+			}
+		}
+	}
+
+	// Wake the caller of run() if the job is finished, called holding the
+	// lock
+	private void finishIfDone(Job job)
+	{
+		if (job.drained && job.inFlight == 0)
+		{
+			job.done = true;
+			notifyAll();
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+// Renders tile ranges for a RenderCoordinator, headless.
+//
+// Usage: RenderWorker host:port [threads]
+//
+// Connects to the coordinator and renders the ranges it sends, one at a
+// time with all local cores (or 'threads'), sending each tile back as soon
+// as it is finished. A job it can not render is reported back to the
+// coordinator, which fails it, and the worker waits for the next one.
+// Exits when the coordinator quits or goes away.
+public final class RenderWorker
+{
+	private final String host;
+	private final int port;
+	private final int threads;
+
+	public RenderWorker(String host, int port, int threads)
+	{
+		this.host = host;
+		this.port = port;
+		this.threads = threads;
+	}
+
+	public static void main(String[] args)
+	{
+		System.setProperty("java.awt.headless", "true");
+
+		if (args.length < 1 || args[0].lastIndexOf(':') < 0)
+		{
+			System.err.println("Usage: RenderWorker host:port [threads]");
+			System.exit(1);
+		}
+
+		int colon = args[0].lastIndexOf(':');
+
+		try
+		{
+			String host = args[0].substring(0, colon);
+			int port = Integer.parseInt(args[0].substring(colon + 1));
+			int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+			new RenderWorker(host, port, threads).run();
+		}
+		catch (NumberFormatException e)
+		{
+			System.err.println("Bad number: " + e.getMessage());
+			System.exit(1);
+		}
+		catch (IOException e)
+		{
+			System.err.println("Worker stopped: " + e);
+			System.exit(1);
+		}
+	}
+
+	// Returns when the coordinator says quit or closes the connection
+	public void run() throws IOException
+	{
+		JFXRay raytracer = new JFXRay();
+
+		try (Socket socket = new Socket(host, port))
+		{
+			socket.setTcpNoDelay(true);
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+			int jobId = -1;
+			RenderConfig config = null;
+
+			// Null while the job has failed here
+			TileScheduler scheduler = null;
+
+			while (true)
+			{
+				int type = in.read();
+
+				if (type == -1 || type == RenderProtocol.QUIT)
+				{
+					return;
+				}
+
+				switch (type)
+				{
+				case RenderProtocol.JOB:
+					jobId = in.readInt();
+					scheduler = null;
+
+					try
+					{
+						config = RenderProtocol.readConfig(in);
+
+						// This machine's cores, not the coordinator's
+						config.setThreads(threads);
+
+						scheduler = new TileScheduler(config.getImageWidth(), config.getImageHeight(),
+								config.getTileSize(), config.getTileOrder());
+					}
+					catch (IllegalArgumentException e)
+					{
+						jobFailed(out, jobId, e);
+					}
+					break;
+
+				case RenderProtocol.RANGE:
+					int rangeJob = in.readInt();
+					int first = in.readInt();
+					int count = in.readInt();
+
+					if (rangeJob == jobId && scheduler == null)
+					{
+						// Already reported
+						break;
+					}
+
+					if (rangeJob != jobId || first < 0 || count < 0 || first + count > scheduler.getTileCount())
+					{
+						throw new IOException("Bad range " + first + "+" + count + " for job " + rangeJob);
+					}
+
+					List<Tile> tiles = new ArrayList<>(count);
+
+					for (int i = first; i < first + count; i++)
+					{
+						tiles.add(scheduler.getTile(i));
+					}
+
+					try
+					{
+						renderRange(raytracer, config, tiles, rangeJob, out);
+					}
+					catch (RuntimeException e)
+					{
+						jobFailed(out, jobId, e);
+						scheduler = null;
+					}
+					break;
+
+				default:
+					throw new IOException("Unexpected message " + type);
+				}
+			}
+		}
+		catch (EOFException e)
+		{
+			// Coordinator went away mid message
+		}
+		finally
+		{
+			raytracer.shutdown();
+		}
+	}
+
+	private static void jobFailed(DataOutputStream out, int jobId, RuntimeException e) throws IOException
+	{
+		System.err.println("Job " + jobId + " failed: " + e);
+
+		synchronized (out)
+		{
+			RenderProtocol.writeFailure(out, jobId, e.toString());
+		}
+	}
+
+	private static void renderRange(JFXRay raytracer, RenderConfig config, List<Tile> tiles, int jobId,
+			DataOutputStream out) throws IOException
+	{
+		SocketOutput output = new SocketOutput(raytracer, jobId, out);
+
+		raytracer.render(config, tiles, output);
+
+		if (output.failure != null)
+		{
+			throw output.failure;
+		}
+	}
+
+	// Sends each tile to the coordinator as it is finished. A failed send
+	// cancels the rest of the range.
+	private static final class SocketOutput implements TileOutput
+	{
+		private final JFXRay raytracer;
+		private final int jobId;
+		private final DataOutputStream out;
+
+		// Guarded by out
+		private IOException failure;
+
+		SocketOutput(JFXRay raytracer, int jobId, DataOutputStream out)
+		{
+			this.raytracer = raytracer;
+			this.jobId = jobId;
+			this.out = out;
+		}
+
+		@Override
+		public void writeTile(Tile tile, byte[] rgb)
+		{
+			// Render threads finish tiles concurrently
+			synchronized (out)
+			{
+				if (failure != null)
+				{
+					return;
+				}
+
+				try
+				{
+					out.writeByte(RenderProtocol.TILE);
+					out.writeInt(jobId);
+					out.writeInt(tile.getX());
+					out.writeInt(tile.getY());
+					out.writeInt(tile.getWidth());
+					out.writeInt(tile.getHeight());
+					out.write(rgb, 0, tile.getWidth() * tile.getHeight() * 3);
+					out.flush();
+				}
+				catch (IOException e)
+				{
+					failure = e;
+					raytracer.cancel();
+				}
+			}
+		}
+	}
+}
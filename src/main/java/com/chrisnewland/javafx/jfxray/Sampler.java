@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// Source of the random numbers of a render, one instance per render thread.
+// Each camera ray is a sample with its own sequence of dimensions in
+// [0, 1): 0 and 1 jitter the lens, 2 and 3 the position in the pixel, 4
+// and 5 the light for the first hit, then whatever later bounces need.
+// Samplers other than RANDOM give the same numbers for the same seed,
+// pixel, sample index and dimension whichever thread renders it.
+public interface Sampler
+{
+	// Dimensions used by a camera ray before it is shaded
+	int CAMERA_DIMENSIONS = 4;
+
+	// Begin sample 'index' of the pixel at (x, y), continuing from
+	// 'dimension'
+	void startSample(int x, int y, int index, int dimension);
+
+	// The next dimension of the current sample
+	float next();
+}
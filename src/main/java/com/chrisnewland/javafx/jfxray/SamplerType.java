@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+public enum SamplerType
+{
+	// ThreadLocalRandom, not repeatable (the original sampling)
+	RANDOM,
+
+	// Independent random numbers from a hash of the seed, pixel, sample and
+	// dimension
+	PCG,
+
+	// Correlated multi-jittered samples, stratified in each pair of
+	// dimensions for any number of samples per pixel
+	STRATIFIED,
+
+	// Halton sequence, rotated per pixel
+	HALTON,
+
+	// Sobol (0,2) sequence, Owen scrambled per pixel
+	SOBOL;
+
+	// A sampler for one render thread. 'samplesPerPixel' is the most
+	// samples any pixel will take, the stratified sampler spreads its
+	// points over that many and Halton keeps a table of them.
+	public Sampler createSampler(long seed, int samplesPerPixel)
+	{
+		switch (this)
+		{
+		case PCG:
+			return new PcgSampler(seed);
+		case STRATIFIED:
+			return new StratifiedSampler(seed, samplesPerPixel);
+		case HALTON:
+			return new HaltonSampler(seed, samplesPerPixel);
+		case SOBOL:
+			return new SobolSampler(seed);
+		case RANDOM:
+		default:
+			return new RandomSampler();
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.Arrays;
+
+// A set of spheres, each with its own centre, radius and colour, held as
+// one primitive array per property so large scenes cost no objects.
+// The colour multiplies what the sphere reflects, white leaves it as the
+// original chrome. Grows as spheres are added, trim() drops the spare
+// capacity once loading is done.
+public final class Scene
+{
+	private static final int INITIAL_CAPACITY = 256;
+
+	private int size;
+
+	float[] x;
+	float[] y;
+	float[] z;
+	float[] radius;
+
+	float[] red;
+	float[] green;
+	float[] blue;
+
+	public Scene()
+	{
+		this(INITIAL_CAPACITY);
+	}
+
+	public Scene(int capacity)
+	{
+		capacity = Math.max(1, capacity);
+
+		x = new float[capacity];
+		y = new float[capacity];
+		z = new float[capacity];
+		radius = new float[capacity];
+		red = new float[capacity];
+		green = new float[capacity];
+		blue = new float[capacity];
+	}
+
+	// The unit spheres of a JFXRay pattern, '*' in 'lines' at
+	// (col, 0, row + 4) with the first line at the top and the first
+	// column at the highest x, as the grid intersection modes place them
+	public static Scene fromLines(String[] lines)
+	{
+		Scene scene = new Scene();
+
+		int rows = lines.length;
+
+		for (int r = 0; r < rows; r++)
+		{
+			int cols = lines[r].length();
+
+			for (int c = 0; c < cols; c++)
+			{
+				if (lines[r].charAt(c) == '*')
+				{
+					scene.add(cols - 1 - c, 0, rows - 1 - r + 4, 1, 1, 1, 1);
+				}
+			}
+		}
+
+		scene.trim();
+
+		return scene;
+	}
+
+	public void add(float x, float y, float z, float radius, float red, float green, float blue)
+	{
+		if (size == this.x.length)
+		{
+			int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+
+			this.x = Arrays.copyOf(this.x, capacity);
+			this.y = Arrays.copyOf(this.y, capacity);
+			this.z = Arrays.copyOf(this.z, capacity);
+			this.radius = Arrays.copyOf(this.radius, capacity);
+			this.red = Arrays.copyOf(this.red, capacity);
+			this.green = Arrays.copyOf(this.green, capacity);
+			this.blue = Arrays.copyOf(this.blue, capacity);
+		}
+
+		this.x[size] = x;
+		this.y[size] = y;
+		this.z[size] = z;
+		this.radius[size] = radius;
+		this.red[size] = red;
+		this.green[size] = green;
+		this.blue[size] = blue;
+
+		size++;
+	}
+
+	public void trim()
+	{
+		x = Arrays.copyOf(x, size);
+		y = Arrays.copyOf(y, size);
+		z = Arrays.copyOf(z, size);
+		radius = Arrays.copyOf(radius, size);
+		red = Arrays.copyOf(red, size);
+		green = Arrays.copyOf(green, size);
+		blue = Arrays.copyOf(blue, size);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public float getX(int sphere)
+	{
+		return x[sphere];
+	}
+
+	public float getY(int sphere)
+	{
+		return y[sphere];
+	}
+
+	public float getZ(int sphere)
+	{
+		return z[sphere];
+	}
+
+	public float getRadius(int sphere)
+	{
+		return radius[sphere];
+	}
+
+	public float getRed(int sphere)
+	{
+		return red[sphere];
+	}
+
+	public float getGreen(int sphere)
+	{
+		return green[sphere];
+	}
+
+	public float getBlue(int sphere)
+	{
+		return blue[sphere];
+	}
+}
@@ -0,0 +1,702 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.imageio.ImageIO;
+
+// Builds a Scene from a bitmap, one sphere per set pixel, standing upright
+// on the floor like the pattern of JFXRay's default scene. Pixel columns
+// are 'sceneWidth' / bitmap width apart and each sphere's radius is that
+// spacing, so sceneWidth=24 covers the same ground as the 24 column
+// default pattern and a bitmap of 24 pixels across gives its unit spheres.
+//
+// PBM (P1 and P4): black pixels are white (chrome) spheres.
+// PNG: every pixel that is not transparent or white is a sphere of the
+// pixel's colour, partly transparent pixels give smaller spheres.
+//
+// Both are read a row at a time, only two rows of the bitmap are held so
+// the size of the image is only limited by the number of spheres.
+// Interlaced PNGs can not be read that way and go through ImageIO.
+public final class SceneLoader
+{
+	private static final int[] PNG_SIGNATURE = new int[] { 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+	private static final int PNG_GREY = 0;
+	private static final int PNG_RGB = 2;
+	private static final int PNG_PALETTE = 3;
+	private static final int PNG_GREY_ALPHA = 4;
+	private static final int PNG_RGBA = 6;
+
+	// Pixels covering less than this give no sphere
+	private static final float MIN_COVERAGE = 0.25f;
+
+	// Channels this close to 255 are background
+	private static final int WHITE = 0xf0;
+
+	private SceneLoader()
+	{
+	}
+
+	public static Scene load(File file, float sceneWidth) throws IOException
+	{
+		Scene scene;
+
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file)))
+		{
+			scene = read(in, sceneWidth);
+		}
+
+		if (scene == null)
+		{
+			scene = readImageIO(file, sceneWidth);
+		}
+
+		scene.trim();
+
+		return scene;
+	}
+
+	// Returns null for an interlaced PNG
+	private static Scene read(InputStream in, float sceneWidth) throws IOException
+	{
+		in.mark(2);
+
+		int first = in.read();
+		int second = in.read();
+
+		in.reset();
+
+		if (first == 'P' && (second == '1' || second == '4'))
+		{
+			return readPBM(in, sceneWidth);
+		}
+
+		if (first == PNG_SIGNATURE[0] && second == PNG_SIGNATURE[1])
+		{
+			return readPNG(in, sceneWidth);
+		}
+
+		throw new IOException("Not a PBM (P1 or P4) or PNG file");
+	}
+
+	static Scene readPBM(InputStream in, float sceneWidth) throws IOException
+	{
+		in.read();
+
+		boolean binary = in.read() == '4';
+
+		int width = readHeaderInt(in);
+		int height = readHeaderInt(in);
+
+		if (width <= 0 || height <= 0)
+		{
+			throw new IOException("Bad PBM size " + width + "x" + height);
+		}
+
+		Scene scene = new Scene();
+
+		float spacing = sceneWidth / width;
+
+		byte[] packed = new byte[(width + 7) / 8];
+
+		DataInputStream data = new DataInputStream(in);
+
+		for (int row = 0; row < height; row++)
+		{
+			if (binary)
+			{
+				data.readFully(packed);
+			}
+
+			for (int column = 0; column < width; column++)
+			{
+				boolean set;
+
+				if (binary)
+				{
+					set = (packed[column >> 3] & (0x80 >>> (column & 7))) != 0;
+				}
+				else
+				{
+					set = readPlainBit(in);
+				}
+
+				if (set)
+				{
+					addSphere(scene, column, row, width, height, spacing, 1, 1, 1, 1);
+				}
+			}
+		}
+
+		return scene;
+	}
+
+	// Next decimal number in a PNM header, skipping white space and
+	// comments. Consumes the single white space character after it.
+	private static int readHeaderInt(InputStream in) throws IOException
+	{
+		int ch = in.read();
+
+		while (ch == '#' || Character.isWhitespace(ch))
+		{
+			if (ch == '#')
+			{
+				while (ch != '\n' && ch != -1)
+				{
+					ch = in.read();
+				}
+			}
+
+			ch = in.read();
+		}
+
+		if (ch < '0' || ch > '9')
+		{
+			throw new IOException("Bad PBM header");
+		}
+
+		int value = 0;
+
+		while (ch >= '0' && ch <= '9')
+		{
+			value = value * 10 + ch - '0';
+			ch = in.read();
+		}
+
+		return value;
+	}
+
+	private static boolean readPlainBit(InputStream in) throws IOException
+	{
+		while (true)
+		{
+			int ch = in.read();
+
+			switch (ch)
+			{
+			case '0':
+				return false;
+			case '1':
+				return true;
+			case '#':
+				while (ch != '\n' && ch != -1)
+				{
+					ch = in.read();
+				}
+				break;
+			case -1:
+				throw new EOFException("PBM ends early");
+			default:
+				if (!Character.isWhitespace(ch))
+				{
+					throw new IOException("Bad PBM pixel '" + (char) ch + "'");
+				}
+			}
+		}
+	}
+
+	// Returns null if the image is interlaced
+	static Scene readPNG(InputStream in, float sceneWidth) throws IOException
+	{
+		DataInputStream data = new DataInputStream(in);
+
+		for (int i = 0; i < PNG_SIGNATURE.length; i++)
+		{
+			if (data.readUnsignedByte() != PNG_SIGNATURE[i])
+			{
+				throw new IOException("Bad PNG signature");
+			}
+		}
+
+		int width = 0;
+		int height = 0;
+		int bitDepth = 0;
+		int colourType = 0;
+
+		// Palette as 0xAARRGGBB
+		int[] palette = new int[256];
+
+		// Colour of fully transparent pixels in a grey or RGB image as raw
+		// samples, or -1
+		int transparentGrey = -1;
+		int[] transparentRGB = null;
+
+		while (true)
+		{
+			int length = data.readInt();
+			String type = readChunkType(data);
+
+			switch (type)
+			{
+			case "IHDR":
+				width = data.readInt();
+				height = data.readInt();
+				bitDepth = data.readUnsignedByte();
+				colourType = data.readUnsignedByte();
+
+				int compression = data.readUnsignedByte();
+				int filter = data.readUnsignedByte();
+				int interlace = data.readUnsignedByte();
+
+				if (width <= 0 || height <= 0 || compression != 0 || filter != 0)
+				{
+					throw new IOException("Unsupported PNG");
+				}
+
+				if (interlace != 0)
+				{
+					return null;
+				}
+
+				skipFully(data, length - 13);
+				break;
+
+			case "PLTE":
+				for (int i = 0; i < Math.min(length / 3, 256); i++)
+				{
+					palette[i] = 0xff000000 | (data.readUnsignedByte() << 16) | (data.readUnsignedByte() << 8)
+							| data.readUnsignedByte();
+				}
+
+				skipFully(data, length - Math.min(length / 3, 256) * 3);
+				break;
+
+			case "tRNS":
+				if (colourType == PNG_PALETTE)
+				{
+					for (int i = 0; i < Math.min(length, 256); i++)
+					{
+						palette[i] = (palette[i] & 0xffffff) | (data.readUnsignedByte() << 24);
+					}
+
+					skipFully(data, length - Math.min(length, 256));
+				}
+				else if (colourType == PNG_GREY)
+				{
+					transparentGrey = data.readUnsignedShort();
+					skipFully(data, length - 2);
+				}
+				else if (colourType == PNG_RGB)
+				{
+					transparentRGB = new int[] { data.readUnsignedShort(), data.readUnsignedShort(),
+							data.readUnsignedShort() };
+					skipFully(data, length - 6);
+				}
+				else
+				{
+					skipFully(data, length);
+				}
+				break;
+
+			case "IDAT":
+				Scene scene = new Scene();
+
+				InputStream pixels = new InflaterInputStream(new IdatInputStream(data, length));
+
+				readPNGRows(new DataInputStream(pixels), scene, sceneWidth, width, height, bitDepth, colourType, palette,
+						transparentGrey, transparentRGB);
+
+				return scene;
+
+			case "IEND":
+				throw new IOException("PNG has no image data");
+
+			default:
+				skipFully(data, length);
+				break;
+			}
+
+			// CRC
+			data.readInt();
+		}
+	}
+
+	private static void readPNGRows(DataInputStream pixels, Scene scene, float sceneWidth, int width, int height,
+			int bitDepth, int colourType, int[] palette, int transparentGrey, int[] transparentRGB) throws IOException
+	{
+		int channels;
+
+		switch (colourType)
+		{
+		case PNG_GREY:
+		case PNG_PALETTE:
+			channels = 1;
+			break;
+		case PNG_GREY_ALPHA:
+			channels = 2;
+			break;
+		case PNG_RGB:
+			channels = 3;
+			break;
+		case PNG_RGBA:
+			channels = 4;
+			break;
+		default:
+			throw new IOException("Bad PNG colour type " + colourType);
+		}
+
+		int bitsPerPixel = channels * bitDepth;
+		int rowBytes = (int) (((long) width * bitsPerPixel + 7) / 8);
+
+		// Distance back to the same byte of the previous pixel for filtering
+		int filterStride = Math.max(1, bitsPerPixel / 8);
+
+		byte[] row = new byte[rowBytes];
+		byte[] previous = new byte[rowBytes];
+
+		float spacing = sceneWidth / width;
+
+		int maxSample = (1 << bitDepth) - 1;
+
+		for (int y = 0; y < height; y++)
+		{
+			int filterType = pixels.readUnsignedByte();
+
+			pixels.readFully(row);
+
+			unfilter(filterType, row, previous, filterStride);
+
+			for (int x = 0; x < width; x++)
+			{
+				int base = x * channels;
+
+				int red;
+				int green;
+				int blue;
+				int alpha = 255;
+
+				switch (colourType)
+				{
+				case PNG_PALETTE:
+					int entry = palette[sample(row, base, bitDepth)];
+
+					alpha = entry >>> 24;
+					red = (entry >> 16) & 0xff;
+					green = (entry >> 8) & 0xff;
+					blue = entry & 0xff;
+					break;
+
+				case PNG_GREY:
+				case PNG_GREY_ALPHA:
+					int grey = sample(row, base, bitDepth);
+
+					if (grey == transparentGrey)
+					{
+						alpha = 0;
+					}
+					else if (colourType == PNG_GREY_ALPHA)
+					{
+						alpha = to8Bit(sample(row, base + 1, bitDepth), maxSample);
+					}
+
+					red = green = blue = to8Bit(grey, maxSample);
+					break;
+
+				default:
+					int r = sample(row, base, bitDepth);
+					int g = sample(row, base + 1, bitDepth);
+					int b = sample(row, base + 2, bitDepth);
+
+					if (transparentRGB != null && r == transparentRGB[0] && g == transparentRGB[1]
+							&& b == transparentRGB[2])
+					{
+						alpha = 0;
+					}
+					else if (colourType == PNG_RGBA)
+					{
+						alpha = to8Bit(sample(row, base + 3, bitDepth), maxSample);
+					}
+
+					red = to8Bit(r, maxSample);
+					green = to8Bit(g, maxSample);
+					blue = to8Bit(b, maxSample);
+					break;
+				}
+
+				addPixel(scene, x, y, width, height, spacing, alpha, red, green, blue);
+			}
+
+			byte[] swap = previous;
+			previous = row;
+			row = swap;
+		}
+	}
+
+	// Raw value of sample 'index' of a row, samples of under 8 bits are
+	// packed high bits first
+	private static int sample(byte[] row, int index, int bitDepth)
+	{
+		switch (bitDepth)
+		{
+		case 8:
+			return row[index] & 0xff;
+		case 16:
+			return ((row[index * 2] & 0xff) << 8) | (row[index * 2 + 1] & 0xff);
+		default:
+			int bit = index * bitDepth;
+			int shift = 8 - bitDepth - (bit & 7);
+
+			return (row[bit >> 3] >> shift) & ((1 << bitDepth) - 1);
+		}
+	}
+
+	// Sample of up to 16 bits scaled to 0 .. 255, rounded
+	private static int to8Bit(int value, int maxSample)
+	{
+		return (value * 255 + maxSample / 2) / maxSample;
+	}
+
+	// Undo a PNG scanline filter in place, 'previous' is the row above
+	// already unfiltered (zeros for the first row)
+	private static void unfilter(int filterType, byte[] row, byte[] previous, int stride) throws IOException
+	{
+		int length = row.length;
+
+		switch (filterType)
+		{
+		case 0:
+			break;
+
+		case 1:
+			for (int i = stride; i < length; i++)
+			{
+				row[i] += row[i - stride];
+			}
+			break;
+
+		case 2:
+			for (int i = 0; i < length; i++)
+			{
+				row[i] += previous[i];
+			}
+			break;
+
+		case 3:
+			for (int i = 0; i < length; i++)
+			{
+				int left = i >= stride ? row[i - stride] & 0xff : 0;
+
+				row[i] += (left + (previous[i] & 0xff)) >>> 1;
+			}
+			break;
+
+		case 4:
+			for (int i = 0; i < length; i++)
+			{
+				int left = i >= stride ? row[i - stride] & 0xff : 0;
+				int up = previous[i] & 0xff;
+				int upLeft = i >= stride ? previous[i - stride] & 0xff : 0;
+
+				int estimate = left + up - upLeft;
+
+				int distanceLeft = Math.abs(estimate - left);
+				int distanceUp = Math.abs(estimate - up);
+				int distanceUpLeft = Math.abs(estimate - upLeft);
+
+				if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft)
+				{
+					row[i] += left;
+				}
+				else if (distanceUp <= distanceUpLeft)
+				{
+					row[i] += up;
+				}
+				else
+				{
+					row[i] += upLeft;
+				}
+			}
+			break;
+
+		default:
+			throw new IOException("Bad PNG filter " + filterType);
+		}
+	}
+
+	private static Scene readImageIO(File file, float sceneWidth) throws IOException
+	{
+		BufferedImage image = ImageIO.read(file);
+
+		if (image == null)
+		{
+			throw new IOException("Can not read " + file);
+		}
+
+		int width = image.getWidth();
+		int height = image.getHeight();
+
+		Scene scene = new Scene();
+
+		float spacing = sceneWidth / width;
+
+		// getRGB() would convert grey from linear, PNG grey is already sRGB
+		boolean grey = image.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_GRAY;
+
+		Raster raster = image.getRaster();
+
+		int maxGrey = (1 << image.getColorModel().getComponentSize(0)) - 1;
+		int maxAlpha = image.getColorModel().hasAlpha() ? (1 << image.getColorModel().getComponentSize(1)) - 1 : 0;
+
+		int[] argb = new int[width];
+
+		for (int y = 0; y < height; y++)
+		{
+			image.getRGB(0, y, width, 1, argb, 0, width);
+
+			for (int x = 0; x < width; x++)
+			{
+				int pixel = argb[x];
+
+				if (grey)
+				{
+					int value = to8Bit(raster.getSample(x, y, 0), maxGrey);
+					int alpha = maxAlpha > 0 ? to8Bit(raster.getSample(x, y, 1), maxAlpha) : 255;
+
+					addPixel(scene, x, y, width, height, spacing, alpha, value, value, value);
+				}
+				else
+				{
+					addPixel(scene, x, y, width, height, spacing, pixel >>> 24, (pixel >> 16) & 0xff,
+							(pixel >> 8) & 0xff, pixel & 0xff);
+				}
+			}
+		}
+
+		return scene;
+	}
+
+	// A sphere for a colour pixel unless it is background
+	private static void addPixel(Scene scene, int x, int y, int width, int height, float spacing, int alpha, int red,
+			int green, int blue)
+	{
+		if (red >= WHITE && green >= WHITE && blue >= WHITE)
+		{
+			return;
+		}
+
+		float coverage = alpha / 255f;
+
+		if (coverage >= MIN_COVERAGE)
+		{
+			addSphere(scene, x, y, width, height, spacing, coverage, red / 255f, green / 255f, blue / 255f);
+		}
+	}
+
+	// The first row of the bitmap is the top and its first column the
+	// highest x, as for the pattern lines. The sphere's cross section is in
+	// proportion to the pixel's coverage.
+	private static void addSphere(Scene scene, int x, int y, int width, int height, float spacing, float coverage,
+			float red, float green, float blue)
+	{
+		scene.add((width - 1 - x) * spacing, 0, (height - 1 - y) * spacing + 4, spacing * (float) Math.sqrt(coverage),
+				red, green, blue);
+	}
+
+	private static String readChunkType(DataInputStream data) throws IOException
+	{
+		char[] type = new char[4];
+
+		for (int i = 0; i < type.length; i++)
+		{
+			type[i] = (char) data.readUnsignedByte();
+		}
+
+		return new String(type);
+	}
+
+	private static void skipFully(DataInputStream data, int length) throws IOException
+	{
+		if (length < 0)
+		{
+			throw new IOException("Bad PNG chunk length");
+		}
+
+		while (length > 0)
+		{
+			int skipped = data.skipBytes(length);
+
+			if (skipped <= 0)
+			{
+				throw new EOFException("PNG ends early");
+			}
+
+			length -= skipped;
+		}
+	}
+
+	// The data of consecutive IDAT chunks as one stream, ends at the first
+	// other chunk
+	private static final class IdatInputStream extends InputStream
+	{
+		private final DataInputStream data;
+
+		// Bytes left in the current chunk, -1 after the last one
+		private int remaining;
+
+		IdatInputStream(DataInputStream data, int length)
+		{
+			this.data = data;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			byte[] one = new byte[1];
+
+			return read(one, 0, 1) == 1 ? one[0] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException
+		{
+			while (remaining == 0)
+			{
+				// CRC then the next chunk header
+				data.readInt();
+
+				int next = data.readInt();
+
+				if (!"IDAT".equals(readChunkType(data)))
+				{
+					remaining = -1;
+				}
+				else
+				{
+					remaining = next;
+				}
+			}
+
+			if (remaining < 0)
+			{
+				return -1;
+			}
+
+			int count = data.read(buffer, offset, Math.min(length, remaining));
+
+			if (count < 0)
+			{
+				throw new EOFException("PNG ends early");
+			}
+
+			remaining -= count;
+
+			return count;
+		}
+	}
+}
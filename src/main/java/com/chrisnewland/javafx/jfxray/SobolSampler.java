@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// The two dimensional Sobol (0,2) sequence for each of the first three
+// pairs of dimensions (lens, pixel and light). Each pixel and pair
+// shuffles the sample order and Owen scrambles the points with a hash
+// (Burley, Practical Hash-based Owen Scrambling), so the pairs are not
+// correlated with each other and neighbouring pixels differ, while every
+// power of two block of samples keeps the stratification of the sequence.
+public final class SobolSampler extends PcgSampler
+{
+	private static final int DIMENSIONS = 6;
+
+	// reversedSobol2 of each byte of the index, by byte position
+	private static final int[] SOBOL2_BYTES = sobol2Bytes();
+
+	// Scramble seeds of the current pixel for each pair
+	private final int[] scrambles = new int[DIMENSIONS / 2];
+
+	// Second dimension of the current pair, worked out with the first.
+	// Samples always start on the first dimension of a pair.
+	private float pairY;
+
+	public SobolSampler(long seed)
+	{
+		super(seed);
+	}
+
+	@Override
+	protected void startPixel()
+	{
+		for (int pair = 0; pair < scrambles.length; pair++)
+		{
+			scrambles[pair] = hash(pixelHash + pair * 0x68bc21eb);
+		}
+	}
+
+	@Override
+	public float next()
+	{
+		int d = dimension++;
+
+		if (d >= DIMENSIONS)
+		{
+			return random(d);
+		}
+
+		if ((d & 1) != 0)
+		{
+			return pairY;
+		}
+
+		int scramble = scrambles[d >> 1];
+
+		// Owen scrambling works on reversed bits, the sequence is built
+		// reversed too so fewer reversals are needed
+		int reversedIndex = laineKarras(Integer.reverse(index), scramble);
+		int i = Integer.reverse(reversedIndex);
+
+		pairY = toFloat(Integer.reverse(laineKarras(reversedSobol2(i), scramble * 0x2c1b3c6d)));
+
+		// The first dimension reversed is the index itself
+		return toFloat(Integer.reverse(laineKarras(i, scramble * 0x297a2d39)));
+	}
+
+	// Second dimension of the Sobol sequence with its bits reversed. The
+	// generator matrix is linear so it is the XOR of one table entry for
+	// each byte of 'i', scrambled indices use all 32 bits.
+	static int reversedSobol2(int i)
+	{
+		return SOBOL2_BYTES[i & 0xff] ^ SOBOL2_BYTES[256 + ((i >>> 8) & 0xff)]
+				^ SOBOL2_BYTES[512 + ((i >>> 16) & 0xff)] ^ SOBOL2_BYTES[768 + (i >>> 24)];
+	}
+
+	private static int[] sobol2Bytes()
+	{
+		int[] columns = new int[32];
+
+		for (int bit = 0, v = 1; bit < 32; bit++, v ^= v << 1)
+		{
+			columns[bit] = v;
+		}
+
+		int[] table = new int[4 * 256];
+
+		for (int i = 0; i < table.length; i++)
+		{
+			int base = (i >> 8) * 8;
+
+			for (int bit = 0; bit < 8; bit++)
+			{
+				if ((i & (1 << bit)) != 0)
+				{
+					table[i] ^= columns[base + bit];
+				}
+			}
+		}
+
+		return table;
+	}
+
+	// Random permutation of 32 bits where each bit depends only on 'seed'
+	// and the bits below it (Laine and Karras). Applied to reversed bits it
+	// is a nested uniform (Owen) scramble.
+	static int laineKarras(int x, int seed)
+	{
+		x += seed;
+		x ^= x * 0x6c50b47c;
+		x ^= x * 0xb82f1e52;
+		x ^= x * 0xc7afe638;
+		x ^= x * 0x8d22f6e6;
+
+		return x;
+	}
+}
@@ -0,0 +1,782 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Bounding volume hierarchy over the spheres of a Scene so a ray tests a
+// number of spheres that grows with the log of the scene size rather than
+// every sphere.
+// Built top down with the surface area heuristic over binned sphere
+// centres, subtrees are built in parallel on the given pool. The tree is
+// then flattened into one array per node field in depth first order: an
+// interior node's first child follows it and 'offset' gives the second,
+// a leaf's spheres are 'offset' .. 'offset' + 'count' - 1 of the spheres
+// reordered into leaf order.
+// Traversal uses the caller's HitRecord stack so it allocates nothing and
+// visits the child on the near side of the split axis first.
+public final class SphereBvh
+{
+	// Deepest tree built, deeper ranges are left as large leaves. Also the
+	// traversal stack size, a stack never holds more than one entry per
+	// level.
+	static final int MAX_DEPTH = 64;
+
+	private static final int BINS = 16;
+
+	// Spheres per leaf when the heuristic can not find a useful split
+	private static final int MAX_LEAF = 4;
+
+	// Cost of visiting a node relative to testing a sphere
+	private static final float TRAVERSAL_COST = 0.5f;
+
+	// Ranges smaller than this are built on the current thread
+	private static final int PARALLEL_THRESHOLD = 8192;
+
+	// Smallest direction component the slab tests divide by
+	private static final float MIN_DIRECTION = 1e-20f;
+
+	// Node bounds
+	private final float[] minX;
+	private final float[] minY;
+	private final float[] minZ;
+	private final float[] maxX;
+	private final float[] maxY;
+	private final float[] maxZ;
+
+	// First sphere of a leaf or second child of an interior node
+	private final int[] offset;
+
+	// Spheres in a leaf, 0 for an interior node
+	private final int[] count;
+
+	// Split axis of an interior node, 0 x, 1 y, 2 z
+	private final byte[] axis;
+
+	private final int nodeCount;
+	private final int depth;
+
+	// The scene's spheres in leaf order
+	private final Scene spheres;
+
+	private final float[] sphereX;
+	private final float[] sphereY;
+	private final float[] sphereZ;
+	private final float[] sphereRadius;
+
+	private final long buildMillis;
+
+	private SphereBvh(Scene scene, ForkJoinPool pool)
+	{
+		long start = System.currentTimeMillis();
+
+		int size = scene.size();
+
+		int[] order = new int[size];
+
+		for (int i = 0; i < size; i++)
+		{
+			order[i] = i;
+		}
+
+		BuildNode root = size == 0 ? null : pool.invoke(new BuildTask(scene, order, 0, size, 0));
+
+		nodeCount = root == null ? 0 : root.nodes;
+		depth = root == null ? 0 : root.depth;
+
+		minX = new float[nodeCount];
+		minY = new float[nodeCount];
+		minZ = new float[nodeCount];
+		maxX = new float[nodeCount];
+		maxY = new float[nodeCount];
+		maxZ = new float[nodeCount];
+		offset = new int[nodeCount];
+		count = new int[nodeCount];
+		axis = new byte[nodeCount];
+
+		if (root != null)
+		{
+			flatten(root, 0);
+		}
+
+		spheres = new Scene(size);
+
+		for (int i = 0; i < size; i++)
+		{
+			int sphere = order[i];
+
+			spheres.add(scene.x[sphere], scene.y[sphere], scene.z[sphere], scene.radius[sphere], scene.red[sphere],
+					scene.green[sphere], scene.blue[sphere]);
+		}
+
+		sphereX = spheres.x;
+		sphereY = spheres.y;
+		sphereZ = spheres.z;
+		sphereRadius = spheres.radius;
+
+		buildMillis = System.currentTimeMillis() - start;
+	}
+
+	public static SphereBvh build(Scene scene, ForkJoinPool pool)
+	{
+		return new SphereBvh(scene, pool);
+	}
+
+	// Write 'node' and its subtree from array index 'index', returns the
+	// index after the subtree
+	private int flatten(BuildNode node, int index)
+	{
+		minX[index] = node.minX;
+		minY[index] = node.minY;
+		minZ[index] = node.minZ;
+		maxX[index] = node.maxX;
+		maxY[index] = node.maxY;
+		maxZ[index] = node.maxZ;
+
+		if (node.left == null)
+		{
+			offset[index] = node.start;
+			count[index] = node.count;
+
+			return index + 1;
+		}
+
+		axis[index] = (byte) node.axis;
+
+		int second = flatten(node.left, index + 1);
+
+		offset[index] = second;
+
+		return flatten(node.right, second);
+	}
+
+	// Closest sphere along the ray nearer than hit.t and further than .01.
+	// Records it in 'hit' like a grid test, with hit.sphere its index in
+	// getSpheres(), and returns true if there was one.
+	boolean intersect(float ox, float oy, float oz, float dx, float dy, float dz, HitRecord hit)
+	{
+		if (nodeCount == 0)
+		{
+			return false;
+		}
+
+		float invX = inverse(dx);
+		float invY = inverse(dy);
+		float invZ = inverse(dz);
+
+		int[] stack = hit.stack;
+		int top = 0;
+
+		int node = 0;
+
+		int closest = -1;
+
+		while (true)
+		{
+			if (enters(node, ox, oy, oz, invX, invY, invZ, hit.t))
+			{
+				int leafCount = count[node];
+
+				if (leafCount == 0)
+				{
+					int second = offset[node];
+
+					// Near child first so the far one is often culled by the
+					// hit found in the near one
+					if (directionSign(axis[node], dx, dy, dz) < 0)
+					{
+						stack[top++] = node + 1;
+						node = second;
+					}
+					else
+					{
+						stack[top++] = second;
+						node = node + 1;
+					}
+
+					continue;
+				}
+
+				int first = offset[node];
+
+				for (int sphere = first; sphere < first + leafCount; sphere++)
+				{
+					hit.sphereTests++;
+
+					float s = intersectSphere(ox, oy, oz, dx, dy, dz, sphere);
+
+					if (s < hit.t && s > .01)
+					{
+						hit.t = s;
+						closest = sphere;
+					}
+				}
+			}
+
+			if (top == 0)
+			{
+				break;
+			}
+
+			node = stack[--top];
+		}
+
+		return recordHit(ox, oy, oz, dx, dy, dz, closest, hit);
+	}
+
+	// intersect() over only the first 'candidateCount' spheres in
+	// 'candidates', as gathered by cull() for a tile whose rays can hit no
+	// others
+	boolean intersect(float ox, float oy, float oz, float dx, float dy, float dz, int[] candidates,
+			int candidateCount, HitRecord hit)
+	{
+		int closest = -1;
+
+		for (int i = 0; i < candidateCount; i++)
+		{
+			int sphere = candidates[i];
+
+			hit.sphereTests++;
+
+			float s = intersectSphere(ox, oy, oz, dx, dy, dz, sphere);
+
+			if (s < hit.t && s > .01)
+			{
+				hit.t = s;
+				closest = sphere;
+			}
+		}
+
+		return recordHit(ox, oy, oz, dx, dy, dz, closest, hit);
+	}
+
+	// Record the hit on sphere 'closest' at hit.t, returns false if there
+	// was none
+	private boolean recordHit(float ox, float oy, float oz, float dx, float dy, float dz, int closest, HitRecord hit)
+	{
+		if (closest < 0)
+		{
+			return false;
+		}
+
+		float t = hit.t;
+
+		float nx = (ox - sphereX[closest]) + dx * t;
+		float ny = (oy - sphereY[closest]) + dy * t;
+		float nz = (oz - sphereZ[closest]) + dz * t;
+
+		float factor = 1f / (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+
+		hit.nx = nx * factor;
+		hit.ny = ny * factor;
+		hit.nz = nz * factor;
+		hit.material = HitRecord.MATERIAL_SPHERE;
+		hit.sphere = closest;
+
+		return true;
+	}
+
+	// True as soon as any sphere is found along the ray between .01 and
+	// 'maxDistance'
+	boolean occluded(float ox, float oy, float oz, float dx, float dy, float dz, float maxDistance, HitRecord hit)
+	{
+		if (nodeCount == 0)
+		{
+			return false;
+		}
+
+		float invX = inverse(dx);
+		float invY = inverse(dy);
+		float invZ = inverse(dz);
+
+		int[] stack = hit.stack;
+		int top = 0;
+
+		int node = 0;
+
+		while (true)
+		{
+			if (enters(node, ox, oy, oz, invX, invY, invZ, maxDistance))
+			{
+				int leafCount = count[node];
+
+				if (leafCount == 0)
+				{
+					stack[top++] = offset[node];
+					node = node + 1;
+					continue;
+				}
+
+				int first = offset[node];
+
+				for (int sphere = first; sphere < first + leafCount; sphere++)
+				{
+					hit.sphereTests++;
+
+					float s = intersectSphere(ox, oy, oz, dx, dy, dz, sphere);
+
+					if (s < maxDistance && s > .01)
+					{
+						return true;
+					}
+				}
+			}
+
+			if (top == 0)
+			{
+				return false;
+			}
+
+			node = stack[--top];
+		}
+	}
+
+	// Gather the spheres inside 'frustum' into 'candidates' in leaf order.
+	// Returns how many there are, or -1 as soon as there are more than
+	// 'candidates' can hold. 'stack' is traversal scratch.
+	int cull(TileFrustum frustum, int[] candidates, int[] stack)
+	{
+		if (nodeCount == 0)
+		{
+			return 0;
+		}
+
+		int found = 0;
+
+		int top = 0;
+
+		int node = 0;
+
+		while (true)
+		{
+			if (frustum.intersectsBox(minX[node], minY[node], minZ[node], maxX[node], maxY[node], maxZ[node]))
+			{
+				int leafCount = count[node];
+
+				if (leafCount == 0)
+				{
+					stack[top++] = offset[node];
+					node = node + 1;
+					continue;
+				}
+
+				int first = offset[node];
+
+				for (int sphere = first; sphere < first + leafCount; sphere++)
+				{
+					if (frustum.intersectsSphere(sphereX[sphere], sphereY[sphere], sphereZ[sphere], sphereRadius[sphere]))
+					{
+						if (found == candidates.length)
+						{
+							return -1;
+						}
+
+						candidates[found++] = sphere;
+					}
+				}
+			}
+
+			if (top == 0)
+			{
+				return found;
+			}
+
+			node = stack[--top];
+		}
+	}
+
+	// 1 / d for the slab tests of enters(). A zero component is replaced by
+	// a tiny one of the same sign, otherwise a ray parallel to an axis that
+	// starts on a box's plane would work out 0 * infinity = NaN there and
+	// miss the box.
+	private static float inverse(float d)
+	{
+		return 1 / (d == 0 ? Math.copySign(MIN_DIRECTION, d) : d);
+	}
+
+	// Does the ray pass through the node's box before 'maxDistance'
+	private boolean enters(int node, float ox, float oy, float oz, float invX, float invY, float invZ, float maxDistance)
+	{
+		float x0 = (minX[node] - ox) * invX;
+		float x1 = (maxX[node] - ox) * invX;
+		float y0 = (minY[node] - oy) * invY;
+		float y1 = (maxY[node] - oy) * invY;
+		float z0 = (minZ[node] - oz) * invZ;
+		float z1 = (maxZ[node] - oz) * invZ;
+
+		float near = Math.max(Math.max(Math.min(x0, x1), Math.min(y0, y1)), Math.max(Math.min(z0, z1), 0));
+		float far = Math.min(Math.min(Math.max(x0, x1), Math.max(y0, y1)), Math.min(Math.max(z0, z1), maxDistance));
+
+		return near <= far;
+	}
+
+	private static float directionSign(int axis, float dx, float dy, float dz)
+	{
+		return axis == 0 ? dx : (axis == 1 ? dy : dz);
+	}
+
+	// Distance along the ray to the near side of the sphere, as JFXRay's
+	// unit sphere test, or infinity if the ray misses it
+	private float intersectSphere(float ox, float oy, float oz, float dx, float dy, float dz, int sphere)
+	{
+		float px = ox - sphereX[sphere];
+		float py = oy - sphereY[sphere];
+		float pz = oz - sphereZ[sphere];
+
+		float r = sphereRadius[sphere];
+
+		float b = px * dx + py * dy + pz * dz;
+		float c = (px * px + py * py + pz * pz) - r * r;
+		float q = b * b - c;
+
+		if (q > 0)
+		{
+			return -b - (float) Math.sqrt(q);
+		}
+
+		return Float.POSITIVE_INFINITY;
+	}
+
+	// The spheres in the order hit.sphere indexes them
+	public Scene getSpheres()
+	{
+		return spheres;
+	}
+
+	// Bounds of every sphere as minX, minY, minZ, maxX, maxY, maxZ, null
+	// for an empty scene
+	float[] getBounds()
+	{
+		if (nodeCount == 0)
+		{
+			return null;
+		}
+
+		return new float[] { minX[0], minY[0], minZ[0], maxX[0], maxY[0], maxZ[0] };
+	}
+
+	public int getNodeCount()
+	{
+		return nodeCount;
+	}
+
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	public long getBuildMillis()
+	{
+		return buildMillis;
+	}
+
+	// Bytes held by the nodes and reordered spheres
+	public long getMemoryBytes()
+	{
+		return nodeCount * (6L * 4 + 4 + 4 + 1) + spheres.size() * 7L * 4;
+	}
+
+	// A node of the tree being built, flattened once the whole tree is done
+	private static final class BuildNode
+	{
+		float minX;
+		float minY;
+		float minZ;
+		float maxX;
+		float maxY;
+		float maxZ;
+
+		// Leaf range of the order array
+		int start;
+		int count;
+
+		int axis;
+		BuildNode left;
+		BuildNode right;
+
+		// Nodes and levels in this subtree
+		int nodes = 1;
+		int depth = 1;
+	}
+
+	// Builds the subtree for order[start .. end - 1], reordering that range
+	// so each leaf's spheres are contiguous
+	private static final class BuildTask extends RecursiveTask<BuildNode>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Scene scene;
+		private final int[] order;
+		private final int start;
+		private final int end;
+		private final int level;
+
+		BuildTask(Scene scene, int[] order, int start, int end, int level)
+		{
+			this.scene = scene;
+			this.order = order;
+			this.start = start;
+			this.end = end;
+			this.level = level;
+		}
+
+		@Override
+		protected BuildNode compute()
+		{
+			return build(start, end, level);
+		}
+
+		private BuildNode build(int start, int end, int level)
+		{
+			BuildNode node = new BuildNode();
+
+			float[] x = scene.x;
+			float[] y = scene.y;
+			float[] z = scene.z;
+			float[] radius = scene.radius;
+
+			node.minX = node.minY = node.minZ = Float.POSITIVE_INFINITY;
+			node.maxX = node.maxY = node.maxZ = Float.NEGATIVE_INFINITY;
+
+			float centreMinX = Float.POSITIVE_INFINITY;
+			float centreMinY = Float.POSITIVE_INFINITY;
+			float centreMinZ = Float.POSITIVE_INFINITY;
+			float centreMaxX = Float.NEGATIVE_INFINITY;
+			float centreMaxY = Float.NEGATIVE_INFINITY;
+			float centreMaxZ = Float.NEGATIVE_INFINITY;
+
+			for (int i = start; i < end; i++)
+			{
+				int sphere = order[i];
+
+				float r = radius[sphere];
+
+				node.minX = Math.min(node.minX, x[sphere] - r);
+				node.minY = Math.min(node.minY, y[sphere] - r);
+				node.minZ = Math.min(node.minZ, z[sphere] - r);
+				node.maxX = Math.max(node.maxX, x[sphere] + r);
+				node.maxY = Math.max(node.maxY, y[sphere] + r);
+				node.maxZ = Math.max(node.maxZ, z[sphere] + r);
+
+				centreMinX = Math.min(centreMinX, x[sphere]);
+				centreMinY = Math.min(centreMinY, y[sphere]);
+				centreMinZ = Math.min(centreMinZ, z[sphere]);
+				centreMaxX = Math.max(centreMaxX, x[sphere]);
+				centreMaxY = Math.max(centreMaxY, y[sphere]);
+				centreMaxZ = Math.max(centreMaxZ, z[sphere]);
+			}
+
+			int size = end - start;
+
+			node.start = start;
+			node.count = size;
+
+			if (size <= 1 || level >= MAX_DEPTH - 1)
+			{
+				return node;
+			}
+
+			// Bin the centres along the widest axis
+			float extentX = centreMaxX - centreMinX;
+			float extentY = centreMaxY - centreMinY;
+			float extentZ = centreMaxZ - centreMinZ;
+
+			int splitAxis = extentX >= extentY && extentX >= extentZ ? 0 : (extentY >= extentZ ? 1 : 2);
+
+			float[] centres = splitAxis == 0 ? x : (splitAxis == 1 ? y : z);
+			float centreMin = splitAxis == 0 ? centreMinX : (splitAxis == 1 ? centreMinY : centreMinZ);
+			float extent = splitAxis == 0 ? extentX : (splitAxis == 1 ? extentY : extentZ);
+
+			int mid;
+
+			if (extent <= 0)
+			{
+				// Every centre in one place, no split separates them
+				if (size <= MAX_LEAF)
+				{
+					return node;
+				}
+
+				mid = start + size / 2;
+			}
+			else
+			{
+				int[] binCount = new int[BINS];
+				float[] binBounds = new float[BINS * 6];
+
+				for (int bin = 0; bin < BINS; bin++)
+				{
+					emptyBounds(binBounds, bin * 6);
+				}
+
+				float binScale = BINS / extent;
+
+				for (int i = start; i < end; i++)
+				{
+					int sphere = order[i];
+
+					int bin = Math.min(BINS - 1, (int) ((centres[sphere] - centreMin) * binScale));
+
+					binCount[bin]++;
+
+					float r = radius[sphere];
+
+					grow(binBounds, bin * 6, x[sphere] - r, y[sphere] - r, z[sphere] - r, x[sphere] + r, y[sphere] + r,
+							z[sphere] + r);
+				}
+
+				// Area and count left of each boundary, swept from the left
+				float[] leftArea = new float[BINS - 1];
+				int[] leftCount = new int[BINS - 1];
+
+				float[] sweep = new float[6];
+				emptyBounds(sweep, 0);
+
+				int swept = 0;
+
+				for (int bin = 0; bin < BINS - 1; bin++)
+				{
+					grow(sweep, 0, binBounds, bin * 6);
+					swept += binCount[bin];
+
+					leftArea[bin] = area(sweep);
+					leftCount[bin] = swept;
+				}
+
+				emptyBounds(sweep, 0);
+				swept = 0;
+
+				float bestCost = Float.POSITIVE_INFINITY;
+				int bestBoundary = -1;
+
+				for (int bin = BINS - 1; bin > 0; bin--)
+				{
+					grow(sweep, 0, binBounds, bin * 6);
+					swept += binCount[bin];
+
+					int left = leftCount[bin - 1];
+
+					if (left == 0 || swept == 0)
+					{
+						continue;
+					}
+
+					float cost = leftArea[bin - 1] * left + area(sweep) * swept;
+
+					if (cost < bestCost)
+					{
+						bestCost = cost;
+						bestBoundary = bin;
+					}
+				}
+
+				float nodeArea = area(node.minX, node.minY, node.minZ, node.maxX, node.maxY, node.maxZ);
+
+				float splitCost = TRAVERSAL_COST + (nodeArea > 0 ? bestCost / nodeArea : 0);
+
+				if (bestBoundary < 0 || (size <= MAX_LEAF && splitCost >= size))
+				{
+					if (size <= MAX_LEAF)
+					{
+						return node;
+					}
+
+					mid = start + size / 2;
+				}
+				else
+				{
+					// Spheres in bins below the boundary go first
+					int low = start;
+					int high = end - 1;
+
+					while (low <= high)
+					{
+						int bin = Math.min(BINS - 1, (int) ((centres[order[low]] - centreMin) * binScale));
+
+						if (bin < bestBoundary)
+						{
+							low++;
+						}
+						else
+						{
+							int swap = order[low];
+							order[low] = order[high];
+							order[high] = swap;
+							high--;
+						}
+					}
+
+					mid = low;
+				}
+			}
+
+			node.axis = splitAxis;
+
+			if (size >= PARALLEL_THRESHOLD)
+			{
+				BuildTask leftTask = new BuildTask(scene, order, start, mid, level + 1);
+				leftTask.fork();
+
+				node.right = build(mid, end, level + 1);
+				node.left = leftTask.join();
+			}
+			else
+			{
+				node.left = build(start, mid, level + 1);
+				node.right = build(mid, end, level + 1);
+			}
+
+			node.nodes = 1 + node.left.nodes + node.right.nodes;
+			node.depth = 1 + Math.max(node.left.depth, node.right.depth);
+
+			return node;
+		}
+
+		private static void emptyBounds(float[] bounds, int index)
+		{
+			bounds[index] = bounds[index + 1] = bounds[index + 2] = Float.POSITIVE_INFINITY;
+			bounds[index + 3] = bounds[index + 4] = bounds[index + 5] = Float.NEGATIVE_INFINITY;
+		}
+
+		private static void grow(float[] bounds, int index, float minX, float minY, float minZ, float maxX,
+				float maxY, float maxZ)
+		{
+			bounds[index] = Math.min(bounds[index], minX);
+			bounds[index + 1] = Math.min(bounds[index + 1], minY);
+			bounds[index + 2] = Math.min(bounds[index + 2], minZ);
+			bounds[index + 3] = Math.max(bounds[index + 3], maxX);
+			bounds[index + 4] = Math.max(bounds[index + 4], maxY);
+			bounds[index + 5] = Math.max(bounds[index + 5], maxZ);
+		}
+
+		private static void grow(float[] bounds, int index, float[] other, int otherIndex)
+		{
+			grow(bounds, index, other[otherIndex], other[otherIndex + 1], other[otherIndex + 2], other[otherIndex + 3],
+					other[otherIndex + 4], other[otherIndex + 5]);
+		}
+
+		private static float area(float[] bounds)
+		{
+			return area(bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
+		}
+
+		// Surface area, 0 for empty bounds
+		private static float area(float minX, float minY, float minZ, float maxX, float maxY, float maxZ)
+		{
+			float width = maxX - minX;
+			float height = maxY - minY;
+			float depth = maxZ - minZ;
+
+			if (width < 0 || height < 0 || depth < 0)
+			{
+				return 0;
+			}
+
+			return 2 * (width * height + height * depth + depth * width);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// Correlated multi-jittered sampling (Kensler, Pixar technical memo 13-01)
+// for the first three pairs of dimensions: the samples of a pixel fall in
+// separate cells of an m x n grid and in separate rows and columns of an
+// N x N grid, for any sample count N. Each pixel and pair gets its own
+// permutation.
+public final class StratifiedSampler extends PcgSampler
+{
+	private static final int DIMENSIONS = 6;
+
+	private final int samples;
+	private final int m;
+	private final int n;
+
+	// Second dimension of the current pair, worked out with the first.
+	// Samples always start on the first dimension of a pair.
+	private float pairY;
+
+	// Permutation seeds of the current pixel for each pair
+	private final int[] pairSeeds = new int[DIMENSIONS / 2];
+
+	public StratifiedSampler(long seed, int samplesPerPixel)
+	{
+		super(seed);
+
+		samples = Math.max(1, samplesPerPixel);
+		m = (int) Math.ceil(Math.sqrt(samples));
+		n = (samples + m - 1) / m;
+	}
+
+	@Override
+	protected void startPixel()
+	{
+		for (int pair = 0; pair < pairSeeds.length; pair++)
+		{
+			pairSeeds[pair] = hash(pixelHash + pair * 0x9e3779b9);
+		}
+	}
+
+	@Override
+	public float next()
+	{
+		int d = dimension++;
+
+		if (d >= DIMENSIONS)
+		{
+			return random(d);
+		}
+
+		if ((d & 1) != 0)
+		{
+			return pairY;
+		}
+
+		int p = pairSeeds[d >> 1];
+
+		int s = permute(index % samples, samples, p * 0x51633e2d);
+
+		int sx = permute(s % m, m, p * 0x68bc21eb);
+		int sy = permute(s / m, n, p * 0x02e5be93);
+
+		float jx = randomFloat(s, p * 0x967a889b);
+		float jy = randomFloat(s, p * 0x368cc8b7);
+
+		pairY = Math.min((s + jy) / samples, 0x1.fffffep-1f);
+
+		return Math.min((sx + (sy + jx) / n) / m, 0x1.fffffep-1f);
+	}
+
+	// Element i of a pseudo random permutation of 0 .. l - 1 picked by p
+	static int permute(int i, int l, int p)
+	{
+		int w = l - 1;
+
+		w |= w >>> 1;
+		w |= w >>> 2;
+		w |= w >>> 4;
+		w |= w >>> 8;
+		w |= w >>> 16;
+
+		do
+		{
+			i ^= p;
+			i *= 0xe170893d;
+			i ^= p >>> 16;
+			i ^= (i & w) >>> 4;
+			i ^= p >>> 8;
+			i *= 0x0929eb3f;
+			i ^= p >>> 23;
+			i ^= (i & w) >>> 1;
+			i *= 1 | p >>> 27;
+			i *= 0x6935fa69;
+			i ^= (i & w) >>> 11;
+			i *= 0x74dcb303;
+			i ^= (i & w) >>> 2;
+			i *= 0x9e501cc3;
+			i ^= (i & w) >>> 2;
+			i *= 0xc860a3df;
+			i &= w;
+			i ^= i >>> 5;
+		}
+		while (i >= l);
+
+		return (int) (((i + p) & 0xffffffffL) % l);
+	}
+
+	// Pseudo random float in [0, 1) for i picked by p
+	static float randomFloat(int i, int p)
+	{
+		i ^= p;
+		i ^= i >>> 17;
+		i ^= i >>> 10;
+		i *= 0xb36534e5;
+		i ^= i >>> 12;
+		i ^= i >>> 21;
+		i *= 0x93fc4795;
+		i ^= 0xdf6e307f;
+		i ^= i >>> 17;
+		i *= 1 | p >>> 18;
+
+		return (i & 0xffffffffL) * (1.0f / 4294967808.0f);
+	}
+}
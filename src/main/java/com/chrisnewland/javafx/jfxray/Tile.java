@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// A rectangle of the output image in buffer coordinates (x right, y down
+// from the top left corner of the image)
+public final class Tile
+{
+	private final int x;
+	private final int y;
+	private final int width;
+	private final int height;
+
+	public Tile(int x, int y, int width, int height)
+	{
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+	}
+
+	public int getX()
+	{
+		return x;
+	}
+
+	public int getY()
+	{
+		return y;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	public String toString()
+	{
+		return x + "," + y + " " + width + "x" + height;
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// The space the camera rays of one tile can pass through, used to cull the
+// spheres a tile's primary rays need to test.
+// A camera ray runs from a point on the lens (the ray origin jittered by up
+// to half the lens size along the camera's A and B vectors) through a
+// point on the focal plane inside the tile's pixels. In front of the focal
+// plane the outermost rays on a side come from the lens edge on the same
+// side, behind it from the lens edge on the opposite side, so each side is
+// bounded by the union of two planes. A sphere is outside if it lies beyond
+// both planes of any side or behind the lens.
+// Planes are kept in double precision and spheres and boxes are given a
+// small margin so float rounding in the rays can never lose a hit.
+public final class TileFrustum
+{
+	// Two planes for each of the four sides of the tile
+	private static final int SIDE_PLANES = 8;
+
+	// Allowance for the float rounding of the rays
+	private static final double MARGIN = 1e-3;
+
+	// Plane normals pointing out of the frustum and distances from the
+	// world origin, the last plane is the lens plane
+	private final double[] nx = new double[SIDE_PLANES + 1];
+	private final double[] ny = new double[SIDE_PLANES + 1];
+	private final double[] nz = new double[SIDE_PLANES + 1];
+	private final double[] d = new double[SIDE_PLANES + 1];
+
+	// Bound the rays of RenderContext.cameraRay() for the image positions
+	// [xMin, xMax] x [yMin, yMax] (before pixel scaling) and lens offsets of
+	// up to lensRadius along camera vectors a and b
+	void set(Vector3f origin, MutableVector3f a, MutableVector3f b, MutableVector3f c, float lensRadius,
+			float pixelScale, float xMin, float xMax, float yMin, float yMax)
+	{
+		double ox = origin.getX();
+		double oy = origin.getY();
+		double oz = origin.getZ();
+
+		// Centre of the tile on the focal plane, which every ray through
+		// a pixel position meets whatever its lens offset
+		double u = 16.0 * pixelScale * (xMin + xMax) / 2;
+		double v = 16.0 * pixelScale * (yMin + yMax) / 2;
+
+		double fx = ox + a.x * u + b.x * v + 16.0 * c.x;
+		double fy = oy + a.y * u + b.y * v + 16.0 * c.y;
+		double fz = oz + a.z * u + b.z * v + 16.0 * c.z;
+
+		// Half the tile on the focal plane
+		double focusA = 16.0 * pixelScale * (xMax - xMin) / 2;
+		double focusB = 16.0 * pixelScale * (yMax - yMin) / 2;
+
+		int plane = 0;
+
+		for (int side = 0; side < 4; side++)
+		{
+			// The A sides are bounded by planes along B and the other way
+			// round
+			MutableVector3f across = side < 2 ? a : b;
+			MutableVector3f along = side < 2 ? b : a;
+
+			double sign = (side & 1) == 0 ? 1 : -1;
+			double focus = sign * (side < 2 ? focusA : focusB);
+
+			double ex = fx + across.x * focus;
+			double ey = fy + across.y * focus;
+			double ez = fz + across.z * focus;
+
+			for (int lensSide = -1; lensSide <= 1; lensSide += 2)
+			{
+				double lx = ox + across.x * lensRadius * lensSide;
+				double ly = oy + across.y * lensRadius * lensSide;
+				double lz = oz + across.z * lensRadius * lensSide;
+
+				setPlane(plane++, lx, ly, lz, along.x, along.y, along.z, ex - lx, ey - ly, ez - lz, fx, fy, fz);
+			}
+		}
+
+		setPlane(SIDE_PLANES, ox, oy, oz, a.x, a.y, a.z, b.x, b.y, b.z, fx, fy, fz);
+	}
+
+	// The plane through (px, py, pz) spanned by u and v, facing away from
+	// the point (ix, iy, iz) inside the frustum
+	private void setPlane(int plane, double px, double py, double pz, double ux, double uy, double uz, double vx,
+			double vy, double vz, double ix, double iy, double iz)
+	{
+		double x = uy * vz - uz * vy;
+		double y = uz * vx - ux * vz;
+		double z = ux * vy - uy * vx;
+
+		double length = Math.sqrt(x * x + y * y + z * z);
+
+		if (x * (ix - px) + y * (iy - py) + z * (iz - pz) > 0)
+		{
+			length = -length;
+		}
+
+		nx[plane] = x / length;
+		ny[plane] = y / length;
+		nz[plane] = z / length;
+		d[plane] = nx[plane] * px + ny[plane] * py + nz[plane] * pz;
+	}
+
+	// Can a ray of the tile hit the sphere
+	boolean intersectsSphere(float x, float y, float z, float radius)
+	{
+		double reach = radius + MARGIN;
+
+		if (distance(SIDE_PLANES, x, y, z) > reach)
+		{
+			return false;
+		}
+
+		for (int plane = 0; plane < SIDE_PLANES; plane += 2)
+		{
+			if (distance(plane, x, y, z) > reach && distance(plane + 1, x, y, z) > reach)
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	// Can a ray of the tile pass through the box
+	boolean intersectsBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ)
+	{
+		if (boxDistance(SIDE_PLANES, minX, minY, minZ, maxX, maxY, maxZ) > MARGIN)
+		{
+			return false;
+		}
+
+		for (int plane = 0; plane < SIDE_PLANES; plane += 2)
+		{
+			if (boxDistance(plane, minX, minY, minZ, maxX, maxY, maxZ) > MARGIN
+					&& boxDistance(plane + 1, minX, minY, minZ, maxX, maxY, maxZ) > MARGIN)
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private double distance(int plane, double x, double y, double z)
+	{
+		return nx[plane] * x + ny[plane] * y + nz[plane] * z - d[plane];
+	}
+
+	// Distance of the box corner furthest inside the plane
+	private double boxDistance(int plane, float minX, float minY, float minZ, float maxX, float maxY, float maxZ)
+	{
+		return distance(plane, nx[plane] > 0 ? minX : maxX, ny[plane] > 0 ? minY : maxY, nz[plane] > 0 ? minZ : maxZ);
+	}
+}
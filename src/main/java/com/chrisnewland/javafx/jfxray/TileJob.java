@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// Tiles to render on a RenderService. Called from the service's threads,
+// renderTile() concurrently for different tiles.
+interface TileJob
+{
+	// The next tile to render, null once there are none left or the job is
+	// cancelled
+	Tile nextTile();
+
+	void renderTile(Tile tile);
+
+	// Stop handing out tiles
+	void cancel();
+}
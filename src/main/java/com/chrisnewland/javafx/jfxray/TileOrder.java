@@ -0,0 +1,18 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+public enum TileOrder
+{
+	// Left to right, top to bottom
+	SCANLINE,
+
+	// Outwards from the centre of the image
+	SPIRAL,
+
+	// Along a Hilbert curve so consecutive tiles are always neighbours
+	HILBERT
+}
@@ -0,0 +1,15 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+// Receives each tile as soon as it is rendered. Called from the render
+// threads, concurrently for different tiles.
+public interface TileOutput
+{
+	// 'rgb' holds the tile's pixels top row first, tile.getWidth() * 3 bytes
+	// per row. It is reused for the next tile once this returns.
+	void writeTile(Tile tile, byte[] rgb);
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Splits the image into tiles and hands them out to render threads in the
+// requested order. Threads take the next tile as soon as they finish one so
+// cheap sky tiles and expensive sphere tiles balance out across the cores.
+public final class TileScheduler
+{
+	private final int imageWidth;
+	private final int imageHeight;
+	private final int tileSize;
+	private final TileOrder order;
+
+	private final int tilesX;
+	private final int tileCount;
+
+	// Sorted tiles, null for scanline order where each tile is worked out
+	// from its index so huge images need no tile list
+	private final List<Tile> tiles;
+
+	private final AtomicInteger nextTile = new AtomicInteger();
+
+	public TileScheduler(int imageWidth, int imageHeight, int tileSize, TileOrder order)
+	{
+		if (tileSize <= 0)
+		{
+			throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+		}
+
+		this.imageWidth = imageWidth;
+		this.imageHeight = imageHeight;
+		this.tileSize = tileSize;
+		this.order = order;
+
+		this.tilesX = (imageWidth + tileSize - 1) / tileSize;
+		this.tileCount = tilesX * ((imageHeight + tileSize - 1) / tileSize);
+
+		this.tiles = order == TileOrder.SCANLINE ? null : createTiles(imageWidth, imageHeight, tileSize, order);
+	}
+
+	// Hands out exactly 'tiles' in the order given, for rendering part of a
+	// frame
+	public TileScheduler(List<Tile> tiles)
+	{
+		this.imageWidth = 0;
+		this.imageHeight = 0;
+		this.tileSize = 0;
+		this.order = null;
+
+		this.tilesX = 0;
+		this.tileCount = tiles.size();
+
+		this.tiles = new ArrayList<>(tiles);
+	}
+
+	// Returns null once every tile has been handed out
+	public Tile nextTile()
+	{
+		int index = nextTile.getAndIncrement();
+
+		if (index >= tileCount)
+		{
+			return null;
+		}
+
+		return getTile(index);
+	}
+
+	// The tile at 'index' in this scheduler's order
+	public Tile getTile(int index)
+	{
+		return tiles != null ? tiles.get(index) : scanlineTile(imageWidth, imageHeight, tileSize, tilesX, index);
+	}
+
+	public List<Tile> getTiles()
+	{
+		if (tiles == null)
+		{
+			return createTiles(imageWidth, imageHeight, tileSize, order);
+		}
+
+		return Collections.unmodifiableList(tiles);
+	}
+
+	public int getTileCount()
+	{
+		return tileCount;
+	}
+
+	public static List<Tile> createTiles(int imageWidth, int imageHeight, int tileSize, TileOrder order)
+	{
+		if (tileSize <= 0)
+		{
+			throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+		}
+
+		final int tilesX = (imageWidth + tileSize - 1) / tileSize;
+		final int tilesY = (imageHeight + tileSize - 1) / tileSize;
+
+		List<Tile> result = new ArrayList<>(tilesX * tilesY);
+
+		for (int ty = 0; ty < tilesY; ty++)
+		{
+			for (int tx = 0; tx < tilesX; tx++)
+			{
+				result.add(scanlineTile(imageWidth, imageHeight, tileSize, tilesX, ty * tilesX + tx));
+			}
+		}
+
+		switch (order)
+		{
+		case SPIRAL:
+			sortSpiral(result, tileSize, tilesX, tilesY);
+			break;
+		case HILBERT:
+			sortHilbert(result, tileSize, tilesX, tilesY);
+			break;
+		case SCANLINE:
+		default:
+			break;
+		}
+
+		return result;
+	}
+
+	// The tile at 'index' in scanline order
+	private static Tile scanlineTile(int imageWidth, int imageHeight, int tileSize, int tilesX, int index)
+	{
+		int x = (index % tilesX) * tileSize;
+		int y = (index / tilesX) * tileSize;
+
+		return new Tile(x, y, Math.min(tileSize, imageWidth - x), Math.min(tileSize, imageHeight - y));
+	}
+
+	// Ring by ring outwards from the centre tile, clockwise within a ring
+	private static void sortSpiral(List<Tile> tiles, final int tileSize, int tilesX, int tilesY)
+	{
+		final float centreX = (tilesX - 1) / 2f;
+		final float centreY = (tilesY - 1) / 2f;
+
+		Collections.sort(tiles, new Comparator<Tile>()
+		{
+			@Override
+			public int compare(Tile t1, Tile t2)
+			{
+				float dx1 = t1.getX() / tileSize - centreX;
+				float dy1 = t1.getY() / tileSize - centreY;
+				float dx2 = t2.getX() / tileSize - centreX;
+				float dy2 = t2.getY() / tileSize - centreY;
+
+				int ring = Float.compare(Math.max(Math.abs(dx1), Math.abs(dy1)), Math.max(Math.abs(dx2), Math.abs(dy2)));
+
+				if (ring != 0)
+				{
+					return ring;
+				}
+
+				return Double.compare(Math.atan2(dy1, dx1), Math.atan2(dy2, dx2));
+			}
+		});
+	}
+
+	private static void sortHilbert(List<Tile> tiles, final int tileSize, int tilesX, int tilesY)
+	{
+		int size = 1;
+
+		while (size < Math.max(tilesX, tilesY))
+		{
+			size <<= 1;
+		}
+
+		final int curveSize = size;
+
+		Collections.sort(tiles, new Comparator<Tile>()
+		{
+			@Override
+			public int compare(Tile t1, Tile t2)
+			{
+				long d1 = hilbertIndex(curveSize, t1.getX() / tileSize, t1.getY() / tileSize);
+				long d2 = hilbertIndex(curveSize, t2.getX() / tileSize, t2.getY() / tileSize);
+
+				return d1 < d2 ? -1 : (d1 == d2 ? 0 : 1);
+			}
+		});
+	}
+
+	// Distance of (x, y) along the Hilbert curve filling a size x size grid
+	// (size is a power of two)
+	static long hilbertIndex(int size, int x, int y)
+	{
+		long d = 0;
+
+		for (int s = size / 2; s > 0; s /= 2)
+		{
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+
+			d += (long) s * s * ((3 * rx) ^ ry);
+
+			// Rotate the quadrant
+			if (ry == 0)
+			{
+				if (rx == 1)
+				{
+					x = size - 1 - x;
+					y = size - 1 - y;
+				}
+
+				int swap = x;
+				x = y;
+				y = swap;
+			}
+		}
+
+		return d;
+	}
+}
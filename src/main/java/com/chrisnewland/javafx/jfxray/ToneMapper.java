@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Turns HDR pixel values into the 8 bit output.
+// An HDR value is the light a pixel's rays gathered in one channel, summed
+// over the config's ray count, before brightness is applied. It is shown as
+// BLACK_LEVEL + value * brightness * 2^exposure on the 0..255 scale, like
+// the original renderer's pixel sums, then clamped or compressed by the
+// tone mapping operator and gamma corrected.
+// With CLAMP, exposure 0 and gamma 1 the output is the original image
+// except that overexposed values stop at 255 rather than wrapping round to
+// dark ones.
+public final class ToneMapper
+{
+	// The value of a pixel no light reaches, the original "almost pitch
+	// black"
+	static final float BLACK_LEVEL = 16;
+
+	// Values mapped by each task of the parallel stage
+	private static final int CHUNK = 1 << 16;
+
+	private final ToneMapping mapping;
+
+	// Brightness times 2^exposure
+	private final float scale;
+
+	private final float inverseGamma;
+
+	// thresholds[k] is the lowest value curve() maps to k or more, null for
+	// the plain clamp. The curve is monotonic so mapping a value is a binary
+	// search of 8 steps instead of a division and a power.
+	private final float[] thresholds;
+
+	public ToneMapper(RenderConfig config)
+	{
+		this(config.getToneMapping(), config.getBrightness(), config.getExposure(), config.getGamma());
+	}
+
+	public ToneMapper(ToneMapping mapping, float brightness, float exposure, float gamma)
+	{
+		this.mapping = mapping;
+		this.scale = brightness * (float) Math.pow(2, exposure);
+		this.inverseGamma = gamma > 0 ? 1 / gamma : 1;
+
+		if (mapping == ToneMapping.CLAMP && inverseGamma == 1)
+		{
+			thresholds = null;
+		}
+		else
+		{
+			thresholds = new float[256];
+
+			thresholds[0] = Float.NEGATIVE_INFINITY;
+
+			for (int k = 1; k < 256; k++)
+			{
+				thresholds[k] = lowestValueFor(k);
+			}
+		}
+	}
+
+	// Bisection over the bit patterns of the non-negative floats, which
+	// sort like ints
+	private float lowestValueFor(int level)
+	{
+		int low = 0;
+		int high = Float.floatToIntBits(Float.MAX_VALUE);
+
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+
+			if (curve(Float.intBitsToFloat(middle)) >= level)
+			{
+				high = middle;
+			}
+			else
+			{
+				low = middle + 1;
+			}
+		}
+
+		return Float.intBitsToFloat(low);
+	}
+
+	// Map 'count' values from hdr[hdrOffset] on, each multiplied by
+	// 'hdrScale', into rgb[rgbOffset] on
+	public void map(float[] hdr, int hdrOffset, float hdrScale, byte[] rgb, int rgbOffset, int count)
+	{
+		float valueScale = scale * hdrScale;
+
+		for (int i = 0; i < count; i++)
+		{
+			rgb[rgbOffset + i] = (byte) toByte(BLACK_LEVEL + hdr[hdrOffset + i] * valueScale);
+		}
+	}
+
+	// Map the whole of 'hdr' into 'rgb' in parallel on 'pool'
+	public void map(ForkJoinPool pool, float[] hdr, float hdrScale, byte[] rgb)
+	{
+		pool.invoke(new MapTask(hdr, hdrScale, rgb, 0, hdr.length));
+	}
+
+	// The output for 'value', on the 0..255 scale before tone mapping
+	private int toByte(float value)
+	{
+		if (thresholds == null)
+		{
+			return (int) Math.min(value, 255);
+		}
+
+		int level = 0;
+
+		for (int step = 128; step > 0; step >>= 1)
+		{
+			if (value >= thresholds[level + step])
+			{
+				level += step;
+			}
+		}
+
+		return level;
+	}
+
+	// The tone curve that toByte() looks up
+	private int curve(float value)
+	{
+		float x = value / 255;
+
+		if (mapping == ToneMapping.REINHARD)
+		{
+			x = x / (1 + x);
+		}
+		else
+		{
+			x = Math.min(x, 1);
+		}
+
+		if (inverseGamma != 1)
+		{
+			x = (float) Math.pow(x, inverseGamma);
+		}
+
+		return (int) (x * 255);
+	}
+
+	// Maps hdr[start .. end - 1], split in half until a chunk is left
+	private final class MapTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final float[] hdr;
+		private final float hdrScale;
+		private final byte[] rgb;
+		private final int start;
+		private final int end;
+
+		MapTask(float[] hdr, float hdrScale, byte[] rgb, int start, int end)
+		{
+			this.hdr = hdr;
+			this.hdrScale = hdrScale;
+			this.rgb = rgb;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (end - start <= CHUNK)
+			{
+				map(hdr, start, hdrScale, rgb, start, end - start);
+				return;
+			}
+
+			int middle = (start + end) >>> 1;
+
+			invokeAll(new MapTask(hdr, hdrScale, rgb, start, middle), new MapTask(hdr, hdrScale, rgb, middle, end));
+		}
+	}
+}
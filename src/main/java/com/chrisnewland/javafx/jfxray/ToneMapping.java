@@ -0,0 +1,16 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+public enum ToneMapping
+{
+	// Scale and cut off at white (the original look, without the wrap
+	// around of overexposed pixels)
+	CLAMP,
+
+	// Compress highlights with x / (1 + x) so nothing is cut off
+	REINHARD
+}
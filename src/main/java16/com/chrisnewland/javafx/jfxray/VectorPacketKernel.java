@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// PacketKernel with FloatVector, loaded by PacketKernel when the vector
+// profile has compiled it and the JVM has jdk.incubator.vector.
+// The packet is split into vectors of the widest shape that fits in
+// RayPacket.LANES, one vector for AVX2 or AVX-512, two for SSE or NEON.
+// Each vector's origins and directions are loaded once and tested against
+// every sphere. Lanes start masked by laneMask, which already leaves out
+// those past the packet's size and those whose ray misses the scene, and a
+// sphere only updates the lanes it is the closest hit for so far. A vector
+// with no lanes left is skipped, as is the update for a sphere none of its
+// lanes hit.
+// The closest hits stay in the packet's arrays rather than in vectors
+// carried round the sphere loop: JDK 17's C2 boxes loop carried vectors,
+// which allocated about 270 bytes per packet, while the loads and stores
+// hit L1 and allocate nothing.
+// The arithmetic is RenderContext.intersectSphere()'s, operation for
+// operation and without fused multiply adds, so the hits are bit for bit
+// the scalar ones.
+final class VectorPacketKernel extends PacketKernel
+{
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED.length() > RayPacket.LANES
+			? FloatVector.SPECIES_256 : FloatVector.SPECIES_PREFERRED;
+
+	// As many int lanes as FLOATS has float lanes
+	private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, FLOATS.vectorShape());
+
+	// Each lane's bit of laneMask, shifted to the vector's first lane.
+	// Cheaper than VectorMask.fromLong(), which JDK 17 does not intrinsify.
+	private static final IntVector LANE_BITS = IntVector.fromArray(INTS, new int[] { 1, 2, 4, 8, 16, 32, 64, 128 }, 0);
+
+	// Marks a lane no sphere has been found for yet
+	private static final int NO_HIT = -1;
+
+	@Override
+	int intersectSpheres(RayPacket packet, int laneMask, boolean[][] data, int colMin, int colMax, int rowMin,
+			int rowMax)
+	{
+		int[] hitCol = packet.hitCol;
+
+		for (int lane = 0; lane < RayPacket.LANES; lane++)
+		{
+			if ((laneMask & (1 << lane)) != 0)
+			{
+				hitCol[lane] = NO_HIT;
+			}
+		}
+
+		int spheres = 0;
+
+		for (int first = 0; first < RayPacket.LANES; first += FLOATS.length())
+		{
+			VectorMask<Float> active = IntVector.broadcast(INTS, laneMask >>> first).and(LANE_BITS)
+					.compare(VectorOperators.NE, 0).cast(FLOATS);
+
+			if (!active.anyTrue())
+			{
+				continue;
+			}
+
+			FloatVector ox = FloatVector.fromArray(FLOATS, packet.ox, first);
+			FloatVector py = FloatVector.fromArray(FLOATS, packet.oy, first).add(0f);
+			FloatVector oz = FloatVector.fromArray(FLOATS, packet.oz, first);
+			FloatVector dx = FloatVector.fromArray(FLOATS, packet.dx, first);
+			FloatVector dy = FloatVector.fromArray(FLOATS, packet.dy, first);
+			FloatVector dz = FloatVector.fromArray(FLOATS, packet.dz, first);
+
+			FloatVector pyDy = py.mul(dy);
+			FloatVector pyPy = py.mul(py);
+
+			spheres = 0;
+
+			for (int col = colMin; col <= colMax; col++)
+			{
+				FloatVector px = ox.add(-col);
+				FloatVector pxDx = px.mul(dx);
+				FloatVector pxPx = px.mul(px);
+
+				for (int row = rowMin; row <= rowMax; row++)
+				{
+					if (!data[row][col])
+					{
+						continue;
+					}
+
+					spheres++;
+
+					FloatVector pz = oz.add(-row - 4);
+
+					FloatVector b = pxDx.add(pyDy).add(pz.mul(dz));
+					FloatVector c = pxPx.add(pyPy).add(pz.mul(pz)).sub(1);
+					FloatVector q = b.mul(b).sub(c);
+
+					VectorMask<Float> hit = active.and(q.compare(VectorOperators.GT, 0));
+
+					if (!hit.anyTrue())
+					{
+						continue;
+					}
+
+					FloatVector s = b.neg().sub(q.sqrt());
+					FloatVector t = FloatVector.fromArray(FLOATS, packet.t, first);
+
+					// The scalar test is s > .01 in double, for a float
+					// that is the same as s > .01f
+					VectorMask<Float> closer = hit.and(s.compare(VectorOperators.LT, t)).and(
+							s.compare(VectorOperators.GT, .01f));
+
+					if (!closer.anyTrue())
+					{
+						continue;
+					}
+
+					VectorMask<Integer> closerInts = closer.cast(INTS);
+
+					t.blend(s, closer).intoArray(packet.t, first);
+					IntVector.fromArray(INTS, hitCol, first).blend(col, closerInts).intoArray(hitCol, first);
+					IntVector.fromArray(INTS, packet.hitRow, first).blend(row, closerInts)
+							.intoArray(packet.hitRow, first);
+				}
+			}
+		}
+
+		for (int lane = 0; lane < RayPacket.LANES; lane++)
+		{
+			if ((laneMask & (1 << lane)) != 0 && hitCol[lane] != NO_HIT)
+			{
+				packet.material[lane] = HitRecord.MATERIAL_SPHERE;
+			}
+		}
+
+		return spheres;
+	}
+}
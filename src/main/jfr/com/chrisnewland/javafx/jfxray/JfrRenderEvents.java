@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// RenderEvents as Java Flight Recorder events, loaded by RenderEvents when
+// the jfr profile has compiled it. Record with
+// -XX:StartFlightRecording=filename=render.jfr and view with
+// jfr print --events com.chrisnewland.javafx.jfxray.* render.jfr
+final class JfrRenderEvents extends RenderEvents
+{
+	@Name("com.chrisnewland.javafx.jfxray.Render")
+	@Label("Render")
+	@Category("JFXRay")
+	@Description("A whole frame, from the call to render() to its return")
+	static final class RenderEvent extends Event
+	{
+		@Label("Width")
+		int width;
+
+		@Label("Height")
+		int height;
+
+		@Label("Rays per Pixel")
+		int rays;
+
+		@Label("Threads")
+		int threads;
+
+		@Label("Tiles")
+		long tiles;
+
+		@Label("Primary Rays")
+		long primaryRays;
+
+		@Label("Frame Bytes")
+		@DataAmount
+		long frameBytes;
+
+		@Label("Cached")
+		@Description("The frame came from the render cache")
+		boolean cached;
+
+		@Label("Cancelled")
+		boolean cancelled;
+	}
+
+	@Name("com.chrisnewland.javafx.jfxray.Tile")
+	@Label("Tile")
+	@Category("JFXRay")
+	@Description("One tile traced by a render thread")
+	static final class TileEvent extends Event
+	{
+		@Label("X")
+		int x;
+
+		@Label("Y")
+		int y;
+
+		@Label("Width")
+		int width;
+
+		@Label("Height")
+		int height;
+
+		@Label("Pass")
+		@Description("0 for a full quality tile, else the progressive pass")
+		int pass;
+
+		@Label("Primary Rays")
+		long primaryRays;
+
+		@Label("Shadow Rays")
+		long shadowRays;
+
+		@Label("Reflection Rays")
+		long reflectionRays;
+
+		@Label("Sphere Tests")
+		long sphereTests;
+	}
+
+	@Override
+	Object beginRender()
+	{
+		RenderEvent event = new RenderEvent();
+
+		if (!event.isEnabled())
+		{
+			return null;
+		}
+
+		event.begin();
+
+		return event;
+	}
+
+	@Override
+	void endRender(Object begun, RenderConfig config, long tiles, long primaryRays, boolean cached, boolean cancelled)
+	{
+		RenderEvent event = (RenderEvent) begun;
+
+		if (event == null)
+		{
+			return;
+		}
+
+		event.end();
+
+		if (event.shouldCommit())
+		{
+			event.width = config.getImageWidth();
+			event.height = config.getImageHeight();
+			event.rays = config.getRays();
+			event.threads = config.getThreads();
+			event.tiles = tiles;
+			event.primaryRays = primaryRays;
+			event.frameBytes = (long) config.getImageWidth() * config.getImageHeight() * 3;
+			event.cached = cached;
+			event.cancelled = cancelled;
+			event.commit();
+		}
+	}
+
+	@Override
+	Object beginTile()
+	{
+		TileEvent event = new TileEvent();
+
+		if (!event.isEnabled())
+		{
+			return null;
+		}
+
+		event.begin();
+
+		return event;
+	}
+
+	@Override
+	void endTile(Object begun, Tile tile, int pass, long primaryRays, long shadowRays, long reflectionRays,
+			long sphereTests)
+	{
+		TileEvent event = (TileEvent) begun;
+
+		if (event == null)
+		{
+			return;
+		}
+
+		event.end();
+
+		if (event.shouldCommit())
+		{
+			event.x = tile.getX();
+			event.y = tile.getY();
+			event.width = tile.getWidth();
+			event.height = tile.getHeight();
+			event.pass = pass;
+			event.primaryRays = primaryRays;
+			event.shadowRays = shadowRays;
+			event.reflectionRays = reflectionRays;
+			event.sphereTests = sphereTests;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FloorMapTest
+{
+	// Bitmap of thin lines one pixel wide
+	private static final int BITMAP_WIDTH = 240;
+	private static final int BITMAP_HEIGHT = 60;
+
+	// The light square and its samples as FloorMap bakes them
+	private static final float LIGHT_X = 9;
+	private static final float LIGHT_Y = 9;
+	private static final float LIGHT_Z = 16;
+	private static final int LIGHT_SAMPLES = 8;
+
+	private static final float RESOLUTION = 2;
+
+	private File sceneFile;
+
+	private JFXRay raytracer;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		sceneFile = File.createTempFile("floormap", ".pbm");
+
+		try (PrintWriter out = new PrintWriter(sceneFile, "US-ASCII"))
+		{
+			out.println("P1");
+			out.println(BITMAP_WIDTH + " " + BITMAP_HEIGHT);
+
+			for (int y = 0; y < BITMAP_HEIGHT; y++)
+			{
+				for (int x = 0; x < BITMAP_WIDTH; x++)
+				{
+					// Every 8th row and column set, spheres a tenth of a
+					// unit across on a sparse grid of lines
+					out.print(x % 8 == 0 || y % 8 == 0 ? "1 " : "0 ");
+				}
+
+				out.println();
+			}
+		}
+
+		raytracer = new JFXRay();
+	}
+
+	@After
+	public void tearDown()
+	{
+		raytracer.shutdown();
+		sceneFile.delete();
+	}
+
+	// Every texel of a scene of small spheres holds the light its own
+	// shadow rays see, with no sphere slipping between the samples
+	@Test
+	public void testMapMatchesTracedShadowsOfSmallSpheres()
+	{
+		RenderConfig config = RenderConfigLoader.createDefault();
+
+		config.setSceneFile(sceneFile.getAbsolutePath());
+		config.setSceneWidth(24);
+		config.setFloorMapResolution(RESOLUTION);
+		config.setThreads(1);
+
+		RenderContext context = raytracer.prepare(config);
+
+		FloorMap map = context.floorMap;
+
+		HitRecord hit = new HitRecord();
+
+		int partlyShadowed = 0;
+
+		for (int row = 0; row < map.getHeight(); row++)
+		{
+			float y = map.getMinY() + (row + 0.5f) / RESOLUTION;
+
+			for (int column = 0; column < map.getWidth(); column++)
+			{
+				float x = map.getMinX() + (column + 0.5f) / RESOLUTION;
+
+				int lit = 0;
+				float expected = 0;
+
+				for (int j = 0; j < LIGHT_SAMPLES; j++)
+				{
+					for (int i = 0; i < LIGHT_SAMPLES; i++)
+					{
+						float lx = LIGHT_X + (i + 0.5f) / LIGHT_SAMPLES - x;
+						float ly = LIGHT_Y + (j + 0.5f) / LIGHT_SAMPLES - y;
+
+						float factor = 1f / (float) Math.sqrt(lx * lx + ly * ly + LIGHT_Z * LIGHT_Z);
+
+						if (!context.occluded(x, y, 0, lx * factor, ly * factor, LIGHT_Z * factor, hit))
+						{
+							lit++;
+							expected += (float) (LIGHT_Z / Math.sqrt(lx * lx + ly * ly + LIGHT_Z * LIGHT_Z));
+						}
+					}
+				}
+
+				if (lit > 0 && lit < LIGHT_SAMPLES * LIGHT_SAMPLES)
+				{
+					partlyShadowed++;
+				}
+
+				expected /= LIGHT_SAMPLES * LIGHT_SAMPLES;
+
+				assertEquals("texel " + column + "," + row, expected, map.lookup(x, y), 1e-4f);
+			}
+		}
+
+		// The scene does cast soft shadows for the map to get right
+		assertTrue(partlyShadowed > 0);
+	}
+}
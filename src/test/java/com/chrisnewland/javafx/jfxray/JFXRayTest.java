@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JFXRayTest
+{
+	private JFXRay raytracer;
+
+	@Before
+	public void setUp()
+	{
+		raytracer = new JFXRay();
+	}
+
+	@After
+	public void tearDown()
+	{
+		raytracer.shutdown();
+	}
+
+	// Renders asking for different thread counts at the same time each
+	// keep their own threads. Every progressive pass looks up its threads
+	// again so the renders switch back and forth between the counts.
+	@Test(timeout = 60000)
+	public void testConcurrentRendersWithDifferentThreadCounts() throws Exception
+	{
+		byte[] expectedOne = render(config(1));
+		byte[] expectedTwo = render(config(2));
+
+		for (int i = 0; i < 20; i++)
+		{
+			Future<byte[]> one = raytracer.submit(config(1));
+
+			assertArrayEquals(expectedTwo, raytracer.render(config(2)));
+			assertArrayEquals(expectedOne, one.get(30, TimeUnit.SECONDS));
+		}
+	}
+
+	private static byte[] render(RenderConfig config)
+	{
+		JFXRay fresh = new JFXRay();
+
+		try
+		{
+			return fresh.render(config);
+		}
+		finally
+		{
+			fresh.shutdown();
+		}
+	}
+
+	// A repeatable progressive render of the default scene
+	private static RenderConfig config(int threads)
+	{
+		RenderConfig config = RenderConfigLoader.createDefault();
+
+		config.setImageWidth(16);
+		config.setImageHeight(16);
+		config.setPixelScale(32);
+		config.setRays(64);
+		config.setProgressive(true);
+		config.setTileSize(8);
+		config.setThreads(threads);
+		config.setSamplerType(SamplerType.SOBOL);
+		config.setSeed(1);
+
+		return config;
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeNotNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+// Every lane of a packet gets the hit RenderContext.test() finds for its ray
+// on its own, lane by lane or with the Vector API kernel. The vector test
+// only runs with --add-modules jdk.incubator.vector and the kernel compiled
+// by the vector profile.
+public class PacketKernelTest
+{
+	private static final int PACKETS = 2000;
+
+	@Test
+	public void testScalarPacketMatchesSingleRays()
+	{
+		assertPacketsMatchSingleRays(null);
+	}
+
+	@Test
+	public void testVectorPacketMatchesSingleRays()
+	{
+		assumeNotNull(PacketKernel.VECTOR);
+
+		assertPacketsMatchSingleRays(PacketKernel.VECTOR);
+	}
+
+	// Same number of sphere tests either way, so the metrics don't change
+	@Test
+	public void testVectorPacketCountsSameSphereTests()
+	{
+		assumeNotNull(PacketKernel.VECTOR);
+
+		assertEquals(sphereTests(null), sphereTests(PacketKernel.VECTOR));
+	}
+
+	private static void assertPacketsMatchSingleRays(PacketKernel kernel)
+	{
+		RenderContext context = context(kernel);
+
+		Random random = new Random(42);
+
+		RayPacket packet = new RayPacket();
+		HitRecord single = new HitRecord();
+		HitRecord lane = new HitRecord();
+
+		for (int i = 0; i < PACKETS; i++)
+		{
+			fill(context, packet, random);
+
+			context.testPacket(packet);
+
+			for (int l = 0; l < packet.size(); l++)
+			{
+				context.test(packet.ox[l], packet.oy[l], packet.oz[l], packet.dx[l], packet.dy[l], packet.dz[l],
+						single);
+				context.packetHit(packet, l, lane);
+
+				assertEquals(single.material, lane.material);
+				assertEquals(single.t, lane.t, 0);
+
+				if (single.material != HitRecord.MATERIAL_SKY)
+				{
+					assertEquals(single.nx, lane.nx, 0);
+					assertEquals(single.ny, lane.ny, 0);
+					assertEquals(single.nz, lane.nz, 0);
+				}
+			}
+		}
+	}
+
+	private static long sphereTests(PacketKernel kernel)
+	{
+		RenderContext context = context(kernel);
+
+		Random random = new Random(42);
+
+		RayPacket packet = new RayPacket();
+
+		for (int i = 0; i < PACKETS; i++)
+		{
+			fill(context, packet, random);
+
+			context.testPacket(packet);
+		}
+
+		return packet.sphereTests;
+	}
+
+	private static RenderContext context(PacketKernel kernel)
+	{
+		RenderConfig config = RenderConfigLoader.createDefault();
+
+		config.setImageWidth(64);
+		config.setImageHeight(64);
+		config.setPixelScale(8);
+		config.setPacketTracing(true);
+
+		JFXRay raytracer = new JFXRay();
+
+		try
+		{
+			RenderContext context = raytracer.prepare(config);
+
+			context.packetKernel = kernel;
+
+			return context;
+		}
+		finally
+		{
+			raytracer.shutdown();
+		}
+	}
+
+	// A run of camera rays from a random spot in the frame, sometimes short
+	// of a full packet
+	private static void fill(RenderContext context, RayPacket packet, Random random)
+	{
+		MutableVector3f lens = new MutableVector3f();
+		MutableVector3f origin = new MutableVector3f();
+		MutableVector3f dir = new MutableVector3f();
+
+		int size = random.nextInt(4) == 0 ? 1 + random.nextInt(RayPacket.LANES) : RayPacket.LANES;
+
+		float x = random.nextFloat() * 64;
+		float y = random.nextFloat() * 64;
+
+		packet.clear();
+
+		for (int l = 0; l < size; l++)
+		{
+			context.cameraRay(x + l + random.nextFloat(), y + random.nextFloat(), random.nextFloat() - 0.5f,
+					random.nextFloat() - 0.5f, lens, origin, dir);
+
+			packet.add(origin.x, origin.y, origin.z, dir.x, dir.y, dir.z);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RenderCacheTest
+{
+	private static final long CACHE_BYTES = 1 << 24;
+
+	private File directory;
+
+	private JFXRay raytracer;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		directory = Files.createTempDirectory("jfxray-cache").toFile();
+	}
+
+	@After
+	public void tearDown()
+	{
+		if (raytracer != null)
+		{
+			raytracer.shutdown();
+		}
+
+		for (File file : directory.listFiles())
+		{
+			file.delete();
+		}
+
+		directory.delete();
+	}
+
+	// A cache hit keeps the frame's HDR values, so a brightness change is
+	// tone mapped without rendering
+	@Test
+	public void testCacheHitCanBeToneMapped()
+	{
+		RenderCache cache = new RenderCache(CACHE_BYTES, null);
+
+		raytracer = new JFXRay();
+		raytracer.setCache(cache);
+
+		raytracer.render(config(10));
+
+		// Another scene's render replaces the engine's HDR values
+		RenderConfig other = config(10);
+		other.setSeed(2);
+
+		raytracer.render(other);
+		raytracer.render(config(10));
+
+		assertEquals(1, cache.getHits());
+		assertTrue(raytracer.toneMap(config(20)));
+		assertArrayEquals(render(config(20)), raytracer.getImageData());
+	}
+
+	// The HDR values survive a restart in the disk tier
+	@Test
+	public void testDiskCacheHitCanBeToneMapped()
+	{
+		JFXRay first = new JFXRay();
+		first.setCache(new RenderCache(CACHE_BYTES, directory));
+		first.render(config(10));
+		first.shutdown();
+
+		RenderCache cache = new RenderCache(CACHE_BYTES, directory);
+
+		raytracer = new JFXRay();
+		raytracer.setCache(cache);
+
+		raytracer.render(config(10));
+
+		assertEquals(1, cache.getDiskHits());
+		assertTrue(raytracer.toneMap(config(20)));
+		assertArrayEquals(render(config(20)), raytracer.getImageData());
+	}
+
+	// HDR values count towards the byte budget
+	@Test
+	public void testHdrValuesCountTowardsBudget()
+	{
+		RenderConfig config = config(10);
+
+		RenderCache cache = new RenderCache(CACHE_BYTES, null);
+
+		cache.putHdr(config, new float[config.getImageWidth() * config.getImageHeight() * 3], 1);
+
+		assertEquals(config.getImageWidth() * config.getImageHeight() * 3 * 4, cache.getBytes());
+	}
+
+	// Changing an array put into or got from the cache leaves the cached
+	// copy alone
+	@Test
+	public void testCallersCannotModifyCachedArrays()
+	{
+		RenderConfig config = config(10);
+
+		RenderCache cache = new RenderCache(CACHE_BYTES, null);
+
+		byte[] frame = new byte[config.getImageWidth() * config.getImageHeight() * 3];
+		float[] hdr = new float[frame.length];
+
+		cache.put(config, frame);
+		cache.putHdr(config, hdr, 1);
+
+		frame[0] = 1;
+		hdr[0] = 1;
+
+		cache.get(config)[1] = 1;
+		cache.getHdr(config)[1] = 1;
+
+		assertArrayEquals(new byte[frame.length], cache.get(config));
+		assertArrayEquals(new float[frame.length], cache.getHdr(config), 0);
+	}
+
+	// Renders marked not cacheable, like the UI's previews, leave the cache
+	// as it was
+	@Test
+	public void testNotCacheableRenderSkipsCache()
+	{
+		RenderCache cache = new RenderCache(CACHE_BYTES, null);
+
+		raytracer = new JFXRay();
+		raytracer.setCache(cache);
+
+		RenderConfig config = config(10);
+		config.setCacheable(false);
+
+		raytracer.render(config);
+		raytracer.render(config);
+
+		assertEquals(0, cache.getHits());
+		assertEquals(0, cache.getMisses());
+		assertEquals(0, cache.getBytes());
+	}
+
+	// The frame of an uncached render
+	private static byte[] render(RenderConfig config)
+	{
+		JFXRay fresh = new JFXRay();
+
+		try
+		{
+			fresh.render(config);
+
+			return fresh.getImageData();
+		}
+		finally
+		{
+			fresh.shutdown();
+		}
+	}
+
+	// A repeatable render of the default scene
+	private static RenderConfig config(float brightness)
+	{
+		RenderConfig config = RenderConfigLoader.createDefault();
+
+		config.setImageWidth(32);
+		config.setImageHeight(32);
+		config.setPixelScale(16);
+		config.setRays(2);
+		config.setSamplerType(SamplerType.SOBOL);
+		config.setSeed(1);
+		config.setBrightness(brightness);
+
+		return config;
+	}
+}
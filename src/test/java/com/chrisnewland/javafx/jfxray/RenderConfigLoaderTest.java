@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class RenderConfigLoaderTest
+{
+	// A pattern whose first row starts with spaces
+	private static final String[] INDENTED = new String[] { "   *   ", "*******" };
+
+	@Test
+	public void testQuotedIndentedFirstRow() throws IOException
+	{
+		assertArrayEquals(INDENTED, load("lines=\"   *   |*******\"\n").getLines());
+	}
+
+	@Test
+	public void testEscapedIndentedFirstRow() throws IOException
+	{
+		assertArrayEquals(INDENTED, load("lines=\\ \\ \\ *   |*******\n").getLines());
+	}
+
+	@Test
+	public void testIndentedFirstRowOnCommandLine()
+	{
+		RenderConfig config = new RenderConfig();
+
+		RenderConfigLoader.set(config, "lines", "   *   |*******");
+
+		assertArrayEquals(INDENTED, config.getLines());
+	}
+
+	@Test
+	public void testIndentedFirstRowRoundTrip() throws IOException
+	{
+		RenderConfig config = RenderConfigLoader.createDefault();
+
+		config.setLines(INDENTED.clone());
+
+		StringWriter writer = new StringWriter();
+
+		RenderConfigLoader.toProperties(config).store(writer, null);
+
+		assertArrayEquals(INDENTED, load(writer.toString()).getLines());
+	}
+
+	private static RenderConfig load(String text) throws IOException
+	{
+		Properties properties = new Properties();
+
+		properties.load(new StringReader(text));
+
+		RenderConfig config = new RenderConfig();
+
+		RenderConfigLoader.apply(config, properties);
+
+		return config;
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RenderCoordinatorTest
+{
+	private RenderCoordinator coordinator;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		coordinator = new RenderCoordinator(0);
+	}
+
+	@After
+	public void tearDown()
+	{
+		coordinator.close();
+	}
+
+	// A worker over loopback renders what a local render would
+	@Test(timeout = 60000)
+	public void testWorkerRendersFrame() throws Exception
+	{
+		startWorker();
+
+		coordinator.awaitWorkers(1);
+
+		RenderConfig config = config();
+
+		JFXRay local = new JFXRay();
+
+		try
+		{
+			assertArrayEquals(local.render(config), coordinator.render(config));
+		}
+		finally
+		{
+			local.shutdown();
+		}
+	}
+
+	// Workers only get the config's text, not the file it names
+	@Test
+	public void testSceneFileIsRejected() throws IOException
+	{
+		RenderConfig config = config();
+		config.setSceneFile("scene.txt");
+
+		try
+		{
+			coordinator.render(config);
+			fail("Expected the scene file to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertEquals(0, coordinator.getWorkerCount());
+		}
+	}
+
+	// A FAILED message ends the render instead of the job waiting forever
+	@Test(timeout = 60000)
+	public void testWorkerFailureFailsRender() throws Exception
+	{
+		startFakeWorker(true);
+
+		coordinator.awaitWorkers(1);
+
+		try
+		{
+			coordinator.render(config());
+			fail("Expected the worker's failure");
+		}
+		catch (IOException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains("cannot render"));
+		}
+	}
+
+	// With no worker left to take its ranges the render fails
+	@Test(timeout = 60000)
+	public void testLosingEveryWorkerFailsRender() throws Exception
+	{
+		Thread worker = startFakeWorker(false);
+
+		coordinator.awaitWorkers(1);
+
+		try
+		{
+			coordinator.render(config());
+			fail("Expected the render to fail");
+		}
+		catch (IOException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains("Every worker was dropped"));
+		}
+
+		worker.join();
+	}
+
+	private void startWorker()
+	{
+		Thread thread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					new RenderWorker("localhost", coordinator.getPort(), 1).run();
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}, "Test worker");
+
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// Reads the JOB, then either reports it failed or disconnects
+	private Thread startFakeWorker(final boolean reportFailure)
+	{
+		Thread thread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try (Socket socket = new Socket("localhost", coordinator.getPort()))
+				{
+					DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+					assertEquals(RenderProtocol.JOB, in.read());
+
+					int jobId = in.readInt();
+
+					RenderProtocol.readConfig(in);
+
+					if (reportFailure)
+					{
+						DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+						RenderProtocol.writeFailure(out, jobId, "cannot render");
+
+						// Stay connected until the coordinator closes
+						while (in.read() != -1)
+						{
+						}
+					}
+				}
+				catch (IOException e)
+				{
+				}
+			}
+		}, "Fake worker");
+
+		thread.setDaemon(true);
+		thread.start();
+
+		return thread;
+	}
+
+	private static RenderConfig config()
+	{
+		RenderConfig config = RenderConfigLoader.createDefault();
+
+		config.setImageWidth(16);
+		config.setImageHeight(16);
+		config.setPixelScale(32);
+		config.setRays(4);
+		config.setTileSize(8);
+		config.setThreads(1);
+		config.setSamplerType(SamplerType.SOBOL);
+		config.setSeed(1);
+
+		return config;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RenderMetricsTest
+{
+	private JFXRay raytracer;
+
+	@Before
+	public void setUp()
+	{
+		raytracer = new JFXRay();
+	}
+
+	@After
+	public void tearDown()
+	{
+		raytracer.shutdown();
+	}
+
+	// A render starting or finishing while another is in flight neither
+	// resets its counts nor stops the metrics running
+	@Test(timeout = 60000)
+	public void testConcurrentRendersAddUp() throws Exception
+	{
+		RenderMetrics metrics = raytracer.getMetrics();
+
+		RenderConfig slow = config(128, 64);
+		RenderConfig fast = config(16, 1);
+
+		Future<byte[]> first = raytracer.submit(slow);
+
+		while (metrics.getPrimaryRays() == 0)
+		{
+			Thread.sleep(1);
+		}
+
+		long before = metrics.getPrimaryRays();
+
+		raytracer.render(fast);
+
+		assertTrue(metrics.getPrimaryRays() >= before);
+		assertTrue(metrics.isRunning());
+		assertEquals(tiles(slow) + tiles(fast), metrics.getTilesTotal());
+
+		first.get(30, TimeUnit.SECONDS);
+
+		assertFalse(metrics.isRunning());
+		assertEquals(rays(slow) + rays(fast), metrics.getPrimaryRays());
+		assertEquals(tiles(slow) + tiles(fast), metrics.getTilesCompleted());
+	}
+
+	// The next render on its own starts the counts again
+	@Test
+	public void testNextRenderClearsCounts()
+	{
+		RenderConfig config = config(16, 2);
+
+		raytracer.render(config);
+		raytracer.render(config);
+
+		assertEquals(rays(config), raytracer.getMetrics().getPrimaryRays());
+		assertEquals(tiles(config), raytracer.getMetrics().getTilesCompleted());
+	}
+
+	// Every camera ray of every render counted lands in the bounce histogram,
+	// which is empty before the first render
+	@Test(timeout = 60000)
+	public void testBounceHistogramCountsEveryCameraRay() throws Exception
+	{
+		RenderMetrics metrics = raytracer.getMetrics();
+
+		assertEquals(0, metrics.getBounceHistogram().length);
+
+		RenderConfig slow = config(128, 16);
+		RenderConfig fast = config(16, 1);
+
+		Future<byte[]> first = raytracer.submit(slow);
+
+		raytracer.render(fast);
+
+		first.get(30, TimeUnit.SECONDS);
+
+		long[] histogram = metrics.getBounceHistogram();
+
+		assertEquals(slow.getMaxBounces() + 1, histogram.length);
+		assertEquals(rays(slow) + rays(fast), sum(histogram));
+	}
+
+	// JMX shows the same histogram
+	@Test
+	public void testBounceHistogramOverJmx() throws Exception
+	{
+		RenderMetrics metrics = raytracer.getMetrics();
+
+		raytracer.render(config(16, 1));
+
+		metrics.register("test");
+
+		try
+		{
+			ObjectName name = new ObjectName("com.chrisnewland.javafx.jfxray:type=RenderMetrics,name=\"test\"");
+
+			assertArrayEquals(metrics.getBounceHistogram(),
+					(long[]) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "BounceHistogram"));
+		}
+		finally
+		{
+			metrics.unregister();
+		}
+	}
+
+	private static long sum(long[] counts)
+	{
+		long total = 0;
+
+		for (long count : counts)
+		{
+			total += count;
+		}
+
+		return total;
+	}
+
+	private static long rays(RenderConfig config)
+	{
+		return (long) config.getImageWidth() * config.getImageHeight() * config.getRays();
+	}
+
+	private static long tiles(RenderConfig config)
+	{
+		long across = (config.getImageWidth() + config.getTileSize() - 1) / config.getTileSize();
+		long down = (config.getImageHeight() + config.getTileSize() - 1) / config.getTileSize();
+
+		return across * down;
+	}
+
+	private static RenderConfig config(int size, int rays)
+	{
+		RenderConfig config = RenderConfigLoader.createDefault();
+
+		config.setImageWidth(size);
+		config.setImageHeight(size);
+		config.setPixelScale(512f / size);
+		config.setRays(rays);
+		config.setTileSize(16);
+		config.setThreads(1);
+
+		return config;
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RenderServiceTest
+{
+	private RenderService service;
+
+	@Before
+	public void setUp()
+	{
+		service = new RenderService(2);
+	}
+
+	@After
+	public void tearDown()
+	{
+		service.shutdown();
+	}
+
+	// The first tile failure stops the job and is thrown from run()
+	@Test
+	public void testTileFailureIsThrown()
+	{
+		final RuntimeException failure = new RuntimeException("tile failed");
+
+		CountingJob job = new CountingJob(100, 10, failure);
+
+		try
+		{
+			service.run(job, RenderPriority.BATCH);
+			fail("Expected the tile failure");
+		}
+		catch (IllegalStateException e)
+		{
+			assertSame(failure, e.getCause());
+		}
+
+		// At most the tiles already claimed by the other thread follow it
+		assertTrue(job.handedOut.get() <= 12);
+	}
+
+	// A failed job leaves the service working for the next one
+	@Test
+	public void testServiceRunsAfterFailure()
+	{
+		try
+		{
+			service.run(new CountingJob(10, 0, new RuntimeException()), RenderPriority.BATCH);
+			fail("Expected the tile failure");
+		}
+		catch (IllegalStateException e)
+		{
+			// Expected
+		}
+
+		CountingJob job = new CountingJob(10, -1, null);
+
+		service.run(job, RenderPriority.BATCH);
+
+		assertEquals(10, job.rendered.get());
+	}
+
+	// A tile failure in a JFXRay render reaches its caller
+	@Test
+	public void testRenderThrowsTileFailure()
+	{
+		RenderConfig config = RenderConfigLoader.createDefault();
+
+		config.setImageWidth(64);
+		config.setImageHeight(64);
+		config.setPixelScale(8);
+		config.setRays(1);
+		config.setTileSize(16);
+
+		final RuntimeException failure = new RuntimeException("output failed");
+
+		JFXRay raytracer = new JFXRay(service);
+
+		try
+		{
+			raytracer.render(config, new TileOutput()
+			{
+				@Override
+				public void writeTile(Tile tile, byte[] rgb)
+				{
+					throw failure;
+				}
+			});
+
+			fail("Expected the tile failure");
+		}
+		catch (IllegalStateException e)
+		{
+			assertSame(failure, e.getCause());
+		}
+	}
+
+	// 'tiles' one pixel tiles, tile 'failAt' throws 'failure'
+	private static final class CountingJob implements TileJob
+	{
+		private final int tiles;
+		private final int failAt;
+		private final RuntimeException failure;
+
+		private final AtomicInteger handedOut = new AtomicInteger();
+		private final AtomicInteger rendered = new AtomicInteger();
+
+		CountingJob(int tiles, int failAt, RuntimeException failure)
+		{
+			this.tiles = tiles;
+			this.failAt = failAt;
+			this.failure = failure;
+		}
+
+		@Override
+		public Tile nextTile()
+		{
+			int next = handedOut.get();
+
+			if (next >= tiles)
+			{
+				return null;
+			}
+
+			handedOut.incrementAndGet();
+
+			return new Tile(next, 0, 1, 1);
+		}
+
+		@Override
+		public void renderTile(Tile tile)
+		{
+			if (tile.getX() == failAt)
+			{
+				throw failure;
+			}
+
+			rendered.incrementAndGet();
+		}
+
+		@Override
+		public void cancel()
+		{
+		}
+	}
+}
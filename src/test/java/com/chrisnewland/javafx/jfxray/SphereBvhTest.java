@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SphereBvhTest
+{
+	private static ForkJoinPool pool;
+
+	@BeforeClass
+	public static void setUpPool()
+	{
+		pool = new ForkJoinPool(1);
+	}
+
+	@AfterClass
+	public static void shutdownPool()
+	{
+		pool.shutdown();
+	}
+
+	// A ray along y that starts on the plane of the box's low x side, so has
+	// no x component, still finds the sphere it grazes there
+	@Test
+	public void testAxisParallelRayOnBoxPlane()
+	{
+		Scene scene = new Scene();
+
+		scene.add(1.314f, 0, 5, 0.269f, 1, 1, 1);
+
+		SphereBvh bvh = SphereBvh.build(scene, pool);
+
+		float planeX = 1.314f - 0.269f;
+
+		HitRecord hit = new HitRecord();
+
+		hit.t = 1e9f;
+
+		assertTrue(bvh.intersect(planeX, -10, 5, 0, 1, 0, hit));
+		assertEquals(0, hit.sphere);
+
+		assertTrue(bvh.occluded(planeX, -10, 5, 0, 1, 0, 1e9f, hit));
+	}
+
+	// Every ray along y through a row of spheres, starting on the planes
+	// where neighbouring boxes meet, agrees with a test of every sphere
+	@Test
+	public void testAxisParallelRaysMatchEverySphere()
+	{
+		Scene scene = new Scene();
+
+		for (int i = 0; i < 64; i++)
+		{
+			scene.add(i * 0.75f, 0, 5, 0.5f, 1, 1, 1);
+		}
+
+		SphereBvh bvh = SphereBvh.build(scene, pool);
+
+		HitRecord hit = new HitRecord();
+
+		for (int i = 0; i < 64; i++)
+		{
+			for (int side = -1; side <= 1; side += 2)
+			{
+				float x = i * 0.75f + side * 0.5f;
+
+				hit.t = 1e9f;
+
+				boolean expected = hitsAny(scene, x, -10, 5, 0, 1, 0);
+
+				assertEquals("ray at x=" + x, expected, bvh.intersect(x, -10, 5, 0, 1, 0, hit));
+			}
+		}
+	}
+
+	private static boolean hitsAny(Scene scene, float ox, float oy, float oz, float dx, float dy, float dz)
+	{
+		for (int sphere = 0; sphere < scene.size(); sphere++)
+		{
+			float px = ox - scene.getX(sphere);
+			float py = oy - scene.getY(sphere);
+			float pz = oz - scene.getZ(sphere);
+
+			float r = scene.getRadius(sphere);
+
+			float b = px * dx + py * dy + pz * dz;
+			float c = (px * px + py * py + pz * pz) - r * r;
+
+			if (b * b - c > 0 && -b - (float) Math.sqrt(b * b - c) > .01f)
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2013-2014 Chris Newland. All rights reserved.
+ * Licensed under https://github.com/chriswhocodes/JFXRay/blob/master/LICENSE-BSD
+ * http://www.chrisnewland.com/
+ */
+package com.chrisnewland.javafx.jfxray;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Once a thread has rendered a tile, rendering another allocates nothing for
+// each pixel: hits, colours and camera rays all go into the thread's scratch
+public class TileAllocationTest
+{
+	private static final int TILE_SIZE = 32;
+
+	private static final int WARMUP_TILES = 50;
+
+	private com.sun.management.ThreadMXBean threadBean;
+
+	private JFXRay raytracer;
+
+	@Before
+	public void setUp()
+	{
+		threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+
+		raytracer = new JFXRay();
+	}
+
+	@After
+	public void tearDown()
+	{
+		if (raytracer != null)
+		{
+			raytracer.shutdown();
+		}
+	}
+
+	@Test
+	public void testGridTileAllocatesNothingPerPixel()
+	{
+		assertNoPerPixelAllocation(config(IntersectionMode.GRID));
+	}
+
+	@Test
+	public void testBruteForceTileAllocatesNothingPerPixel()
+	{
+		assertNoPerPixelAllocation(config(IntersectionMode.BRUTE_FORCE));
+	}
+
+	@Test
+	public void testBvhTileAllocatesNothingPerPixel()
+	{
+		assertNoPerPixelAllocation(config(IntersectionMode.BVH));
+	}
+
+	@Test
+	public void testPacketTileAllocatesNothingPerPixel()
+	{
+		RenderConfig config = config(IntersectionMode.GRID);
+
+		config.setPacketTracing(true);
+
+		assertNoPerPixelAllocation(config);
+	}
+
+	// A 64 pixel square view of the default scene
+	private RenderConfig config(IntersectionMode mode)
+	{
+		RenderConfig config = RenderConfigLoader.createDefault();
+
+		config.setImageWidth(64);
+		config.setImageHeight(64);
+		config.setPixelScale(8);
+		config.setRays(4);
+		config.setIntersectionMode(mode);
+
+		return config;
+	}
+
+	private void assertNoPerPixelAllocation(RenderConfig config)
+	{
+		RenderContext context = raytracer.prepare(config);
+
+		context.output = new TileOutput()
+		{
+			@Override
+			public void writeTile(Tile tile, byte[] rgb)
+			{
+			}
+		};
+
+		TileJob job = context.tiles(null, 0);
+
+		// The middle of the image, where the rays hit spheres, floor and sky
+		Tile tile = new Tile(16, 16, TILE_SIZE, TILE_SIZE);
+
+		for (int i = 0; i < WARMUP_TILES; i++)
+		{
+			job.renderTile(tile);
+		}
+
+		long threadId = Thread.currentThread().getId();
+
+		// The first reading may allocate for itself
+		threadBean.getThreadAllocatedBytes(threadId);
+
+		long before = threadBean.getThreadAllocatedBytes(threadId);
+
+		job.renderTile(tile);
+
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+		int pixels = TILE_SIZE * TILE_SIZE;
+
+		assertTrue(config.getIntersectionMode() + " tile of " + pixels + " pixels allocated " + allocated + " bytes",
+				allocated < pixels);
+	}
+}